@@ -0,0 +1,11 @@
+#!/bin/bash
+DIR="$( cd "$( dirname "${BASH_SOURCE[0]}" )" && pwd )"
+
+export JAVA_HOME=/usr/csshare/pkgs/jdk1.7.0_17
+export PATH=$JAVA_HOME/bin:$PATH
+
+# benchmark the menu actions, all of them or the ones given as arguments,
+# against a database filled with generate_data.sh. Booking writes rows.
+THREADS=${THREADS:-1}
+java -Dhotel.bench.threads=$THREADS -Dhotel.bench.out=$DIR/../benchmark.csv \
+     -cp $DIR/../classes:$DIR/../lib/pg73jdbc3.jar HotelBenchmark $USER"_DB" $PGPORT $USER "$@"
@@ -0,0 +1,11 @@
+#!/bin/bash
+DIR="$( cd "$( dirname "${BASH_SOURCE[0]}" )" && pwd )"
+
+export JAVA_HOME=/usr/csshare/pkgs/jdk1.7.0_17
+export PATH=$JAVA_HOME/bin:$PATH
+
+# generate a synthetic data set, 1 = the size of Hotel Data, up to 10000,
+# and load it into the empty tables made by create_tables.sql
+SCALE=${1:-100}
+OUT=${2:-/tmp/$USER-hotel-data-$SCALE}
+java -Xmx1g -cp $DIR/../classes:$DIR/../lib/pg73jdbc3.jar DataGenerator "$OUT" $SCALE $USER"_DB" $PGPORT $USER
@@ -0,0 +1,13 @@
+#!/bin/bash
+DIR="$( cd "$( dirname "${BASH_SOURCE[0]}" )" && pwd )"
+
+export JAVA_HOME=/usr/csshare/pkgs/jdk1.7.0_17
+export PATH=$JAVA_HOME/bin:$PATH
+
+# explain the statements of the menu actions against a database filled with
+# generate_data.sh, with its indexes and with each index script given as an
+# argument. Recording the statements books rooms. The report is also saved,
+# so the timings measured can be kept with the index change they justify.
+REPORT=index_advisor_$(date +%Y%m%d_%H%M%S).txt
+java -cp $DIR/../classes:$DIR/../lib/pg73jdbc3.jar IndexAdvisor $USER"_DB" $PGPORT $USER "$@" | tee $REPORT
+echo "Report saved to $REPORT"
@@ -0,0 +1,300 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This class writes RoomUpdatesLog records in the background, for changes
+ * that touch many rooms at once, like repricing every room of a hotel.
+ * Records are queued and inserted with one JDBC batch and one commit per
+ * batch, on a connection of the writer's own, once a batch is full or the
+ * oldest queued record has waited for the flush interval.
+ *
+ * A record is written shortly after the change it logs has committed, not
+ * in the same transaction, so the writer only runs when asked for with
+ * -Dhotel.audit.async=true; changes to a single room are always logged in
+ * their own statement (see Hotel.updateRoomInfo). close() writes every
+ * queued record before returning.
+ *
+ * A session waits a short time for room in the queue, then record()
+ * returns false and the session inserts the record itself. A failed batch
+ * is tried again a few times, waiting longer each time; after the last
+ * attempt, or when the writer is closed, its records are appended to a
+ * dead letter file as CSV (managerID, hotelID, roomNumber, updatedOn), to
+ * be loaded into RoomUpdatesLog once the database is back.
+ *
+ */
+public class AuditLogWriter implements Runnable {
+
+   public static final int DEFAULT_BATCH_SIZE = 500;
+   public static final long DEFAULT_FLUSH_MILLIS = 1000;
+   public static final long DEFAULT_WAIT_MILLIS = 1000;
+   public static final int DEFAULT_ATTEMPTS = 5;
+   public static final String DEFAULT_DEAD_LETTER_FILE = "audit_dead_letter.csv";
+
+   // sessions wait for room once this many batches are queued
+   private static final int QUEUED_BATCHES = 20;
+
+   private static final String INSERT =
+      "INSERT INTO RoomUpdatesLog (managerID, hotelID, roomNumber, updatedOn) VALUES (?, ?, ?, ?)";
+
+   /*
+    * One update of one room
+    **/
+   private static class Record {
+      final int managerID;
+      final int hotelID;
+      final int roomNumber;
+      final Timestamp updatedOn;
+
+      Record(int managerID, int hotelID, int roomNumber, Timestamp updatedOn) {
+         this.managerID = managerID;
+         this.hotelID = hotelID;
+         this.roomNumber = roomNumber;
+         this.updatedOn = updatedOn;
+      }
+   }//end Record
+
+   private final String _url;
+   private final String _user;
+   private final String _passwd;
+   private final int _batchSize;
+   private final long _flushMillis;
+   private final long _waitMillis;
+   private final int _attempts;
+   private final String _deadLetterFile;
+   private final BlockingQueue<Record> _queue;
+
+   private volatile boolean _closed = false;
+   private Thread _thread = null;
+
+   // used by the writer thread only
+   private Connection _connection = null;
+   private PreparedStatement _insert = null;
+
+   private long _written = 0, _batches = 0, _failures = 0, _refused = 0, _deadLettered = 0, _lost = 0;
+
+   /**
+    * @param url the database to write to
+    * @param user the user to connect as
+    * @param passwd the password
+    * @param batchSize records inserted per batch
+    * @param flushMillis milliseconds a queued record waits at most
+    * @param waitMillis milliseconds record() waits for room in the queue
+    * @param attempts times a batch is tried before it is dead lettered
+    * @param deadLetterFile the file batches that cannot be written go to
+    */
+   public AuditLogWriter(String url, String user, String passwd, int batchSize, long flushMillis,
+                         long waitMillis, int attempts, String deadLetterFile) {
+      this._url = url;
+      this._user = user;
+      this._passwd = passwd;
+      this._batchSize = batchSize;
+      this._flushMillis = flushMillis;
+      this._waitMillis = waitMillis;
+      this._attempts = Math.max(1, attempts);
+      this._deadLetterFile = deadLetterFile;
+      this._queue = new ArrayBlockingQueue<Record>(batchSize * QUEUED_BATCHES);
+   }//end AuditLogWriter
+
+   public synchronized void start() {
+      this._thread = new Thread(this, "hotel-audit-log");
+      this._thread.setDaemon(true);
+      this._thread.start();
+   }//end start
+
+   /**
+    * Queues a record, waiting a short time while the queue is full.
+    *
+    * @param managerID the manager who changed the room
+    * @param hotelID the hotel of the room
+    * @param roomNumber the room
+    * @param updatedOn when it changed
+    * @return false when the queue stayed full, the caller writes the record
+    * @throws java.lang.InterruptedException when interrupted while waiting
+    */
+   public boolean record(int managerID, int hotelID, int roomNumber, Timestamp updatedOn) throws InterruptedException {
+      if (this._closed)
+         throw new IllegalStateException("The audit log writer is closed");
+      if (this._queue.offer(new Record(managerID, hotelID, roomNumber, updatedOn), this._waitMillis, TimeUnit.MILLISECONDS))
+         return true;
+      synchronized (this) {
+         ++this._refused;
+      }
+      return false;
+   }//end record
+
+   /**
+    * Writes every queued record and stops the writer.
+    */
+   public void close() {
+      Thread thread;
+      synchronized (this) {
+         this._closed = true;
+         thread = this._thread;
+      }
+      if (thread != null){
+         try{
+            thread.join();
+         }catch (InterruptedException e){
+            Thread.currentThread().interrupt();
+         }
+      }
+   }//end close
+
+   public void run() {
+      List<Record> batch = new ArrayList<Record>(this._batchSize);
+      int failed = 0;
+      try{
+         while (!this._closed || !this._queue.isEmpty() || !batch.isEmpty()) {
+            if (batch.isEmpty()){
+               Record first = this._queue.poll(this._flushMillis, TimeUnit.MILLISECONDS);
+               if (first == null)
+                  continue;
+               batch.add(first);
+               // wait for the rest of the batch, at most the flush interval
+               long deadline = System.currentTimeMillis() + this._flushMillis;
+               while (batch.size() < this._batchSize) {
+                  long wait = this._closed ? 0 : deadline - System.currentTimeMillis();
+                  Record next = this._queue.poll(Math.max(0, wait), TimeUnit.MILLISECONDS);
+                  if (next == null)
+                     break;
+                  batch.add(next);
+               }
+            }
+            if (write(batch)){
+               batch.clear();
+               failed = 0;
+            }
+            else if (++failed >= this._attempts || this._closed){
+               // the database is gone, keep the records aside rather than retry forever
+               deadLetter(batch);
+               batch.clear();
+               failed = 0;
+               if (this._closed){
+                  List<Record> queued = new ArrayList<Record>();
+                  this._queue.drainTo(queued);
+                  deadLetter(queued);
+               }
+            }
+            else
+               Thread.sleep(this._flushMillis * failed);
+         }
+      }catch (InterruptedException e){
+         // stop at once.
+      }finally{
+         disconnect();
+      }
+   }//end run
+
+   /*
+    * Appends records that could not be written to the dead letter file, or
+    * prints them when the file cannot be written either
+    **/
+   private void deadLetter(List<Record> records) {
+      if (records.isEmpty())
+         return;
+      try{
+         PrintWriter out = new PrintWriter(new FileWriter(this._deadLetterFile, true));
+         try{
+            for (Record record : records)
+               out.println(record.managerID + "," + record.hotelID + "," + record.roomNumber + "," + record.updatedOn);
+         }finally{
+            out.close();
+         }
+         if (out.checkError())
+            throw new IOException("write failed");
+         synchronized (this) {
+            this._deadLettered += records.size();
+         }
+         System.err.println("Audit log records written to " + this._deadLetterFile + ": " + records.size());
+      }catch (IOException e){
+         synchronized (this) {
+            this._lost += records.size();
+         }
+         System.err.println("Audit log records lost (" + this._deadLetterFile + ": " + e.getMessage() + "):");
+         for (Record record : records)
+            System.err.println(record.managerID + "," + record.hotelID + "," + record.roomNumber + "," + record.updatedOn);
+      }
+   }//end deadLetter
+
+   /*
+    * Inserts a batch in one transaction
+    *
+    * @return false when the batch has to be written again
+    **/
+   private boolean write(List<Record> batch) {
+      try{
+         if (this._connection == null){
+            this._connection = DriverManager.getConnection(this._url, this._user, this._passwd);
+            this._connection.setAutoCommit(false);
+            this._insert = this._connection.prepareStatement(INSERT);
+         }
+         for (Record record : batch){
+            this._insert.setInt(1, record.managerID);
+            this._insert.setInt(2, record.hotelID);
+            this._insert.setInt(3, record.roomNumber);
+            this._insert.setTimestamp(4, record.updatedOn);
+            this._insert.addBatch();
+         }
+         this._insert.executeBatch();
+         this._connection.commit();
+         synchronized (this) {
+            this._written += batch.size();
+            ++this._batches;
+         }
+         return true;
+      }catch (SQLException e){
+         System.err.println("Unable to write the audit log: " + e.getMessage());
+         synchronized (this) {
+            ++this._failures;
+         }
+         // start over on a new connection
+         disconnect();
+         return false;
+      }
+   }//end write
+
+   private void disconnect() {
+      try{
+         if (this._connection != null)
+            this._connection.close();
+      }catch (SQLException e){
+         // ignored.
+      }
+      this._connection = null;
+      this._insert = null;
+   }//end disconnect
+
+   /**
+    * @return the counters of the writer, for logging
+    */
+   public synchronized String getStats() {
+      return String.format("%d records in %d batches, %d queued, %d refused, %d failed batches, %d dead lettered, %d lost",
+                           this._written, this._batches, this._queue.size(), this._refused, this._failures,
+                           this._deadLettered, this._lost);
+   }//end getStats
+
+}//end AuditLogWriter
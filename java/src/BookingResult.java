@@ -0,0 +1,72 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+/**
+ * This class holds the outcome of a single booking attempt made by
+ * Hotel.bookRoom().
+ *
+ */
+public class BookingResult {
+
+   public enum Status {
+      // the room was free and is now booked
+      BOOKED,
+      // someone else holds the room on that date
+      CONFLICT,
+      // the hotel has no room with that number
+      NO_SUCH_ROOM
+   }
+
+   private final Status _status;
+   private final int _bookingID;
+   private final int _price;
+   private final String _bookingDate;
+
+   private BookingResult(Status status, int bookingID, int price, String bookingDate) {
+      this._status = status;
+      this._bookingID = bookingID;
+      this._price = price;
+      this._bookingDate = bookingDate;
+   }
+
+   public static BookingResult booked(int bookingID, int price, String bookingDate) {
+      return new BookingResult(Status.BOOKED, bookingID, price, bookingDate);
+   }
+
+   public static BookingResult conflict(int price, String bookingDate) {
+      return new BookingResult(Status.CONFLICT, -1, price, bookingDate);
+   }
+
+   public static BookingResult noSuchRoom() {
+      return new BookingResult(Status.NO_SUCH_ROOM, -1, -1, null);
+   }
+
+   public Status getStatus() { return this._status; }
+
+   /**
+    * @return the new bookingID, or -1 when nothing was booked
+    */
+   public int getBookingID() { return this._bookingID; }
+
+   /**
+    * @return the room price, or -1 when the room does not exist
+    */
+   public int getPrice() { return this._price; }
+
+   /**
+    * @return the night asked for, as YYYY-MM-DD, or null when the room
+    *         does not exist
+    */
+   public String getBookingDate() { return this._bookingDate; }
+
+}//end BookingResult
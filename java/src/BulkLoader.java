@@ -0,0 +1,480 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.io.Reader;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * This class loads the CSV files of the Hotel Data directory into an empty
+ * database, in place of load_data.sql and its server-side paths.
+ *
+ * Files are streamed record by record, so memory use does not depend on
+ * their size. Each table is loaded on its own pooled connection, and a
+ * table starts as soon as the tables it references are loaded, so
+ * independent tables load in parallel. M/D/YYYY dates are rewritten as
+ * YYYY-MM-DD on the way. When the JDBC driver has the client-side COPY
+ * API (org.postgresql.copy.CopyManager) the records are sent with
+ * COPY ... FROM STDIN, otherwise with batched INSERTs. Afterwards every
+ * serial sequence is set past the largest loaded ID.
+ *
+ * Settings are read from system properties:
+ *   hotel.load.threads   number of tables loaded at the same time
+ *
+ */
+public class BulkLoader {
+
+   public static final int DEFAULT_THREADS = 4;
+
+   // rows sent per executeBatch() when COPY is not available
+   public static final int BATCH_SIZE = 1000;
+
+   // a progress line is printed every this many rows of a table
+   public static final long PROGRESS_ROWS = 1000000;
+
+   /*
+    * One relation, the file it is loaded from and the relations it
+    * references, which have to be loaded first
+    **/
+   private static class Table {
+      final String name;
+      final String file;
+      final String[] types;
+      final String sequence;
+      final String key;
+      final String[] after;
+
+      Table(String name, String file, String[] types, String sequence, String key, String... after) {
+         this.name = name;
+         this.file = file;
+         this.types = types;
+         this.sequence = sequence;
+         this.key = key;
+         this.after = after;
+      }
+   }//end Table
+
+   // in foreign key order, column types in table order
+   private static final Table[] TABLES = {
+      new Table ("Users", "users.csv",
+                 new String[] { "integer", "text", "text", "text" },
+                 "users_userID_seq", "userID"),
+      new Table ("MaintenanceCompany", "company.csv",
+                 new String[] { "integer", "text", "text" },
+                 null, null),
+      new Table ("Hotel", "hotels.csv",
+                 new String[] { "integer", "text", "numeric", "numeric", "date", "integer" },
+                 null, null, "Users"),
+      new Table ("Rooms", "rooms.csv",
+                 new String[] { "integer", "integer", "integer", "text" },
+                 null, null, "Hotel"),
+      new Table ("RoomBookings", "bookings.csv",
+                 new String[] { "integer", "integer", "integer", "integer", "date" },
+                 "RoomBookings_bookingID_seq", "bookingID", "Users", "Rooms"),
+      new Table ("RoomRepairs", "roomRepairs.csv",
+                 new String[] { "integer", "integer", "integer", "integer", "date" },
+                 "roomRepairs_repairID_seq", "repairID", "MaintenanceCompany", "Rooms"),
+      new Table ("RoomRepairRequests", "roomRepairRequests.csv",
+                 new String[] { "integer", "integer", "integer" },
+                 "roomRepairRequests_requestNumber_seq", "requestNumber", "Users", "RoomRepairs"),
+      new Table ("RoomUpdatesLog", "roomUpdatesLog.csv",
+                 new String[] { "integer", "integer", "integer", "integer", "timestamp" },
+                 "roomUpdatesLog_updateNumber_seq", "updateNumber", "Users", "Rooms")
+   };
+
+   private final HotelConnectionPool _pool;
+   private final File _dir;
+   private final PrintStream _log;
+
+   public BulkLoader(HotelConnectionPool pool, File dir, PrintStream log) {
+      this._pool = pool;
+      this._dir = dir;
+      this._log = log;
+   }//end BulkLoader
+
+   /**
+    * Loads every table, running up to a number of them at the same time.
+    *
+    * @param threads the number of tables loaded at the same time
+    * @return the number of rows loaded
+    * @throws java.lang.Exception when a table could not be loaded
+    */
+   public long loadAll(int threads) throws Exception {
+      long start = System.nanoTime ();
+      ExecutorService loaders = Executors.newFixedThreadPool (threads);
+      final Map<String, Future<Long>> loaded = new LinkedHashMap<String, Future<Long>>();
+      try{
+         // tables are queued in foreign key order, so the tables one waits
+         // for are always running or done before it starts
+         for (final Table table : TABLES)
+            loaded.put (table.name, loaders.submit (new Callable<Long>() {
+               public Long call() throws Exception {
+                  for (String parent : table.after){
+                     try{
+                        loaded.get (parent).get ();
+                     }catch (ExecutionException e){
+                        throw new SQLException (table.name + " skipped, " + parent + " was not loaded");
+                     }
+                  }
+                  return load (table);
+               }
+            }));
+
+         long rows = 0;
+         Exception failure = null;
+         for (Map.Entry<String, Future<Long>> table : loaded.entrySet ()){
+            try{
+               rows += table.getValue ().get ();
+            }catch (ExecutionException e){
+               this._log.println (table.getKey () + ": " + e.getCause ().getMessage ());
+               if (failure == null)
+                  failure = e.getCause () instanceof Exception ? (Exception) e.getCause () : e;
+            }
+         }
+         if (failure != null)
+            throw failure;
+         report ("Loaded", rows, start);
+         return rows;
+      }finally{
+         loaders.shutdownNow ();
+      }
+   }//end loadAll
+
+   /**
+    * Loads one table from its file and moves its sequence past the
+    * loaded IDs.
+    *
+    * @return the number of rows loaded
+    */
+   private long load(Table table) throws Exception {
+      long start = System.nanoTime ();
+      Records records = new Records (table, new File (this._dir, table.file), start);
+      HotelConnectionPool.Lease lease = this._pool.checkout ();
+      try{
+         Connection connection = lease.getConnection ();
+         Object copyAPI = copyAPI (connection);
+         long rows = copyAPI != null ? copy (copyAPI, table, records) : insert (lease, table, records);
+         if (table.sequence != null)
+            resetSequence (lease, table);
+         // fresh statistics, so the first queries after a large load plan well
+         Statement analyze = connection.createStatement ();
+         analyze.executeUpdate ("ANALYZE " + table.name);
+         analyze.close ();
+         report (table.name, rows, start);
+         return rows;
+      }finally{
+         records.close ();
+         this._pool.release (lease);
+      }
+   }//end load
+
+   /*
+    * Streams the records through COPY ... FROM STDIN
+    **/
+   private static long copy(Object copyAPI, Table table, Records records) throws Exception {
+      Method copyIn = copyAPI.getClass ().getMethod ("copyIn", String.class, Reader.class);
+      try{
+         copyIn.invoke (copyAPI, "COPY " + table.name + " FROM STDIN WITH CSV", new CsvReader (records));
+      }catch (InvocationTargetException e){
+         throw (Exception) e.getCause ();
+      }
+      return records.count ();
+   }//end copy
+
+   /*
+    * Sends the records as batched INSERTs in one transaction
+    **/
+   private static long insert(HotelConnectionPool.Lease lease, Table table, Records records) throws SQLException, IOException {
+      StringBuilder sql = new StringBuilder ("INSERT INTO " + table.name + " VALUES (");
+      for (int i = 0; i < table.types.length; ++i)
+         sql.append (i == 0 ? "" : ", ").append ("CAST(? AS ").append (table.types[i]).append (")");
+      sql.append (")");
+
+      Connection connection = lease.getConnection ();
+      connection.setAutoCommit (false);
+      PreparedStatement stmt = lease.getStatements ().prepare (sql.toString ());
+      int batched = 0;
+      String[] fields;
+      while ((fields = records.next ()) != null){
+         for (int i = 0; i < fields.length; ++i){
+            if (fields[i] == null)
+               stmt.setNull (i + 1, Types.VARCHAR);
+            else
+               stmt.setString (i + 1, fields[i]);
+         }
+         stmt.addBatch ();
+         if (++batched == BATCH_SIZE){
+            stmt.executeBatch ();
+            batched = 0;
+         }
+      }
+      if (batched > 0)
+         stmt.executeBatch ();
+      connection.commit ();
+      connection.setAutoCommit (true);
+      return records.count ();
+   }//end insert
+
+   private static void resetSequence(HotelConnectionPool.Lease lease, Table table) throws SQLException {
+      PreparedStatement stmt = lease.getStatements ().prepare (
+         "SELECT setval(CAST(? AS regclass), COALESCE(MAX(" + table.key + "), 0) + 1, false) FROM " + table.name);
+      stmt.setString (1, table.sequence);
+      ResultSet rs = stmt.executeQuery ();
+      rs.close ();
+   }//end resetSequence
+
+   /*
+    * Returns the CopyManager of a connection, or null when the driver has
+    * no client-side COPY
+    **/
+   private static Object copyAPI(Connection connection) {
+      try{
+         Method getCopyAPI = connection.getClass ().getMethod ("getCopyAPI");
+         return getCopyAPI.invoke (connection);
+      }catch (Exception e){
+         return null;
+      }
+   }//end copyAPI
+
+   private void report(String what, long rows, long start) {
+      double seconds = Math.max (System.nanoTime () - start, 1) / 1e9;
+      this._log.println (String.format ("%s: %d rows in %.2f s (%.0f rows/s)", what, rows, seconds, rows / seconds));
+   }//end report
+
+   /*
+    * Reads the CSV records of one file, after its header line. Unquoted
+    * empty fields are returned as null, and dates as YYYY-MM-DD.
+    **/
+   private class Records {
+      private final Table _table;
+      private final String _file;
+      private final BufferedReader _in;
+      private final long _start;
+      private long _count = 0;
+
+      Records(Table table, File file, long start) throws IOException {
+         this._table = table;
+         this._file = file.getName ();
+         this._in = new BufferedReader (new InputStreamReader (new FileInputStream (file), "UTF-8"), 1 << 16);
+         this._start = start;
+         this._in.readLine ();
+      }
+
+      long count() {
+         return this._count;
+      }
+
+      void close() throws IOException {
+         this._in.close ();
+      }
+
+      /*
+       * @return the fields of the next record, or null at the end of the file
+       **/
+      String[] next() throws IOException {
+         while (true) {
+            List<String> fields = read ();
+            if (fields == null)
+               return null;
+            // skip blank lines
+            if (fields.size () == 1 && fields.get (0) == null)
+               continue;
+            ++this._count;
+            if (fields.size () != this._table.types.length)
+               throw new IOException (this._file + " record " + this._count + ": expected " +
+                                      this._table.types.length + " fields, found " + fields.size ());
+            String[] record = fields.toArray (new String[fields.size ()]);
+            for (int i = 0; i < record.length; ++i)
+               if (record[i] != null && (this._table.types[i].equals ("date") || this._table.types[i].equals ("timestamp")))
+                  record[i] = isoDate (record[i]);
+            if (this._count % PROGRESS_ROWS == 0)
+               report (this._table.name + " (in progress)", this._count, this._start);
+            return record;
+         }
+      }
+
+      private List<String> read() throws IOException {
+         List<String> fields = new ArrayList<String>();
+         StringBuilder field = new StringBuilder ();
+         boolean quoted = false, inQuotes = false, empty = true;
+         while (true) {
+            int c = this._in.read ();
+            if (c == -1 && empty)
+               return null;
+            empty = false;
+            if (inQuotes && c != -1){
+               if (c != '"')
+                  field.append ((char) c);
+               else{
+                  // a doubled quote stands for one quote
+                  this._in.mark (1);
+                  if (this._in.read () == '"')
+                     field.append ('"');
+                  else{
+                     this._in.reset ();
+                     inQuotes = false;
+                  }
+               }
+            }
+            else if (c == '"'){
+               inQuotes = true;
+               quoted = true;
+            }
+            else if (c == ',' || c == '\n' || c == -1){
+               fields.add (quoted || field.length () > 0 ? field.toString () : null);
+               field.setLength (0);
+               quoted = false;
+               if (c != ',')
+                  return fields;
+            }
+            else if (c != '\r')
+               field.append ((char) c);
+         }
+      }
+   }//end Records
+
+   /*
+    * Writes records back out as CSV text for COPY, one record per line
+    **/
+   private static class CsvReader extends Reader {
+      private final Records _records;
+      private final StringBuilder _line = new StringBuilder ();
+      private int _pos = 0;
+
+      CsvReader(Records records) {
+         this._records = records;
+      }
+
+      public int read(char[] cbuf, int off, int len) throws IOException {
+         int n = 0;
+         while (n < len) {
+            if (this._pos == this._line.length ()){
+               String[] fields = this._records.next ();
+               if (fields == null)
+                  break;
+               this._line.setLength (0);
+               this._pos = 0;
+               for (int i = 0; i < fields.length; ++i){
+                  if (i > 0)
+                     this._line.append (',');
+                  appendField (this._line, fields[i]);
+               }
+               this._line.append ('\n');
+            }
+            int chunk = Math.min (len - n, this._line.length () - this._pos);
+            this._line.getChars (this._pos, this._pos + chunk, cbuf, off + n);
+            this._pos += chunk;
+            n += chunk;
+         }
+         return n == 0 ? -1 : n;
+      }
+
+      public void close() {
+      }
+
+      private static void appendField(StringBuilder line, String value) {
+         // null stays an unquoted empty field, everything else is quoted
+         // when needed to keep its value
+         if (value == null)
+            return;
+         if (value.length () > 0 && value.indexOf (',') < 0 && value.indexOf ('"') < 0 &&
+             value.indexOf ('\n') < 0 && value.indexOf ('\r') < 0){
+            line.append (value);
+            return;
+         }
+         line.append ('"').append (value.replace ("\"", "\"\"")).append ('"');
+      }
+   }//end CsvReader
+
+   /**
+    * Rewrites a M/D/YYYY date, optionally followed by a time, as
+    * YYYY-MM-DD. Anything else is returned unchanged.
+    *
+    * @param value the date as written in the CSV files
+    * @return the date in ISO order
+    */
+   public static String isoDate(String value) {
+      int space = value.indexOf (' ');
+      String date = space < 0 ? value : value.substring (0, space);
+      String[] parts = date.split ("/");
+      if (parts.length != 3 || parts[2].length () != 4 || parts[0].length () > 2 || parts[1].length () > 2)
+         return value;
+      StringBuilder iso = new StringBuilder (value.length () + 2);
+      iso.append (parts[2]).append ('-');
+      if (parts[0].length () == 1)
+         iso.append ('0');
+      iso.append (parts[0]).append ('-');
+      if (parts[1].length () == 1)
+         iso.append ('0');
+      iso.append (parts[1]);
+      if (space >= 0)
+         iso.append (value.substring (space));
+      return iso.toString ();
+   }//end isoDate
+
+   /**
+    * The main execution method
+    *
+    * @param args the command line arguments this inclues the <dbname> <port> <user> <data directory>
+    */
+   public static void main (String[] args) {
+      if (args.length != 4) {
+         System.err.println (
+            "Usage: " +
+            "java [-classpath <classpath>] " +
+            BulkLoader.class.getName () +
+            " <dbname> <port> <user> <data directory>");
+         return;
+      }//end if
+
+      HotelConnectionPool pool = null;
+      boolean failed = false;
+      try{
+         // use postgres JDBC driver.
+         Class.forName ("org.postgresql.Driver");
+         int threads = Integer.getInteger ("hotel.load.threads", DEFAULT_THREADS);
+         pool = new HotelConnectionPool (Hotel.connectionURL (args[0], args[1]), args[2], "", threads, 0);
+         new BulkLoader (pool, new File (args[3]), System.out).loadAll (threads);
+      }catch(Exception e) {
+         System.err.println (e.getMessage ());
+         failed = true;
+      }finally{
+         if (pool != null)
+            pool.close ();
+      }//end try
+      if (failed)
+         System.exit (1);
+   }//end main
+
+}//end BulkLoader
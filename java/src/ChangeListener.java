@@ -0,0 +1,170 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.lang.reflect.Method;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * This class listens for postgres notifications on a connection of its
+ * own and hands them to the handler registered for their channel. The
+ * triggers in triggers.sql send them when data cached in memory changes.
+ *
+ * The driver is polled every few hundred milliseconds, since older drivers
+ * only see notifications after a query. When the connection is lost the
+ * listener reconnects and tells every handler that anything may have
+ * changed, as notifications sent in between are lost.
+ *
+ */
+public class ChangeListener implements Runnable {
+
+   // default milliseconds between two polls
+   public static final long DEFAULT_POLL_MILLIS = 500;
+
+   /**
+    * Called with the payload of a notification, or null when the payload
+    * is not known and everything has to be considered changed.
+    */
+   public interface Handler {
+      void changed(String payload);
+   }//end Handler
+
+   private final String _url;
+   private final String _user;
+   private final String _passwd;
+   private final long _pollMillis;
+   private final Map<String, Handler> _handlers = new ConcurrentHashMap<String, Handler>();
+
+   private volatile boolean _stopped = false;
+   private Thread _thread = null;
+
+   public ChangeListener(String url, String user, String passwd, long pollMillis) {
+      this._url = url;
+      this._user = user;
+      this._passwd = passwd;
+      this._pollMillis = pollMillis;
+   }//end ChangeListener
+
+   /**
+    * Registers the handler of a channel. Handlers are added before start().
+    *
+    * @param channel the notification channel
+    * @param handler called for every notification on the channel
+    */
+   public void listen(String channel, Handler handler) {
+      this._handlers.put(channel.toLowerCase(), handler);
+   }//end listen
+
+   public synchronized void start() {
+      this._thread = new Thread(this, "hotel-change-listener");
+      this._thread.setDaemon(true);
+      this._thread.start();
+   }//end start
+
+   public synchronized void stop() {
+      this._stopped = true;
+      if (this._thread != null)
+         this._thread.interrupt();
+   }//end stop
+
+   public void run() {
+      boolean first = true;
+      while (!this._stopped) {
+         Connection connection = null;
+         try{
+            connection = DriverManager.getConnection(this._url, this._user, this._passwd);
+            Statement stmt = connection.createStatement();
+            for (String channel : this._handlers.keySet())
+               stmt.execute("LISTEN " + channel);
+            // changes made while not listening were missed
+            if (!first)
+               changedAll();
+            first = false;
+            poll(connection, stmt);
+         }catch (SQLException e){
+            System.err.println("Change listener lost its connection: " + e.getMessage());
+         }catch (InterruptedException e){
+            break;
+         }finally{
+            try{
+               if (connection != null)
+                  connection.close();
+            }catch (SQLException e){
+               // ignored.
+            }
+         }
+         // wait a little before connecting again
+         try{
+            Thread.sleep(this._pollMillis * 10);
+         }catch (InterruptedException e){
+            break;
+         }
+      }
+   }//end run
+
+   /*
+    * Checks for notifications until the connection fails or the listener
+    * is stopped
+    **/
+   private void poll(Connection connection, Statement stmt) throws SQLException, InterruptedException {
+      Method getNotifications;
+      try{
+         getNotifications = Class.forName("org.postgresql.PGConnection").getMethod("getNotifications");
+      }catch (Exception e){
+         throw new SQLException("The JDBC driver does not support notifications");
+      }
+      while (!this._stopped) {
+         // older drivers only read notifications while running a query
+         stmt.execute("SELECT 1");
+         Object[] notifications;
+         try{
+            notifications = (Object[]) getNotifications.invoke(connection);
+         }catch (Exception e){
+            throw new SQLException("Unable to read notifications: " + e);
+         }
+         if (notifications != null)
+            for (Object notification : notifications)
+               dispatch(notification);
+         Thread.sleep(this._pollMillis);
+      }
+   }//end poll
+
+   private void dispatch(Object notification) {
+      try{
+         // through the driver interface, the notification class itself may not be public
+         Class<?> type = Class.forName("org.postgresql.PGNotification");
+         String channel = (String) type.getMethod("getName").invoke(notification);
+         String payload = null;
+         try{
+            payload = (String) type.getMethod("getParameter").invoke(notification);
+         }catch (NoSuchMethodException e){
+            // drivers before payloads were added, the handler reloads everything.
+         }
+         Handler handler = this._handlers.get(channel.toLowerCase());
+         if (handler != null)
+            handler.changed(payload == null || payload.isEmpty() ? null : payload);
+      }catch (Exception e){
+         System.err.println("Unable to handle a notification: " + e);
+      }
+   }//end dispatch
+
+   private void changedAll() {
+      for (Handler handler : this._handlers.values())
+         handler.changed(null);
+   }//end changedAll
+
+}//end ChangeListener
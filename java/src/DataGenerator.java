@@ -0,0 +1,410 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * This class generates a synthetic Hotel Data directory: the same CSV files
+ * and formats as the shipped fixtures, scaled by a factor. At scale 1 it
+ * writes as many rows as the fixtures (100 users, 20 hotels, about 200
+ * rooms, 500 bookings); at scale 10000 it writes 1,000,000 users and
+ * 5,000,000 bookings.
+ *
+ * The data is deterministic for a seed. Bookings are skewed the way real
+ * ones are: hotels are picked with a Zipf distribution, so a few hotels
+ * take most bookings, and so are customers, so some book again and again.
+ * Popular hotels and customers are spread over the ID range rather than
+ * being the lowest IDs.
+ *
+ * The files can be loaded with BulkLoader, or directly by passing the
+ * database to connect to.
+ *
+ * Settings are read from system properties:
+ *   hotel.gen.seed   seed of the random generators
+ *   hotel.gen.skew   Zipf exponent of hotel and customer popularity
+ *
+ */
+public class DataGenerator {
+
+   public static final long DEFAULT_SEED = 42;
+   public static final double DEFAULT_SKEW = 1.0;
+
+   // rows per table at scale 1, same as the shipped fixtures
+   private static final int USERS = 100, MANAGERS = 6, COMPANIES = 5, HOTELS = 20;
+   private static final int BOOKINGS = 500, REPAIRS = 11, REQUESTS = 10, UPDATES = 50;
+
+   // rooms per hotel, between these two
+   private static final int MIN_ROOMS = 5, MAX_ROOMS = 15;
+
+   private static final String[] FIRST_NAMES = {
+      "Amy", "Bob", "Marshall", "Lena", "Omar", "Priya", "Diego", "Hana", "Ivan", "Zoe",
+      "Kofi", "Mei", "Sven", "Ana", "Yuki", "Noah", "Leila", "Tom", "Sara", "Raj" };
+   private static final String[] LAST_NAMES = {
+      "Johns", "Smith", "Garcia", "Chen", "Khan", "Nguyen", "Kim", "Lopez", "Silva", "Ito",
+      "Novak", "Okafor", "Berg", "Rossi", "Haddad", "Patel", "Cohen", "Moreau", "Park", "Diaz" };
+
+   // bookings fall between these dates
+   private static final int FIRST_BOOKING_DAY = RoomOccupancy.day(2000, 1, 1);
+   private static final int LAST_BOOKING_DAY = RoomOccupancy.day(2024, 12, 31);
+
+   // nights tried for a room before another room is picked
+   private static final int PROBES = 64;
+
+   /*
+    * Samples ranks 0 .. n-1 with probability proportional to 1 / (rank + 1)^s,
+    * each rank mapped to a fixed random index
+    **/
+   private static class Zipf {
+      private final double[] _cdf;
+      private final int[] _index;
+
+      Zipf(int n, double s, Random random) {
+         this._cdf = new double[n];
+         double total = 0;
+         for (int k = 0; k < n; ++k){
+            total += 1.0 / Math.pow(k + 1, s);
+            this._cdf[k] = total;
+         }
+         for (int k = 0; k < n; ++k)
+            this._cdf[k] /= total;
+         this._index = new int[n];
+         for (int k = 0; k < n; ++k)
+            this._index[k] = k;
+         for (int k = n - 1; k > 0; --k){
+            int j = random.nextInt (k + 1);
+            int t = this._index[k];
+            this._index[k] = this._index[j];
+            this._index[j] = t;
+         }
+      }
+
+      int next(Random random) {
+         double u = random.nextDouble ();
+         int lo = 0, hi = this._cdf.length - 1;
+         while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (this._cdf[mid] < u)
+               lo = mid + 1;
+            else
+               hi = mid;
+         }
+         return this._index[lo];
+      }
+   }//end Zipf
+
+   /*
+    * A set of positive longs, open addressing with linear probing
+    **/
+   private static class LongSet {
+      private final long[] _slots;
+
+      LongSet(int expected) {
+         int capacity = Integer.highestOneBit (Math.max (expected, 8) * 2 - 1) << 1;
+         this._slots = new long[capacity];
+      }
+
+      boolean add(long key) {
+         int mask = this._slots.length - 1;
+         int i = (int) ((key * 0x9E3779B97F4A7C15L) >>> 40) & mask;
+         while (this._slots[i] != 0){
+            if (this._slots[i] == key)
+               return false;
+            i = (i + 1) & mask;
+         }
+         this._slots[i] = key;
+         return true;
+      }
+   }//end LongSet
+
+   private final File _dir;
+   private final int _scale;
+   private final long _seed;
+   private final double _skew;
+
+   // filled while writing hotels and rooms, used by the later tables
+   private int[] _managerOf;
+   private int[] _roomsOf;
+   private int _firstCustomer;
+
+   public DataGenerator(File dir, int scale, long seed, double skew) {
+      this._dir = dir;
+      this._scale = scale;
+      this._seed = seed;
+      this._skew = skew;
+   }//end DataGenerator
+
+   /**
+    * Writes every file of the data directory.
+    *
+    * @throws java.io.IOException when a file cannot be written
+    */
+   public void generate() throws IOException {
+      if (!this._dir.isDirectory () && !this._dir.mkdirs ())
+         throw new IOException ("Cannot create " + this._dir);
+      users ();
+      companies ();
+      hotels ();
+      rooms ();
+      bookings ();
+      repairs ();
+      repairRequests ();
+      updates ();
+   }//end generate
+
+   // one generator per table, so changing one table leaves the others alone
+   private Random random(int table) {
+      return new Random (this._seed * 31 + table);
+   }//end random
+
+   private void users() throws IOException {
+      Random random = random (1);
+      int users = USERS * this._scale;
+      int managers = MANAGERS * this._scale;
+      this._firstCustomer = managers + 2;
+      Writer out = open ("users.csv", "userID,name,password,userType");
+      try{
+         out.write ("1,Admin,xyz,admin\n");
+         for (int id = 2; id <= users; ++id){
+            String name = FIRST_NAMES[random.nextInt (FIRST_NAMES.length)] + "." +
+                          LAST_NAMES[random.nextInt (LAST_NAMES.length)];
+            out.write (id + "," + name + ",xyz," + (id < this._firstCustomer ? "manager" : "customer") + "\n");
+         }
+      }finally{
+         out.close ();
+      }
+   }//end users
+
+   private void companies() throws IOException {
+      Random random = random (2);
+      Writer out = open ("company.csv", "companyID,name,address");
+      try{
+         for (int id = 1; id <= COMPANIES * this._scale; ++id)
+            out.write (id + "," + word (random) + "-com," + word (random) + "\n");
+      }finally{
+         out.close ();
+      }
+   }//end companies
+
+   private void hotels() throws IOException {
+      Random random = random (3);
+      int hotels = HOTELS * this._scale;
+      int managers = MANAGERS * this._scale;
+      this._managerOf = new int[hotels + 1];
+      Writer out = open ("hotels.csv", "hotelID,hotelName,latitude,longitude,dateEstablished,managerUserID");
+      try{
+         for (int id = 1; id <= hotels; ++id){
+            this._managerOf[id] = 2 + random.nextInt (managers);
+            int established = RoomOccupancy.day (1900, 1, 1) + random.nextInt (120 * 365);
+            out.write (id + "," + word (random) + "," +
+                       coordinate (random) + "," + coordinate (random) + "," +
+                       date (established) + "," + this._managerOf[id] + "\n");
+         }
+      }finally{
+         out.close ();
+      }
+   }//end hotels
+
+   private void rooms() throws IOException {
+      Random random = random (4);
+      int hotels = HOTELS * this._scale;
+      this._roomsOf = new int[hotels + 1];
+      Writer out = open ("rooms.csv", "hotelID,roomNumber,price,imageURL");
+      try{
+         for (int hotel = 1; hotel <= hotels; ++hotel){
+            this._roomsOf[hotel] = MIN_ROOMS + random.nextInt (MAX_ROOMS - MIN_ROOMS + 1);
+            for (int room = 1; room <= this._roomsOf[hotel]; ++room)
+               out.write (hotel + "," + room + "," + (100 + random.nextInt (1900)) + "," + word (random) + "\n");
+         }
+      }finally{
+         out.close ();
+      }
+   }//end rooms
+
+   private void bookings() throws IOException {
+      Random random = random (5);
+      int hotels = HOTELS * this._scale;
+      int customers = USERS * this._scale - this._firstCustomer + 1;
+      int bookings = BOOKINGS * this._scale;
+      int days = LAST_BOOKING_DAY - FIRST_BOOKING_DAY + 1;
+      Zipf hotel = new Zipf (hotels, this._skew, random);
+      Zipf customer = new Zipf (customers, this._skew, random);
+      LongSet taken = new LongSet (bookings);
+      Writer out = open ("bookings.csv", "bookingID,customerID,hotelID,roomNumber,bookingDate");
+      try{
+         for (int id = 1; id <= bookings; ++id){
+            int hotelID, room, day;
+            while (true) {
+               hotelID = 1 + hotel.next (random);
+               room = 1 + random.nextInt (this._roomsOf[hotelID]);
+               day = random.nextInt (days);
+               // a room is booked once per night, try the next few nights and
+               // pick another room when they are taken, popular hotels fill up
+               int probes = 0;
+               while (probes < PROBES && !taken.add (((long) hotelID * (MAX_ROOMS + 1) + room) * days + day + 1)){
+                  day = (day + 1) % days;
+                  ++probes;
+               }
+               if (probes < PROBES)
+                  break;
+            }
+            out.write (id + "," + (this._firstCustomer + customer.next (random)) + "," + hotelID + "," +
+                       room + "," + date (FIRST_BOOKING_DAY + day) + "\n");
+         }
+      }finally{
+         out.close ();
+      }
+   }//end bookings
+
+   private void repairs() throws IOException {
+      Random random = random (6);
+      int hotels = HOTELS * this._scale;
+      Writer out = open ("roomRepairs.csv", "repairID,companyID,hotelID,roomNumber,repairDate");
+      try{
+         for (int id = 1; id <= REPAIRS * this._scale; ++id){
+            int hotelID = 1 + random.nextInt (hotels);
+            out.write (id + "," + (1 + random.nextInt (COMPANIES * this._scale)) + "," + hotelID + "," +
+                       (1 + random.nextInt (this._roomsOf[hotelID])) + "," +
+                       date (RoomOccupancy.day (2018, 1, 1) + random.nextInt (6 * 365)) + "\n");
+         }
+      }finally{
+         out.close ();
+      }
+   }//end repairs
+
+   private void repairRequests() throws IOException {
+      // requests are placed by the manager of the repaired hotel, so the
+      // repairs are generated again from the same seed
+      Random repairs = random (6);
+      int hotels = HOTELS * this._scale;
+      Writer out = open ("roomRepairRequests.csv", "requestNumber,managerID,repairID");
+      try{
+         for (int id = 1; id <= REQUESTS * this._scale; ++id){
+            int hotelID = 1 + repairs.nextInt (hotels);
+            repairs.nextInt (COMPANIES * this._scale);
+            repairs.nextInt (this._roomsOf[hotelID]);
+            repairs.nextInt (6 * 365);
+            out.write (id + "," + this._managerOf[hotelID] + "," + id + "\n");
+         }
+      }finally{
+         out.close ();
+      }
+   }//end repairRequests
+
+   private void updates() throws IOException {
+      Random random = random (8);
+      int hotels = HOTELS * this._scale;
+      Writer out = open ("roomUpdatesLog.csv", "updateNumber,managerID,hotelID,roomNumber,updatedOn");
+      try{
+         for (int id = 1; id <= UPDATES * this._scale; ++id){
+            int hotelID = 1 + random.nextInt (hotels);
+            int minute = random.nextInt (24 * 60);
+            out.write (id + "," + this._managerOf[hotelID] + "," + hotelID + "," +
+                       (1 + random.nextInt (this._roomsOf[hotelID])) + "," +
+                       date (RoomOccupancy.day (2016, 1, 1) + random.nextInt (8 * 365)) +
+                       String.format (Locale.ROOT, " %02d:%02d:00", minute / 60, minute % 60) + "\n");
+         }
+      }finally{
+         out.close ();
+      }
+   }//end updates
+
+   private Writer open(String file, String header) throws IOException {
+      Writer out = new BufferedWriter (new OutputStreamWriter (
+         new FileOutputStream (new File (this._dir, file)), "UTF-8"), 1 << 16);
+      out.write (header + "\n");
+      return out;
+   }//end open
+
+   private static String word(Random random) {
+      char[] word = new char[4];
+      for (int i = 0; i < word.length; ++i)
+         word[i] = (char) ('a' + random.nextInt (26));
+      return new String (word);
+   }//end word
+
+   // fits decimal(8,6), like the fixtures
+   private static String coordinate(Random random) {
+      return String.format (Locale.ROOT, "%.5f", random.nextInt (10000000) / 100000.0);
+   }//end coordinate
+
+   /**
+    * @return a day number written as M/D/YYYY, like the fixtures
+    */
+   public static String date(int day) {
+      // civil from days, the inverse of RoomOccupancy.day()
+      int z = day + 719468;
+      int era = (z >= 0 ? z : z - 146096) / 146097;
+      int dayOfEra = z - era * 146097;
+      int yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+      int dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+      int mp = (5 * dayOfYear + 2) / 153;
+      int dayOfMonth = dayOfYear - (153 * mp + 2) / 5 + 1;
+      int month = mp < 10 ? mp + 3 : mp - 9;
+      int year = yearOfEra + era * 400 + (month <= 2 ? 1 : 0);
+      return month + "/" + dayOfMonth + "/" + year;
+   }//end date
+
+   /**
+    * The main execution method
+    *
+    * @param args the command line arguments this inclues the <output directory> <scale> [<dbname> <port> <user>]
+    */
+   public static void main (String[] args) {
+      if (args.length != 2 && args.length != 5) {
+         System.err.println (
+            "Usage: " +
+            "java [-classpath <classpath>] " +
+            DataGenerator.class.getName () +
+            " <output directory> <scale> [<dbname> <port> <user>]");
+         return;
+      }//end if
+
+      HotelConnectionPool pool = null;
+      boolean failed = false;
+      try{
+         File dir = new File (args[0]);
+         int scale = Integer.parseInt (args[1]);
+         if (scale < 1 || scale > 10000)
+            throw new IllegalArgumentException ("The scale goes from 1 to 10000");
+         long start = System.nanoTime ();
+         new DataGenerator (dir, scale,
+                            Long.getLong ("hotel.gen.seed", DEFAULT_SEED),
+                            Double.parseDouble (System.getProperty ("hotel.gen.skew", "" + DEFAULT_SKEW))).generate ();
+         System.out.println (String.format ("Generated scale %d in %.2f s into %s",
+                                            scale, (System.nanoTime () - start) / 1e9, dir));
+         if (args.length == 5){
+            // load the files straight into the database
+            Class.forName ("org.postgresql.Driver");
+            int threads = Integer.getInteger ("hotel.load.threads", BulkLoader.DEFAULT_THREADS);
+            pool = new HotelConnectionPool (Hotel.connectionURL (args[2], args[3]), args[4], "", threads, 0);
+            new BulkLoader (pool, dir, System.out).loadAll (threads);
+         }
+      }catch(Exception e) {
+         System.err.println (e.getMessage ());
+         failed = true;
+      }finally{
+         if (pool != null)
+            pool.close ();
+      }//end try
+      if (failed)
+         System.exit (1);
+   }//end main
+
+}//end DataGenerator
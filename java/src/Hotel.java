@@ -11,9 +11,8 @@
  */
 
 
-import java.sql.DriverManager;
 import java.sql.Connection;
-import java.sql.Statement;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
@@ -21,6 +20,11 @@ import java.io.File;
 import java.io.FileReader;
 import java.io.BufferedReader;
 import java.io.InputStreamReader;
+import java.io.IOException;
+import java.io.EOFException;
+import java.io.PrintStream;
+import java.math.BigDecimal;
+import java.util.Arrays;
 import java.util.List;
 import java.util.ArrayList;
 import java.lang.Math;
@@ -32,13 +36,107 @@ import java.lang.Math;
  */
 public class Hotel {
 
+   // pool the physical connection of this session is checked out from
+   private HotelConnectionPool _pool = null;
+
+   // true when this instance created the pool and has to close it
+   private boolean _ownsPool = false;
+
+   // connection currently checked out from the pool
+   private HotelConnectionPool.Lease _lease = null;
+
    // reference to physical database connection.
    private Connection _connection = null;
 
-   // handling the keyboard inputs through a BufferedReader
-   // This variable can be global for convenience.
-   static BufferedReader in = new BufferedReader(
-                                new InputStreamReader(System.in));
+   // prepared statements of this connection, keyed by query template
+   private StatementCache _statements = null;
+
+   // replica connection of the running read-only action, null when it reads from the primary
+   private HotelConnectionPool.Lease _replicaLease = null;
+
+   // true while the running menu action is a report, see readOnly()
+   private boolean _readOnly = false;
+
+   // true when this session wrote to the primary since it last read the primary's WAL position
+   private boolean _wrote = false;
+
+   // the primary's WAL position after this session's last write, replicas must have replayed it
+   private long _writeLsn = 0;
+
+   // the user logged in to this session, read at log in
+   private SessionPrincipal _principal = null;
+
+   // rows fetched per round trip when streaming a query (-Dhotel.fetchSize)
+   static final int FETCH_SIZE = Integer.getInteger("hotel.fetchSize", 1000);
+
+   // printed output is built in a reusable buffer and written out in chunks
+   private static final int PRINT_CHUNK = 8192;
+   private static final int COLUMN_WIDTH = 20;
+   private static final String LINE_SEPARATOR = System.getProperty("line.separator");
+   private final StringBuilder _printBuffer = new StringBuilder(PRINT_CHUNK + 512);
+
+   // in-memory locations of all hotels, shared by every session in the JVM.
+   // Proximity searches use it once it is loaded, and the database before.
+   static final HotelLocationIndex locations = new HotelLocationIndex(HotelLocationIndex.DEFAULT_CELL_SIZE);
+
+   // optional in-memory room occupancy, shared by every session in the JVM.
+   // Availability checks use it once it is loaded (-Dhotel.occupancy=true).
+   static final RoomOccupancy occupancy = new RoomOccupancy(
+      Integer.getInteger("hotel.occupancy.days", RoomOccupancy.DEFAULT_RETENTION_DAYS));
+
+   // milliseconds after which the console verifies the occupancy bitmaps between
+   // menu actions, 0 where they are verified in the background (HotelServer)
+   static long occupancyVerifyMillis = 0;
+
+   // the same for the hotel location index
+   static long locationsRefreshMillis = 0;
+
+   // cached room prices and images, shared by every session in the JVM.
+   // null when turned off with -Dhotel.catalog=false.
+   static final RoomCatalog catalog = Boolean.parseBoolean(System.getProperty("hotel.catalog", "true"))
+      ? new RoomCatalog(Integer.getInteger("hotel.catalog.size", RoomCatalog.DEFAULT_MAX_ROOMS),
+                        Long.getLong("hotel.catalog.ttl", RoomCatalog.DEFAULT_TTL_MILLIS))
+      : null;
+
+   // writes the room update log of bulk repricing in batches, started by
+   // the console and the server, null when not running
+   static volatile AuditLogWriter auditLog = null;
+
+   // read replica the reports read from, null when -Dhotel.replica.url is not set
+   static volatile ReplicaPool replicas = null;
+
+   // rows per page of the booking and repair histories, and of the recent
+   // bookings and room updates, which show the 5 most recent first
+   static final int PAGE_SIZE = Integer.getInteger("hotel.page.size", 20);
+   static final int RECENT_PAGE_SIZE = 5;
+
+   // latencies, rows and errors of the statements and menu actions, shared
+   // by every session in the JVM. null when turned off with -Dhotel.metrics=false.
+   static final HotelMetrics metrics = Boolean.parseBoolean(System.getProperty("hotel.metrics", "true"))
+      ? new HotelMetrics(Long.getLong("hotel.metrics.slow", HotelMetrics.DEFAULT_SLOW_MILLIS))
+      : null;
+
+   // IDs reserved ahead for bulk inserts, shared by every session in the JVM.
+   // -Dhotel.ids.block IDs are kept beyond what each batch needs, 0 for none.
+   static final SequenceAllocator sequences = new SequenceAllocator(Integer.getInteger("hotel.ids.block", 0));
+
+   // names of the menu actions in the metrics, by menu choice
+   private static final String[] MAIN_ACTIONS = { null, "CreateUser", "LogIn" };
+   private static final String[] USER_ACTIONS = { null, "viewHotels", "viewRooms", "bookRooms",
+      "viewRecentBookingsfromCustomer", "updateRoomInfo", "viewRecentUpdates", "viewBookingHistoryofHotel",
+      "viewRegularCustomers", "placeRoomRepairRequests", "viewRoomRepairHistory", "viewNearestHotels",
+      "repriceRooms" };
+
+   // database time and failures of the menu action running in this session
+   private long _actionNanos = 0;
+   private boolean _actionFailed = false;
+
+   // handling the session inputs through a BufferedReader, and the
+   // session outputs through PrintStreams. For the interactive front end
+   // these are the keyboard and the console.
+   final BufferedReader in;
+   final PrintStream out;
+   final PrintStream err;
 
    /**
     * Creates a new instance of Hotel 
@@ -50,15 +148,20 @@ public class Hotel {
     * @throws java.sql.SQLException when failed to make a connection.
     */
    public Hotel(String dbname, String dbport, String user, String passwd) throws SQLException {
+      this.in = new BufferedReader(new InputStreamReader(System.in));
+      this.out = System.out;
+      this.err = System.err;
 
       System.out.print("Connecting to database...");
       try{
          // constructs the connection URL
-         String url = "jdbc:postgresql://localhost:" + dbport + "/" + dbname;
+         String url = connectionURL(dbname, dbport);
          System.out.println ("Connection URL: " + url + "\n");
 
-         // obtain a physical connection
-         this._connection = DriverManager.getConnection(url, user, passwd);
+         // obtain a physical connection from a single connection pool
+         this._pool = new HotelConnectionPool(url, user, passwd, 1, 0);
+         this._ownsPool = true;
+         checkout();
          System.out.println("Done");
       }catch (Exception e){
          System.err.println("Error - Unable to Connect to Database: " + e.getMessage() );
@@ -67,183 +170,873 @@ public class Hotel {
       }//end catch
    }//end Hotel
 
+   /**
+    * Creates a new session of Hotel on a shared connection pool. The
+    * session checks a connection out on its first query and gives it back
+    * after every menu action, so idle sessions hold no connection.
+    *
+    * @param pool the shared connection pool
+    * @param in the session input
+    * @param out the session output, also used for error messages
+    */
+   public Hotel(HotelConnectionPool pool, BufferedReader in, PrintStream out) {
+      this(pool, in, out, out);
+   }//end Hotel
+
+   /**
+    * Creates a new session of Hotel on a shared connection pool, with the
+    * error messages of the menu actions written apart from their output.
+    *
+    * @param pool the shared connection pool
+    * @param in the session input
+    * @param out the session output
+    * @param err the error messages of the session
+    */
+   public Hotel(HotelConnectionPool pool, BufferedReader in, PrintStream out, PrintStream err) {
+      this.in = in;
+      this.out = out;
+      this.err = err;
+      this._pool = pool;
+   }//end Hotel
+
+   /**
+    * @return the JDBC URL of a local postgres database
+    */
+   public static String connectionURL(String dbname, String dbport) {
+      return "jdbc:postgresql://localhost:" + dbport + "/" + dbname;
+   }//end connectionURL
+
+   /*
+    * Checks out a connection from the pool for this session
+    **/
+   private void checkout() throws SQLException {
+      this._lease = this._pool.checkout ();
+      this._connection = this._lease.getConnection ();
+      this._statements = this._lease.getStatements ();
+   }//end checkout
+
+   /*
+    * Returns the statement cache of the checked out connection, checking
+    * one out first if this session holds none.
+    **/
+   private StatementCache statements() throws SQLException {
+      if (this._lease == null)
+         checkout ();
+      return this._statements;
+   }//end statements
+
+   /**
+    * Gives the checked out connections back to their pools, which also
+    * ends a read-only action. The next query of this session checks out
+    * a connection again.
+    */
+   public void releaseConnection() {
+      releaseLeases ();
+      this._readOnly = false;
+   }//end releaseConnection
+
+   /**
+    * Gives the checked out connections back in the middle of a menu
+    * action, while it waits on the user, for instance for the next page
+    * of a report. The action stays read-only, and its next query checks
+    * out a connection again.
+    */
+   public void releaseLeases() {
+      if (this._lease != null){
+         this._pool.release (this._lease);
+         this._lease = null;
+         this._connection = null;
+      }//end if
+      if (this._replicaLease != null){
+         ReplicaPool pool = replicas;
+         if (pool != null)
+            pool.release (this._replicaLease);
+         this._replicaLease = null;
+      }//end if
+   }//end releaseLeases
+
+   /**
+    * Marks the running menu action as a report: until releaseConnection(),
+    * queries run through executeQueryAndProcess() and the helpers built on
+    * it read from the replica, when one is configured, within its
+    * staleness bound, and has replayed this session's last write.
+    * Everything else, and every write, still runs on the primary.
+    */
+   public void readOnly() {
+      this._readOnly = true;
+   }//end readOnly
+
+   /*
+    * Returns the connection a read runs on, the replica or the primary
+    **/
+   private HotelConnectionPool.Lease readLease() throws SQLException {
+      ReplicaPool pool = replicas;
+      if (this._readOnly && pool != null){
+         if (this._replicaLease == null){
+            if (this._wrote){
+               // the primary's position now is past the commit of the last write
+               ResultSet rs = statements ().prepare (ReplicaPool.PRIMARY_LSN_QUERY).executeQuery ();
+               try{
+                  if (rs.next ())
+                     this._writeLsn = rs.getLong (1);
+               }finally{
+                  rs.close ();
+               }
+               this._wrote = false;
+            }
+            this._replicaLease = pool.checkout (this._writeLsn);
+         }
+         if (this._replicaLease != null)
+            return this._replicaLease;
+      }
+      statements ();
+      return this._lease;
+   }//end readLease
+
+   /*
+    * Remembers that this session wrote to the primary, the next read on a
+    * replica waits for the write
+    **/
+   private void wrote() {
+      this._wrote = true;
+   }//end wrote
+
+   /**
+    * Returns the principal of the user logged in to this session, reading
+    * it again when it went stale.
+    *
+    * @param userID the logged in user
+    * @return the principal, or null when the user no longer exists
+    * @throws java.sql.SQLException when failed to read the principal
+    */
+   public SessionPrincipal getPrincipal(int userID) throws SQLException {
+      if (this._principal == null || this._principal.getUserID () != userID || this._principal.isStale ()){
+         // read from the primary even in a report, a replica may not have replayed a change of the user yet
+         boolean readOnly = this._readOnly;
+         this._readOnly = false;
+         try{
+            this._principal = SessionPrincipal.load (this, userID);
+         }finally{
+            this._readOnly = readOnly;
+         }
+      }
+      return this._principal;
+   }//end getPrincipal
+
+   /**
+    * @return true when the logged in user is a manager
+    */
+   public boolean isManager(int userID) throws SQLException {
+      SessionPrincipal principal = getPrincipal (userID);
+      return principal != null && principal.isManager ();
+   }//end isManager
+
+   /**
+    * @return true when the logged in user manages the hotel
+    */
+   public boolean manages(int userID, int hotelID) throws SQLException {
+      SessionPrincipal principal = getPrincipal (userID);
+      return principal != null && principal.manages (hotelID);
+   }//end manages
+
+   /**
+    * Reads one line of session input, flushing any pending prompt first.
+    *
+    * @return the line read, without the line terminator
+    * @throws java.io.EOFException when the session input is closed
+    */
+   public String readLine() throws IOException {
+      this.out.flush ();
+      String line = this.in.readLine ();
+      if (line == null)
+         throw new EOFException ("End of input");
+      return line;
+   }//end readLine
+
    // Method to calculate euclidean distance between two latitude, longitude pairs. 
-   public double calculateDistance (double lat1, double long1, double lat2, double long2){
+   public static double calculateDistance (double lat1, double long1, double lat2, double long2){
       double t1 = (lat1 - lat2) * (lat1 - lat2);
       double t2 = (long1 - long2) * (long1 - long2);
       return Math.sqrt(t1 + t2); 
    }
+   /**
+    * Sees the template and the parameters of every statement a session
+    * binds, for tools that replay them, see IndexAdvisor.
+    */
+   public interface StatementObserver {
+      void bound (String sql, Object[] params);
+   }//end StatementObserver
+
+   // set by a tool recording the statements the actions run, null otherwise
+   static volatile StatementObserver observer = null;
+
+   /**
+    * Binds the given parameters, in order, to the placeholders of a
+    * prepared statement.
+    *
+    * @param sql the template the statement was prepared from
+    * @param stmt the prepared statement
+    * @param params the values for the '?' placeholders
+    * @throws java.sql.SQLException when a value cannot be bound
+    */
+   private static void bind (String sql, PreparedStatement stmt, Object[] params) throws SQLException {
+      for (int i = 0; i < params.length; ++i)
+         stmt.setObject (i + 1, params[i]);
+      StatementObserver watching = observer;
+      if (watching != null)
+         watching.bound (sql, params);
+   }//end bind
+
+   /*
+    * Counts a statement started at the given System.nanoTime() in the
+    * metrics and in the time of the running menu action
+    **/
+   private void measured (String sql, long started, int rows) {
+      long nanos = System.nanoTime () - started;
+      this._actionNanos += nanos;
+      if (metrics != null)
+         metrics.statement (sql, nanos, rows);
+   }//end measured
+
+   /*
+    * Counts a failed statement, and returns the error to rethrow
+    **/
+   private SQLException failed (String sql, long started, SQLException e) {
+      long nanos = System.nanoTime () - started;
+      this._actionNanos += nanos;
+      this._actionFailed = true;
+      if (metrics != null)
+         metrics.failed (sql, nanos, e);
+      return e;
+   }//end failed
+
+   /*
+    * Starts measuring a menu action
+    **/
+   private void startAction () {
+      this._actionNanos = 0;
+      this._actionFailed = false;
+   }//end startAction
+
+   /*
+    * Counts the database time of the menu action chosen from a menu
+    **/
+   private void endAction (String[] names, int choice) {
+      if (metrics != null && choice > 0 && choice < names.length)
+         metrics.action (names[choice], this._actionNanos, this._actionFailed);
+   }//end endAction
+
    /**
     * Method to execute an update SQL statement.  Update SQL instructions
     * includes CREATE, INSERT, UPDATE, DELETE, and DROP.
     *
-    * @param sql the input SQL string
+    * @param sql the input SQL template with '?' placeholders
+    * @param params the values for the placeholders
+    * @return the number of rows changed
     * @throws java.sql.SQLException when update failed
     */
-   public void executeUpdate (String sql) throws SQLException {
-      // creates a statement object
-      Statement stmt = this._connection.createStatement ();
+   public int executeUpdate (String sql, Object... params) throws SQLException {
+      long started = System.nanoTime ();
+      try{
+         // fetches the cached statement for this template
+         PreparedStatement stmt = statements ().prepare (sql);
+         bind (sql, stmt, params);
+
+         // issues the update instruction
+         int rows = stmt.executeUpdate ();
+         wrote ();
+         measured (sql, started, rows);
+         return rows;
+      }catch (SQLException e){
+         throw failed (sql, started, e);
+      }
+   }//end executeUpdate
+
+   /**
+    * Callback handed every row of a streamed query, see
+    * executeQueryAndProcess().
+    */
+   public interface RowHandler {
+      void handle (ResultSet row) throws SQLException;
+   }//end RowHandler
 
-      // issues the update instruction
-      stmt.executeUpdate (sql);
+   /**
+    * Method to execute an input query SQL instruction (i.e. SELECT) and
+    * hand every row to a callback as it arrives. Rows are fetched from a
+    * server side cursor, hotel.fetchSize rows at a time, so any number of
+    * rows is processed in constant memory. In a read-only action the query
+    * runs on the replica when it can, see readOnly().
+    *
+    * @param query the input query template with '?' placeholders
+    * @param handler the callback called once per row
+    * @param params the values for the placeholders
+    * @return the number of rows processed
+    * @throws java.sql.SQLException when failed to execute the query
+    */
+   public int executeQueryAndProcess (String query, RowHandler handler, Object... params) throws SQLException {
+      long started = System.nanoTime ();
+      HotelConnectionPool.Lease lease = readLease ();
+      try{
+         int rowCount = process (lease, query, handler, params);
+         measured (query, started, rowCount);
+         return rowCount;
+      }catch (SQLException e){
+         if (lease != this._replicaLease || this._rowsHandled > 0 || !isReplicaFailure (e))
+            throw failed (query, started, e);
+      }
+      // the replica went away or cancelled the query before any row, read
+      // from the primary instead
+      ReplicaPool pool = replicas;
+      if (pool != null)
+         pool.failed (lease);
+      this._replicaLease = null;
+      try{
+         statements ();
+         int rowCount = process (this._lease, query, handler, params);
+         measured (query, started, rowCount);
+         return rowCount;
+      }catch (SQLException e){
+         throw failed (query, started, e);
+      }
+   }//end executeQueryAndProcess
 
-      // close the instruction
-      stmt.close ();
-   }//end executeUpdate
+   // rows handed to the handler by the running process() call
+   private int _rowsHandled = 0;
+
+   /*
+    * Runs a query on a connection and hands every row to the handler
+    **/
+   private int process (HotelConnectionPool.Lease lease, String query, RowHandler handler, Object[] params) throws SQLException {
+      this._rowsHandled = 0;
+      // fetches the cached statement for this template
+      PreparedStatement stmt = lease.getStatements ().prepare (query);
+      bind (query, stmt, params);
+      stmt.setFetchSize (FETCH_SIZE);
+
+      // postgres only fetches through a cursor inside a transaction
+      Connection connection = lease.getConnection ();
+      boolean autoCommit = connection.getAutoCommit ();
+      if (autoCommit)
+         connection.setAutoCommit (false);
+      try{
+         ResultSet rs = stmt.executeQuery ();
+         try{
+            while (rs.next ()){
+               handler.handle (rs);
+               ++this._rowsHandled;
+            }//end while
+         }finally{
+            rs.close ();
+         }
+         if (autoCommit)
+            connection.commit ();
+      }catch (SQLException | RuntimeException e){
+         // end the transaction without hiding why the query failed, the
+         // pool discards a connection that cannot be reset
+         if (autoCommit){
+            try{
+               connection.rollback ();
+               connection.setAutoCommit (true);
+            }catch (SQLException secondary){
+               e.addSuppressed (secondary);
+            }
+         }
+         throw e;
+      }
+      if (autoCommit)
+         connection.setAutoCommit (true);
+      return this._rowsHandled;
+   }//end process
+
+   /*
+    * True for the errors of a replica that is down or restarting, or that
+    * cancelled a query conflicting with the changes it replays
+    **/
+   private static boolean isReplicaFailure (SQLException e) {
+      String state = e.getSQLState ();
+      return state != null && (state.startsWith ("08") || state.startsWith ("57P") || state.equals ("40001"));
+   }//end isReplicaFailure
 
    /**
     * Method to execute an input query SQL instruction (i.e. SELECT).  This
     * method issues the query to the DBMS and outputs the results to
-    * standard out.
+    * standard out. Rows are streamed from the database and written out in
+    * chunks, so long reports do not have to fit in memory.
     *
-    * @param query the input query string
+    * @param query the input query template with '?' placeholders
+    * @param params the values for the placeholders
     * @return the number of rows returned
     * @throws java.sql.SQLException when failed to execute the query
     */
-   public int executeQueryAndPrintResult (String query) throws SQLException {
-      // creates a statement object
-      Statement stmt = this._connection.createStatement ();
-
-      // issues the query instruction
-      ResultSet rs = stmt.executeQuery (query);
-
-      /*
-       ** obtains the metadata object for the returned result set.  The metadata
-       ** contains row and column info.
-       */
-      ResultSetMetaData rsmd = rs.getMetaData ();
-      int numCol = rsmd.getColumnCount ();
-      int rowCount = 0;
-
-      // iterates through the result set and output them to standard out.
-      boolean outputHeader = true;
-      StringBuilder sb=new StringBuilder();
-      StringBuilder sb2=new StringBuilder();
-      String rowString = "";
-      while (rs.next()){
-		 if(outputHeader){
-			for(int i = 1; i <= numCol; i++){
-			   //System.out.print(rsmd.getColumnName(i) + "\t");
-            sb.append(String.format("|%-20s", rsmd.getColumnName(i)));
-            sb2.append("--------------------");
-			}
-         System.out.print(sb);
-			System.out.println();
-         System.out.print(sb2);
-			System.out.println();
-			outputHeader = false;
-		 }
-         for (int i=1; i<=numCol; ++i){
-            //System.out.print(rs.getString(i) + "\t\t");
-            rowString = rs.getString(i);
-            rowString = rowString.trim();
-            String newString = String.format("|%-20s", rowString);
-            System.out.print(newString);
-         }
-         System.out.println ();
-         ++rowCount;
-      }//end while
-      stmt.close ();
+   public int executeQueryAndPrintResult (String query, Object... params) throws SQLException {
+      final StringBuilder sb = this._printBuffer;
+      sb.setLength (0);
+      int rowCount = executeQueryAndProcess (query, new RowHandler () {
+         private int numCol = -1;
+
+         public void handle (ResultSet rs) throws SQLException {
+            if (numCol < 0){
+               /*
+                ** obtains the metadata object for the returned result set.  The metadata
+                ** contains row and column info.
+                */
+               ResultSetMetaData rsmd = rs.getMetaData ();
+               numCol = rsmd.getColumnCount ();
+               String[] columns = new String[numCol];
+               for (int i = 1; i <= numCol; i++)
+                  columns[i - 1] = rsmd.getColumnName (i);
+               appendHeader (sb, columns);
+            }
+            for (int i = 1; i <= numCol; ++i)
+               appendCell (sb, rs.getString (i));
+            sb.append (LINE_SEPARATOR);
+            if (sb.length () >= PRINT_CHUNK)
+               flushPrintBuffer ();
+         }
+      }, params);
+      flushPrintBuffer ();
       return rowCount;
    }//end executeQuery
 
+   /**
+    * Method to print rows that did not come from a query, in the same
+    * layout as executeQueryAndPrintResult.
+    *
+    * @param columns the column names
+    * @param rows the rows to print
+    * @return the number of rows printed
+    */
+   public int printRows (String[] columns, List<String[]> rows) {
+      if (rows.isEmpty())
+         return 0;
+      StringBuilder sb = this._printBuffer;
+      sb.setLength (0);
+      appendHeader (sb, columns);
+      for (String[] row : rows){
+         for (String value : row)
+            appendCell (sb, value);
+         sb.append (LINE_SEPARATOR);
+         if (sb.length () >= PRINT_CHUNK)
+            flushPrintBuffer ();
+      }
+      flushPrintBuffer ();
+      return rows.size();
+   }//end printRows
+
+   /*
+    * Appends the column names and the line under them
+    **/
+   private static void appendHeader (StringBuilder sb, String[] columns) {
+      for (String column : columns)
+         appendCell (sb, column);
+      sb.append (LINE_SEPARATOR);
+      for (int i = 0; i < columns.length; ++i)
+         sb.append ("--------------------");
+      sb.append (LINE_SEPARATOR);
+   }//end appendHeader
+
+   /*
+    * Appends "|value" trimmed and padded to the column width, like
+    * String.format("|%-20s", value.trim()) but without the allocations.
+    **/
+   private static void appendCell (StringBuilder sb, String value) {
+      if (value == null)
+         value = "";
+      int start = 0, end = value.length ();
+      while (start < end && value.charAt (start) <= ' ')
+         ++start;
+      while (end > start && value.charAt (end - 1) <= ' ')
+         --end;
+      sb.append ('|').append (value, start, end);
+      for (int i = end - start; i < COLUMN_WIDTH; ++i)
+         sb.append (' ');
+   }//end appendCell
+
+   private void flushPrintBuffer () {
+      this.out.append (this._printBuffer);
+      this.out.flush ();
+      this._printBuffer.setLength (0);
+   }//end flushPrintBuffer
+
    /**
     * Method to execute an input query SQL instruction (i.e. SELECT).  This
     * method issues the query to the DBMS and returns the results as
     * a list of records. Each record in turn is a list of attribute values
     *
-    * @param query the input query string
+    * @param query the input query template with '?' placeholders
+    * @param params the values for the placeholders
     * @return the query result as a list of records
     * @throws java.sql.SQLException when failed to execute the query
     */
-   public List<List<String>> executeQueryAndReturnResult (String query) throws SQLException {
-      // creates a statement object
-      Statement stmt = this._connection.createStatement ();
-
-      // issues the query instruction
-      ResultSet rs = stmt.executeQuery (query);
-
-      /*
-       ** obtains the metadata object for the returned result set.  The metadata
-       ** contains row and column info.
-       */
-      ResultSetMetaData rsmd = rs.getMetaData ();
-      int numCol = rsmd.getColumnCount ();
-      int rowCount = 0;
-
-      // iterates through the result set and saves the data returned by the query.
-      boolean outputHeader = false;
-      List<List<String>> result  = new ArrayList<List<String>>();
-      while (rs.next()){
-        List<String> record = new ArrayList<String>();
-		for (int i=1; i<=numCol; ++i)
-			record.add(rs.getString (i));
-        result.add(record);
-      }//end while
-      stmt.close ();
-      return result;
+   public List<List<String>> executeQueryAndReturnResult (String query, Object... params) throws SQLException {
+      long started = System.nanoTime ();
+      try{
+         // fetches the cached statement for this template
+         PreparedStatement stmt = statements ().prepare (query);
+         bind (query, stmt, params);
+
+         // issues the query instruction
+         ResultSet rs = stmt.executeQuery ();
+
+         /*
+          ** obtains the metadata object for the returned result set.  The metadata
+          ** contains row and column info.
+          */
+         ResultSetMetaData rsmd = rs.getMetaData ();
+         int numCol = rsmd.getColumnCount ();
+
+         // iterates through the result set and saves the data returned by the query.
+         List<List<String>> result  = new ArrayList<List<String>>();
+         while (rs.next()){
+            List<String> record = new ArrayList<String>();
+            for (int i=1; i<=numCol; ++i)
+               record.add(rs.getString (i));
+            result.add(record);
+         }//end while
+         rs.close ();
+         measured (query, started, result.size ());
+         return result;
+      }catch (SQLException e){
+         throw failed (query, started, e);
+      }
    }//end executeQueryAndReturnResult
 
+   /**
+    * Method to execute an input query SQL instruction (i.e. SELECT).  This
+    * method issues the query to the DBMS and returns the results column
+    * by column, with numbers and dates kept in primitive arrays.
+    *
+    * @param query the input query template with '?' placeholders
+    * @param params the values for the placeholders
+    * @return the query result
+    * @throws java.sql.SQLException when failed to execute the query
+    */
+   public TypedResult executeQueryAndReturnTypedResult (String query, Object... params) throws SQLException {
+      final TypedResult[] result = new TypedResult[1];
+      executeQueryAndProcess (query, new RowHandler () {
+         public void handle (ResultSet rs) throws SQLException {
+            if (result[0] == null)
+               result[0] = new TypedResult (rs.getMetaData ());
+            result[0].add (rs);
+         }
+      }, params);
+      if (result[0] == null){
+         // no rows, still shape the result after the query when the driver
+         // can describe it
+         PreparedStatement stmt = statements ().prepare (query);
+         result[0] = new TypedResult (stmt.getMetaData ());
+      }
+      return result[0];
+   }//end executeQueryAndReturnTypedResult
+
    /**
     * Method to execute an input query SQL instruction (i.e. SELECT).  This
     * method issues the query to the DBMS and returns the number of results
     *
-    * @param query the input query string
+    * @param query the input query template with '?' placeholders
+    * @param params the values for the placeholders
     * @return the number of rows returned
     * @throws java.sql.SQLException when failed to execute the query
     */
-   public int executeQuery (String query) throws SQLException {
-       // creates a statement object
-       Statement stmt = this._connection.createStatement ();
+   public int executeQuery (String query, Object... params) throws SQLException {
+      long started = System.nanoTime ();
+      try{
+         // fetches the cached statement for this template
+         PreparedStatement stmt = statements ().prepare (query);
+         bind (query, stmt, params);
 
-       // issues the query instruction
-       ResultSet rs = stmt.executeQuery (query);
+         // issues the query instruction
+         ResultSet rs = stmt.executeQuery ();
 
-       int rowCount = 0;
+         int rowCount = 0;
 
-       // iterates through the result set and count nuber of results.
-       while (rs.next()){
-          rowCount++;
-       }//end while
-       stmt.close ();
-       return rowCount;
+         // iterates through the result set and count nuber of results.
+         while (rs.next()){
+            rowCount++;
+         }//end while
+         rs.close ();
+         measured (query, started, rowCount);
+         return rowCount;
+      }catch (SQLException e){
+         throw failed (query, started, e);
+      }
    }
 
    /**
-    * Method to fetch the last value from sequence. This
-    * method issues the query to the DBMS and returns the current
-    * value of sequence used for autogenerated keys
+    * Method to execute an insert or update with a RETURNING clause, for
+    * instance "INSERT ... RETURNING userID", and read the key it returns.
+    * The key comes back with the statement, so it costs no extra query
+    * and is the key this statement generated, whatever other sessions
+    * insert at the same time.
     *
-    * @param sequence name of the DB sequence
-    * @return current value of a sequence
+    * @param sql the input SQL template with '?' placeholders
+    * @param params the values for the placeholders
+    * @return the first column of the first row returned, -1 when no row was
+    * @throws java.sql.SQLException when failed to execute the statement
+    */
+   public int executeUpdateAndReturnKey (String sql, Object... params) throws SQLException {
+      long started = System.nanoTime ();
+      try{
+         PreparedStatement stmt = statements ().prepare (sql);
+         bind (sql, stmt, params);
+         ResultSet rs = stmt.executeQuery ();
+         int value = -1;
+         if (rs.next())
+            value = rs.getInt(1);
+         rs.close ();
+         wrote ();
+         measured (sql, started, value < 0 ? 0 : 1);
+         return value;
+      }catch (SQLException e){
+         throw failed (sql, started, e);
+      }
+   }
+
+   /**
+    * Books a room in a single round trip. The insert only happens if the
+    * room exists, and the unique (hotelID, roomNumber, bookingDate)
+    * constraint on RoomBookings turns a concurrent double booking into a
+    * no-op instead of a second row.
+    *
+    * @param customerID the user making the booking
+    * @param hotelID the hotel of the room
+    * @param roomNumber the room to book
+    * @param bookingDate the date to book, in any format postgres accepts
+    * @return whether the room was booked, taken, or does not exist
     * @throws java.sql.SQLException when failed to execute the query
     */
-   public int getCurrSeqVal(String sequence) throws SQLException {
-      Statement stmt = this._connection.createStatement ();
+   public BookingResult bookRoom(int customerID, int hotelID, int roomNumber, String bookingDate) throws SQLException {
+      String sql =
+         "WITH room AS (SELECT R.hotelID, R.roomNumber, R.price FROM Rooms R WHERE R.hotelID = ? AND R.roomNumber = ?), " +
+         "booked AS (INSERT INTO RoomBookings (customerID, hotelID, roomNumber, bookingDate) " +
+                    "SELECT ?, room.hotelID, room.roomNumber, CAST(? AS date) FROM room " +
+                    "ON CONFLICT (hotelID, roomNumber, bookingDate) DO NOTHING RETURNING bookingID) " +
+         "SELECT room.price, booked.bookingID, CAST(? AS date) FROM room LEFT JOIN booked ON true";
+      long started = System.nanoTime ();
+      try{
+         PreparedStatement stmt = statements ().prepare (sql);
+         bind (sql, stmt, new Object[] { hotelID, roomNumber, customerID, bookingDate, bookingDate });
 
-      ResultSet rs = stmt.executeQuery (String.format("Select currval('%s')", sequence));
-      if (rs.next())
-         return rs.getInt(1);
-      return -1;
-   }
+         ResultSet rs = stmt.executeQuery ();
+         BookingResult result;
+         if (!rs.next())
+            result = BookingResult.noSuchRoom ();
+         else{
+            int price = rs.getInt (1);
+            int bookingID = rs.getInt (2);
+            boolean taken = rs.wasNull ();
+            String date = rs.getString (3);
+            result = taken ? BookingResult.conflict (price, date) : BookingResult.booked (bookingID, price, date);
+         }
+         rs.close ();
+         wrote ();
+         measured (sql, started, result.getStatus () == BookingResult.Status.BOOKED ? 1 : 0);
+         return result;
+      }catch (SQLException e){
+         throw failed (sql, started, e);
+      }
+   }//end bookRoom
+
+   // the room update log record of one room, for records the audit log writer refused
+   private static final String INSERT_UPDATE_LOG =
+      "INSERT INTO RoomUpdatesLog (managerID, hotelID, roomNumber, updatedOn) VALUES (?, ?, ?, ?)";
 
-   public int getNewUserID(String sql) throws SQLException {
-      Statement stmt = this._connection.createStatement ();
-      ResultSet rs = stmt.executeQuery (sql);
-      if (rs.next())
-         return rs.getInt(1);
-      return -1;
-   }
    /**
-    * Method to close the physical connection if it is open.
+    * Changes the price of every room of a hotel by a percentage, in one
+    * statement, which also inserts the room update log records. With
+    * -Dhotel.audit.async=true the records go to the audit log writer
+    * instead, which inserts them in batches after the prices commit;
+    * records the writer has no room for are inserted here.
+    *
+    * @param managerID the manager repricing the rooms
+    * @param hotelID the hotel
+    * @param percent the price change, -10 lowers prices by 10%
+    * @return the number of rooms repriced
+    * @throws java.sql.SQLException when failed to execute the query
+    * @throws java.lang.InterruptedException when interrupted while the writer is full
     */
-   public void cleanup(){
+   public int repriceRooms(int managerID, int hotelID, int percent) throws SQLException, InterruptedException {
+      AuditLogWriter writer = auditLog;
+      int rooms = 0;
+      if (writer == null){
+         rooms = executeUpdate (
+            "WITH repriced AS (UPDATE Rooms SET price = CAST(ROUND(price * (100 + ?) / 100.0) AS integer) " +
+                              "WHERE hotelID = ? RETURNING hotelID, roomNumber) " +
+            "INSERT INTO RoomUpdatesLog (managerID, hotelID, roomNumber, updatedOn) " +
+            "SELECT ?, hotelID, roomNumber, NOW() FROM repriced", percent, hotelID, managerID);
+      }
+      else{
+         String sql = "UPDATE Rooms SET price = CAST(ROUND(price * (100 + ?) / 100.0) AS integer) " +
+                      "WHERE hotelID = ? RETURNING roomNumber, CAST(NOW() AS timestamp)";
+         long started = System.nanoTime ();
+         try{
+            PreparedStatement stmt = statements ().prepare (sql);
+            bind (sql, stmt, new Object[] { percent, hotelID });
+            ResultSet rs = stmt.executeQuery ();
+            List<Object[]> refused = new ArrayList<Object[]> ();
+            try{
+               while (rs.next ()){
+                  if (!writer.record (managerID, hotelID, rs.getInt (1), rs.getTimestamp (2)))
+                     refused.add (new Object[] { managerID, hotelID, rs.getInt (1), rs.getTimestamp (2) });
+                  ++rooms;
+               }
+            }finally{
+               rs.close ();
+            }
+            if (!refused.isEmpty ()){
+               // the writer is full, insert those records on this connection
+               PreparedStatement insert = statements ().prepare (INSERT_UPDATE_LOG);
+               for (Object[] record : refused){
+                  bind (INSERT_UPDATE_LOG, insert, record);
+                  insert.addBatch ();
+               }
+               insert.executeBatch ();
+            }
+            wrote ();
+            measured (sql, started, rooms);
+         }catch (SQLException e){
+            throw failed (sql, started, e);
+         }
+      }
+      if (catalog != null)
+         catalog.invalidateHotel (hotelID);
+      return rooms;
+   }//end repriceRooms
+
+   // a repair and its request, inserted by one statement so neither exists
+   // without the other. Rooms that do not exist insert nothing.
+   private static final String PLACE_REPAIR =
+      "WITH repair AS (INSERT INTO RoomRepairs (companyID, hotelID, roomNumber, repairDate) " +
+                      "SELECT ?, R.hotelID, R.roomNumber, CURRENT_DATE FROM Rooms R " +
+                      "WHERE R.hotelID = ? AND R.roomNumber = ? RETURNING repairID) " +
+      "INSERT INTO RoomRepairRequests (managerID, repairID) SELECT ?, repairID FROM repair";
+
+   // the same with the repairID reserved beforehand, for batches
+   private static final String PLACE_REPAIR_WITH_ID =
+      "WITH repair AS (INSERT INTO RoomRepairs (repairID, companyID, hotelID, roomNumber, repairDate) " +
+                      "SELECT ?, ?, R.hotelID, R.roomNumber, CURRENT_DATE FROM Rooms R " +
+                      "WHERE R.hotelID = ? AND R.roomNumber = ? RETURNING repairID) " +
+      "INSERT INTO RoomRepairRequests (managerID, repairID) SELECT ?, repairID FROM repair";
+
+   // rooms a batch of repair requests may hold
+   static final int MAX_REPAIR_BATCH = 10000;
+
+   /**
+    * Places a repair request for a room in a single statement: the repair
+    * is inserted and its ID handed to the request by RETURNING.
+    *
+    * @param managerID the manager placing the request
+    * @param companyID the maintenance company
+    * @param hotelID the hotel of the room
+    * @param roomNumber the room to repair
+    * @return the repairID, or -1 when the hotel has no such room
+    * @throws java.sql.SQLException when failed to execute the query
+    */
+   public int placeRepairRequest(int managerID, int companyID, int hotelID, int roomNumber) throws SQLException {
+      return executeUpdateAndReturnKey (PLACE_REPAIR + " RETURNING repairID", companyID, hotelID, roomNumber, managerID);
+   }//end placeRepairRequest
+
+   /**
+    * Places repair requests for many rooms at once, sent as one JDBC batch
+    * and committed in one transaction, so a maintenance sweep costs one
+    * round trip and either every request is placed or none. The repairIDs
+    * are reserved beforehand (see SequenceAllocator), since a batch does
+    * not return what its statements return.
+    *
+    * @param managerID the manager placing the requests
+    * @param companyID the maintenance company
+    * @param rooms the hotelID and roomNumber of every room
+    * @return the repairIDs of the requests placed, rooms that do not exist are skipped
+    * @throws java.sql.SQLException when failed to execute the batch
+    */
+   public int[] placeRepairRequests(int managerID, int companyID, List<int[]> rooms) throws SQLException {
+      int[] repairIDs = sequences.reserve (this, "roomrepairs_repairid_seq", rooms.size ());
+      long started = System.nanoTime ();
       try{
-         if (this._connection != null){
-            this._connection.close ();
-         }//end if
+         // checks out a connection first, when the session holds none
+         PreparedStatement stmt = statements ().prepare (PLACE_REPAIR_WITH_ID);
+         Connection connection = this._lease.getConnection ();
+         boolean autoCommit = connection.getAutoCommit ();
+         stmt.clearBatch ();
+         for (int i = 0; i < repairIDs.length; ++i){
+            int[] room = rooms.get (i);
+            bind (PLACE_REPAIR_WITH_ID, stmt, new Object[] { repairIDs[i], companyID, room[0], room[1], managerID });
+            stmt.addBatch ();
+         }
+         if (autoCommit)
+            connection.setAutoCommit (false);
+         int placed = 0;
+         try{
+            int[] counts = stmt.executeBatch ();
+            for (int i = 0; i < counts.length; ++i)
+               if (counts[i] > 0)
+                  repairIDs[placed++] = repairIDs[i];
+            if (autoCommit)
+               connection.commit ();
+         }catch (SQLException e){
+            if (autoCommit)
+               connection.rollback ();
+            throw e;
+         }finally{
+            if (autoCommit)
+               connection.setAutoCommit (true);
+         }
+         wrote ();
+         measured (PLACE_REPAIR_WITH_ID, started, placed);
+         return Arrays.copyOf (repairIDs, placed);
       }catch (SQLException e){
-         // ignored.
+         throw failed (PLACE_REPAIR_WITH_ID, started, e);
+      }
+   }//end placeRepairRequests
+
+   /**
+    * Prints the hotels strictly within a radius of a location, nearest
+    * first. Answered from the in-memory location index when it is loaded.
+    * Otherwise the circle test and the distance ordering both run on the
+    * GiST index hotel_location_point, so only hotels near the location
+    * are read.
+    *
+    * @param latitude the latitude of the location
+    * @param longitude the longitude of the location
+    * @param radius the search radius, same units as calculate_distance
+    * @param limit the number of nearest hotels to print, 0 for all of them
+    * @return the number of hotels printed
+    * @throws java.sql.SQLException when failed to execute the query
+    */
+   public int printHotelsNear(BigDecimal latitude, BigDecimal longitude, BigDecimal radius, int limit) throws SQLException {
+      if (locations.isLoaded ())
+         return printRows (HotelLocationIndex.COLUMNS,
+                           locations.within (latitude.doubleValue (), longitude.doubleValue (), radius.doubleValue (), limit));
+
+      String query = "SELECT H.hotelID, H.hotelName, H.latitude, H.longitude, H.dateEstablished FROM Hotel H " +
+                     "WHERE point(H.latitude, H.longitude) <@ circle(point(?, ?), ?) " +
+                     "AND point(H.latitude, H.longitude) <-> point(?, ?) < ? " +
+                     "ORDER BY point(H.latitude, H.longitude) <-> point(?, ?)";
+      if (limit > 0)
+         return executeQueryAndPrintResult (query + " LIMIT ?", latitude, longitude, radius,
+                                            latitude, longitude, radius, latitude, longitude, limit);
+      return executeQueryAndPrintResult (query, latitude, longitude, radius,
+                                         latitude, longitude, radius, latitude, longitude);
+   }//end printHotelsNear
+
+   /**
+    * @return the hit and miss counters of the prepared statement cache
+    */
+   public String getStatementCacheStats(){
+      if (this._statements == null)
+         return "no statements prepared";
+      return this._statements.getStats ();
+   }//end getStatementCacheStats
+
+   /**
+    * Method to give the physical connection back to the pool.
+    */
+   public void cleanup(){
+      try{
+         releaseConnection ();
+      }finally{
+         if (this._ownsPool)
+            this._pool.close ();
       }//end try
    }//end cleanup
 
@@ -253,12 +1046,12 @@ public class Hotel {
     * @param args the command line arguments this inclues the <mysql|pgsql> <login file>
     */
    public static void main (String[] args) {
-      if (args.length != 3) {
+      if (args.length != 3 && !(args.length == 5 && args[3].equals("-server"))) {
          System.err.println (
             "Usage: " +
             "java [-classpath <classpath>] " +
             Hotel.class.getName () +
-            " <dbname> <port> <user>");
+            " <dbname> <port> <user> [-server <listen port>]");
          return;
       }//end if
 
@@ -272,54 +1065,229 @@ public class Hotel {
          String dbname = args[0];
          String dbport = args[1];
          String user = args[2];
+         if (args.length == 5){
+            // headless mode, sessions connect over a local socket
+            HotelServer.start (dbname, dbport, user, "", Integer.parseInt (args[4]));
+            return;
+         }
          esql = new Hotel (dbname, dbport, user, "");
+         if (metrics != null)
+            metrics.register ();
+         startAuditLog (connectionURL (dbname, dbport), user, "");
+         startReplicas (connectionURL (dbname, dbport), user, "");
+         if (Boolean.parseBoolean (System.getProperty ("hotel.partitions", "true"))){
+            try{
+               int created = esql.createPartitions (Integer.getInteger ("hotel.partitions.ahead", HotelServer.DEFAULT_PARTITIONS_AHEAD));
+               if (created > 0)
+                  System.out.println ("Created " + created + " partitions");
+            }catch (SQLException e){
+               System.err.println ("Unable to create partitions: " + e.getMessage ());
+            }
+            esql.releaseConnection ();
+         }
+         if (Boolean.parseBoolean (System.getProperty ("hotel.locations", "true"))){
+            locations.refresh (esql);
+            esql.releaseConnection ();
+            locationsRefreshMillis = Long.getLong ("hotel.locations.refresh", HotelServer.DEFAULT_LOCATIONS_REFRESH_SECONDS) * 1000;
+         }
+         if (Boolean.getBoolean ("hotel.occupancy")){
+            occupancy.load (esql);
+            esql.releaseConnection ();
+            occupancyVerifyMillis = Long.getLong ("hotel.occupancy.verify", HotelServer.DEFAULT_OCCUPANCY_VERIFY_SECONDS) * 1000;
+         }
+         runSession (esql);
+      }catch(EOFException e) {
+         // input closed, leave like choice 9 does.
+      }catch(Exception e) {
+         System.err.println (e.getMessage ());
+      }finally{
+         // make sure to cleanup the created table and close the connection.
+         try{
+            if(esql != null) {
+               System.out.println("Statement cache: " + esql.getStatementCacheStats ());
+               if (catalog != null)
+                  System.out.println("Room catalog: " + catalog.getStats ());
+               System.out.println("Log in cache: " + SessionPrincipal.getLogInStats ());
+               stopAuditLog ();
+               stopReplicas ();
+               if (metrics != null)
+                  System.out.print(metrics.getReport ());
+               System.out.print("Disconnecting from database...");
+               esql.cleanup ();
+               System.out.println("Done\n\nBye !");
+            }//end if
+         }catch (Exception e) {
+            // ignored.
+         }//end try
+      }//end try
+   }//end main
+
+   /**
+    * Starts the audit log writer of the JVM when asked for with
+    * -Dhotel.audit.async=true. Otherwise room update log records are
+    * written by the statements changing the rooms, in their transaction.
+    */
+   public static void startAuditLog (String url, String user, String passwd) {
+      if (!Boolean.getBoolean ("hotel.audit.async"))
+         return;
+      AuditLogWriter writer = new AuditLogWriter (url, user, passwd,
+         Integer.getInteger ("hotel.audit.batch", AuditLogWriter.DEFAULT_BATCH_SIZE),
+         Long.getLong ("hotel.audit.flush", AuditLogWriter.DEFAULT_FLUSH_MILLIS),
+         Long.getLong ("hotel.audit.wait", AuditLogWriter.DEFAULT_WAIT_MILLIS),
+         Integer.getInteger ("hotel.audit.attempts", AuditLogWriter.DEFAULT_ATTEMPTS),
+         System.getProperty ("hotel.audit.deadLetter", AuditLogWriter.DEFAULT_DEAD_LETTER_FILE));
+      writer.start ();
+      auditLog = writer;
+   }//end startAuditLog
+
+   /**
+    * Writes the queued room update log records and stops the writer.
+    */
+   public static void stopAuditLog () {
+      AuditLogWriter writer = auditLog;
+      auditLog = null;
+      if (writer != null){
+         writer.close ();
+         System.out.println ("Audit log: " + writer.getStats ());
+      }
+   }//end stopAuditLog
+
+   /**
+    * Starts routing the reports to the read replica at -Dhotel.replica.url,
+    * when set, for instance jdbc:postgresql://localhost:5433/mydb.
+    *
+    * @param primaryURL the JDBC URL of the primary, the replica is compared with it
+    */
+   public static void startReplicas (String primaryURL, String user, String passwd) {
+      String url = System.getProperty ("hotel.replica.url");
+      if (url == null || url.isEmpty ())
+         return;
+      ReplicaPool pool = new ReplicaPool (primaryURL, url, user, passwd,
+         Integer.getInteger ("hotel.replica.pool.size", ReplicaPool.DEFAULT_POOL_SIZE),
+         Long.getLong ("hotel.replica.maxLag", ReplicaPool.DEFAULT_MAX_LAG_MILLIS));
+      pool.start (Long.getLong ("hotel.replica.check", ReplicaPool.DEFAULT_CHECK_MILLIS));
+      replicas = pool;
+   }//end startReplicas
+
+   /**
+    * Creates the RoomBookings and RoomUpdatesLog partitions of this year
+    * and of the next ones that do not exist yet, moving the rows of those
+    * years out of the default partitions, see create_partitions() in
+    * create_tables.sql.
+    *
+    * @param yearsAhead the years after the current one that need partitions
+    * @return the number of partitions created
+    * @throws java.sql.SQLException when failed to execute the query
+    */
+   public int createPartitions (int yearsAhead) throws SQLException {
+      TypedResult created = executeQueryAndReturnTypedResult (
+         "SELECT create_partitions(CAST(EXTRACT(YEAR FROM CURRENT_DATE) AS integer), " +
+         "CAST(EXTRACT(YEAR FROM CURRENT_DATE) AS integer) + ?)", yearsAhead);
+      return created.getRowCount () > 0 ? created.getInt (0, 0) : 0;
+   }//end createPartitions
+
+   /**
+    * Stops routing reads to the replica and closes its connections.
+    */
+   public static void stopReplicas () {
+      ReplicaPool pool = replicas;
+      replicas = null;
+      if (pool != null){
+         System.out.println ("Read replica: " + pool.getStats ());
+         pool.close ();
+      }
+   }//end stopReplicas
 
-         boolean keepon = true;
-         while(keepon) {
-            // These are sample SQL statements
-            System.out.println("MAIN MENU");
-            System.out.println("---------");
-            System.out.println("1. Create user");
-            System.out.println("2. Log in");
-            System.out.println("9. < EXIT");
-            String authorisedUser = null;
-            switch (readChoice()){
+   /*
+    * Brings the in-memory structures up to date when they are older than
+    * allowed, for the console, which has no background thread doing it
+    **/
+   private void refreshMemory () {
+      try{
+         if (locationsRefreshMillis > 0)
+            locations.refreshIfOlder (this, locationsRefreshMillis);
+      }catch (SQLException e){
+         this.err.println ("Unable to refresh hotel locations: " + e.getMessage ());
+      }
+      try{
+         if (occupancyVerifyMillis > 0){
+            int stale = occupancy.verifyIfOlder (this, occupancyVerifyMillis);
+            if (stale > 0)
+               this.out.println ("Room occupancy was out of date for " + stale + " hotels, reloaded");
+         }
+      }catch (SQLException e){
+         this.err.println ("Unable to verify room occupancy: " + e.getMessage ());
+      }finally{
+         releaseConnection ();
+      }
+   }//end refreshMemory
+
+   /**
+    * Runs the menus of one session until the user exits.
+    *
+    * @param esql the session to run
+    * @throws java.io.IOException when the session input is closed
+    * @throws java.sql.SQLException when the manager check fails
+    */
+   public static void runSession (Hotel esql) throws IOException, SQLException {
+      boolean keepon = true;
+      while(keepon) {
+         // These are sample SQL statements
+         esql.out.println("MAIN MENU");
+         esql.out.println("---------");
+         esql.out.println("1. Create user");
+         esql.out.println("2. Log in");
+         esql.out.println("9. < EXIT");
+         int choice = readChoice(esql);
+         boolean managermenu = false;
+         String authorisedUser = null;
+         esql.startAction();
+         try{
+            switch (choice){
                case 1: CreateUser(esql); break;
                case 2: authorisedUser = LogIn(esql); break;
                case 9: keepon = false; break;
-               default : System.out.println("Unrecognized choice!"); break;
+               default : esql.out.println("Unrecognized choice!"); break;
             }//end switch
             if (authorisedUser != null) {
-              boolean usermenu = true;
-              boolean managermenu = false;
-
-              String query = String.format("SELECT * FROM USERS WHERE userID = '%s' AND userType = 'manager'", authorisedUser);
-              int userNum = esql.executeQuery(query);
-              if (userNum > 0){
-               managermenu =  true;
-              }
-
-              while(usermenu) {
-                System.out.println("MAIN MENU");
-                System.out.println("---------");
-                System.out.println("1. View Hotels within 30 units");
-                System.out.println("2. View Rooms");
-                System.out.println("3. Book a Room");
-                System.out.println("4. View recent booking history");
-
-                //the following functionalities basically used by managers
-                if (managermenu){
-                  System.out.println("5. Update Room Information");
-                  System.out.println("6. View 5 recent Room Updates Info");
-                  System.out.println("7. View booking history of the hotel");
-                  System.out.println("8. View 5 regular Customers");
-                  System.out.println("9. Place room repair Request to a company");
-                  System.out.println("10. View room repair Requests history");
-                }
-
-                System.out.println(".........................");
-                System.out.println("20. Log out");
-                switch (readChoice()){
+              //the principal read at log in knows the user type
+              managermenu = esql.isManager(Integer.valueOf(authorisedUser));
+            }
+         }finally{
+            // no connection is held while waiting on the user
+            esql.releaseConnection();
+            esql.endAction(MAIN_ACTIONS, choice);
+         }
+         if (authorisedUser != null) {
+           boolean usermenu = true;
+
+           while(usermenu) {
+             esql.out.println("MAIN MENU");
+             esql.out.println("---------");
+             esql.out.println("1. View Hotels within 30 units");
+             esql.out.println("2. View Rooms");
+             esql.out.println("3. Book a Room");
+             esql.out.println("4. View recent booking history");
+             esql.out.println("11. View nearest Hotels");
+
+             //the following functionalities basically used by managers
+             if (managermenu){
+               esql.out.println("5. Update Room Information");
+               esql.out.println("6. View 5 recent Room Updates Info");
+               esql.out.println("7. View booking history of the hotel");
+               esql.out.println("8. View 5 regular Customers");
+               esql.out.println("9. Place room repair Request to a company");
+               esql.out.println("10. View room repair Requests history");
+               esql.out.println("12. Reprice the rooms of your hotels");
+             }
+
+             esql.out.println(".........................");
+             esql.out.println("20. Log out");
+             int action = readChoice(esql);
+             esql.refreshMemory();
+             esql.startAction();
+             try{
+                switch (action){
                    case 1: viewHotels(esql); break;
                    case 2: viewRooms(esql); break;
                    case 3: bookRooms(esql, authorisedUser); break; //=====NEW PARAMETER ADDED BY ZERGIO
@@ -330,30 +1298,26 @@ public class Hotel {
                    case 8: viewRegularCustomers(esql, authorisedUser); break;
                    case 9: placeRoomRepairRequests(esql, authorisedUser); break;
                    case 10: viewRoomRepairHistory(esql, authorisedUser); break;
+                   case 11: viewNearestHotels(esql); break;
+                   case 12: repriceRooms(esql, authorisedUser); break;
                    case 20: usermenu = false; managermenu = false; break;
-                   default : System.out.println("Unrecognized choice!"); break;
+                   default : esql.out.println("Unrecognized choice!"); break;
                 }
-              }
-            }
-         }//end while
-      }catch(Exception e) {
-         System.err.println (e.getMessage ());
-      }finally{
-         // make sure to cleanup the created table and close the connection.
-         try{
-            if(esql != null) {
-               System.out.print("Disconnecting from database...");
-               esql.cleanup ();
-               System.out.println("Done\n\nBye !");
-            }//end if
-         }catch (Exception e) {
-            // ignored.
-         }//end try
-      }//end try
-   }//end main
+             }finally{
+                esql.releaseConnection();
+                esql.endAction(USER_ACTIONS, action);
+             }
+           }
+         }
+      }//end while
+   }//end runSession
 
    public static void Greeting(){
-      System.out.println(
+      Greeting(System.out);
+   }//end Greeting
+
+   public static void Greeting(PrintStream out){
+      out.println(
          "\n\n*******************************************************\n" +
          "              User Interface      	               \n" +
          "*******************************************************\n");
@@ -363,16 +1327,17 @@ public class Hotel {
     * Reads the users choice given from the keyboard
     * @int
     **/
-   public static int readChoice() {
+   public static int readChoice(Hotel esql) throws IOException {
       int input;
       // returns only if a correct value is given.
       do {
-         System.out.print("Please make your choice: ");
-         try { // read the integer, parse it and break.
-            input = Integer.parseInt(in.readLine());
+         esql.out.print("Please make your choice: ");
+         String line = esql.readLine();
+         try { // parse the integer and break.
+            input = Integer.parseInt(line.trim());
             break;
-         }catch (Exception e) {
-            System.out.println("Your input is invalid!");
+         }catch (NumberFormatException e) {
+            esql.out.println("Your input is invalid!");
             continue;
          }//end try
       }while (true);
@@ -384,17 +1349,19 @@ public class Hotel {
     **/
    public static void CreateUser(Hotel esql){
       try{
-         System.out.print("\tEnter name: ");
-         String name = in.readLine();
-         System.out.print("\tEnter password: ");
-         String password = in.readLine(); 
+         esql.out.print("\tEnter name: ");
+         String name = esql.readLine();
+         esql.out.print("\tEnter password: ");
+         String password = esql.readLine(); 
          String type="Customer";
-			String query = String.format("INSERT INTO USERS (name, password, userType) VALUES ('%s','%s', '%s')", name, password, type);
-         esql.executeUpdate(query);
-         System.out.println ("User successfully created with userID = " + esql.getNewUserID("SELECT last_value FROM users_userID_seq"));
+			String query = "INSERT INTO USERS (name, password, userType) VALUES (?, ?, ?) RETURNING userID";
+         //the new userID comes back with the insert, last_value would be the latest of any session
+         int userID = esql.executeUpdateAndReturnKey(query, name, PasswordHash.hash(password), type);
+         SessionPrincipal.forgetLogIns(userID);
+         esql.out.println ("User successfully created with userID = " + userID);
          
       }catch(Exception e){
-         System.err.println (e.getMessage ());
+         esql.err.println (e.getMessage ());
       }
    }//end CreateUser
 
@@ -405,22 +1372,27 @@ public class Hotel {
     **/
    public static String LogIn(Hotel esql){
       try{
-         System.out.print("\tEnter userID: ");
-         String userID = in.readLine();
-         System.out.print("\tEnter password: ");
-         String password = in.readLine();
-
-         String query = String.format("SELECT * FROM USERS WHERE userID = '%s' AND password = '%s'", userID, password);
-         int userNum = esql.executeQuery(query);
-         if (userNum > 0){
+         esql.out.print("\tEnter userID: ");
+         String userID = esql.readLine();
+         esql.out.print("\tEnter password: ");
+         String password = esql.readLine();
+
+         if (SessionPrincipal.isLockedOut(Integer.valueOf(userID))){
+            esql.out.print("\tToo many failed attempts. Please try again later.\n");
+            return null;
+         }
+         //one query reads the password hash, the user type and managed hotels, unless the log in is cached
+         SessionPrincipal principal = SessionPrincipal.logIn(esql, Integer.valueOf(userID), password);
+         if (principal != null){
+            esql._principal = principal;
             return userID;
          }
          else{
-            System.out.print("\tNot a valid user. Please try again.\n");
+            esql.out.print("\tNot a valid user. Please try again.\n");
             return null;
          }
       }catch(Exception e){
-         System.err.println (e.getMessage ());
+         esql.err.println (e.getMessage ());
          return null;
       }
    }//end
@@ -430,16 +1402,36 @@ public class Hotel {
    public static void viewHotels(Hotel esql) {
       try{
          //Get user input
-         System.out.print("\tEnter Latitude: ");
-         String userLatitude = in.readLine();
-         System.out.print("\tEnter Longitude: ");
-         String userLongitude = in.readLine();
+         esql.out.print("\tEnter Latitude: ");
+         String userLatitude = esql.readLine();
+         esql.out.print("\tEnter Longitude: ");
+         String userLongitude = esql.readLine();
 
          //Query that gets the hotels within 30 distance units
-         String query = String.format("SELECT H.hotelID, H.hotelName, H.latitude, H.longitude, H.dateEstablished FROM Hotel H WHERE calculate_distance(H.latitude, H.longitude, %s, %s) < 30", userLatitude, userLongitude);
-         esql.executeQueryAndPrintResult(query);
+         esql.printHotelsNear(new BigDecimal(userLatitude.trim()), new BigDecimal(userLongitude.trim()), new BigDecimal(30), 0);
       }catch(Exception e){
-         System.err.println (e.getMessage ());
+         esql.err.println (e.getMessage ());
+         return;
+      }
+   }//end
+
+   public static void viewNearestHotels(Hotel esql) {
+      try{
+         //Get user input
+         esql.out.print("\tEnter Latitude: ");
+         String userLatitude = esql.readLine();
+         esql.out.print("\tEnter Longitude: ");
+         String userLongitude = esql.readLine();
+         esql.out.print("\tHow many hotels? ");
+         int count = Integer.parseInt(esql.readLine().trim());
+         esql.out.print("\tWithin what distance? (leave empty for any): ");
+         String userRadius = esql.readLine().trim();
+
+         //an empty radius searches the whole catalog, nearest first
+         BigDecimal radius = userRadius.isEmpty() ? new BigDecimal(Integer.MAX_VALUE) : new BigDecimal(userRadius);
+         esql.printHotelsNear(new BigDecimal(userLatitude.trim()), new BigDecimal(userLongitude.trim()), radius, count);
+      }catch(Exception e){
+         esql.err.println (e.getMessage ());
          return;
       }
    }//end
@@ -449,23 +1441,25 @@ public class Hotel {
    public static void viewRooms(Hotel esql) {
       try{
          //Get user input
-         System.out.print("\tEnter Hotel ID: ");
-         String hotelID = in.readLine();
-         System.out.print("\tEnter Date: ");
-         String date = in.readLine();
+         esql.out.print("\tEnter Hotel ID: ");
+         String hotelID = esql.readLine();
+         esql.out.print("\tEnter Date: ");
+         String date = esql.readLine();
+
+         esql.out.print("\tEnter End Date (leave empty for one night): ");
+         String endDate = esql.readLine().trim();
 
-         //Query that gets the available rooms in a Hotel on a specific Booking Date
-         String availableQuery = String.format("SELECT DISTINCT B.roomNumber, R.price FROM RoomBookings B, Rooms R WHERE B.hotelID = '%s' AND R.hotelID = '%s' AND B.roomNumber = R.roomNumber AND B.bookingDate != '%s' UNION SELECT R.roomNumber, R.price FROM Rooms R WHERE R.hotelID='%s' AND R.roomNumber NOT IN (SELECT DISTINCT B.roomNumber FROM RoomBookings B WHERE B.hotelID='%s') ORDER BY roomNumber", hotelID, hotelID, date, hotelID, hotelID);
-         System.out.print("\tHere is a list of the available rooms:\n");
-         esql.executeQueryAndPrintResult(availableQuery);
+         //One query gets the free and the taken rooms of the Hotel for the dates
+         RoomAvailability rooms = RoomAvailability.forRange(esql, Integer.valueOf(hotelID), date, endDate.isEmpty() ? date : endDate);
+         esql.out.print("\tHere is a list of the available rooms:\n");
+         esql.printRows(RoomAvailability.COLUMNS, rooms.getAvailable());
 
          //now print out the unavailable rooms
-         String unavailableQuery = String.format("SELECT DISTINCT B.roomNumber, R.price FROM RoomBookings B, Rooms R WHERE B.hotelID = '%s' AND R.hotelID = '%s' AND B.roomNumber = R.roomNumber AND B.bookingDate = '%s'", hotelID, hotelID, date);
-         System.out.print("\tHere is a list of the unavailable rooms:\n");
-         esql.executeQueryAndPrintResult(unavailableQuery);
+         esql.out.print("\tHere is a list of the unavailable rooms:\n");
+         esql.printRows(RoomAvailability.COLUMNS, rooms.getUnavailable());
 
       }catch(Exception e){
-         System.err.println (e.getMessage ());
+         esql.err.println (e.getMessage ());
          return;
       }
    }
@@ -475,41 +1469,52 @@ public class Hotel {
    public static void bookRooms(Hotel esql, String authorizedUser) {
       try{
          //Get user input
-         System.out.print("\tEnter HotelID: ");
-         String userHotelID = in.readLine();
-         System.out.print("\tEnter Room Number: ");
-         String userRoomNum = in.readLine();
-         System.out.print("\tEnter Date in Format (MM/DD/YYYY): ");
-         String userDate = in.readLine();
-
-         //Query to select rooms booked on the date put in by user
-         String query = String.format("SELECT * FROM RoomBookings B WHERE B.hotelID='%s' AND B.roomNumber='%s' AND B.bookingDate='%s'", userHotelID, userRoomNum, userDate);
-         int availability = esql.executeQuery(query);
-         //If query has a result, then room isn't available on that date
-         if (availability > 0){
-            System.out.print("There is no availability for this room on this date. Sorry!\n");
+         esql.out.print("\tEnter HotelID: ");
+         String userHotelID = esql.readLine();
+         esql.out.print("\tEnter Room Number: ");
+         String userRoomNum = esql.readLine();
+         esql.out.print("\tEnter Date in Format (MM/DD/YYYY): ");
+         String userDate = esql.readLine();
+
+         int currUID = Integer.valueOf(authorizedUser);
+         int hotel = Integer.valueOf(userHotelID);
+         int room = Integer.valueOf(userRoomNum);
+         if (room < 0){
+            esql.out.print("There is no room with this number at this hotel.\n");
             return;
          }
-         //If no result to query, the room isn't booked and is thus available
-         else{
-            System.out.print("This room is available on this date! Booking now...\n");
-            int currUID = Integer.valueOf(authorizedUser);
-            //Query to Update Bookings table
-            String query2 = String.format("INSERT INTO RoomBookings (customerID, hotelID, roomNumber, bookingDate) VALUES ('%s','%s', '%s', '%s')", currUID, userHotelID, userRoomNum, userDate);
-            esql.executeUpdate(query2);
-
-            System.out.print("\tSuccessfully booked Room Number: " + userRoomNum + "\n \tAt hotel with hotel ID: " + userHotelID + "\n");
-            //Query to get room price
-            String query3 = String.format("SELECT R.price FROM Rooms R WHERE R.hotelID='%s' AND R.roomNumber='%s'", userHotelID, userRoomNum);
-            System.out.print("\tWith Price: $");
-            List<List<String>> priceList = esql.executeQueryAndReturnResult(query3);
-            String roomPrice= priceList.get(0).get(0);
-            System.out.print(roomPrice + "\n");
 
+         //A room known to be taken is turned down without asking the database
+         Integer day = RoomOccupancy.parseDay(userDate);
+         if (day != null && Boolean.FALSE.equals(occupancy.isFree(hotel, room, day))){
+            esql.out.print("There is no availability for this room on this date. Sorry!\n");
             return;
          }
+
+         //Book the room if it is free on that date, and get its price back
+         BookingResult booking = esql.bookRoom(currUID, hotel, room, userDate);
+         if (booking.getStatus() != BookingResult.Status.NO_SUCH_ROOM){
+            Integer bookedDay = RoomOccupancy.parseDay(booking.getBookingDate());
+            if (bookedDay != null)
+               occupancy.markBooked(hotel, room, bookedDay);
+         }
+         switch (booking.getStatus()){
+            case NO_SUCH_ROOM:
+               esql.out.print("There is no room with this number at this hotel.\n");
+               return;
+            //Someone else holds the room on that date
+            case CONFLICT:
+               esql.out.print("There is no availability for this room on this date. Sorry!\n");
+               return;
+            default:
+               esql.out.print("This room is available on this date! Booking now...\n");
+               esql.out.print("\tSuccessfully booked Room Number: " + userRoomNum + "\n \tAt hotel with hotel ID: " + userHotelID + "\n");
+               esql.out.print("\tWith Price: $" + booking.getPrice() + "\n");
+               esql.out.print("\tBooking ID: " + booking.getBookingID() + "\n");
+               return;
+         }
       }catch(Exception e){
-         System.err.println (e.getMessage ());
+         esql.err.println (e.getMessage ());
          return;
       }
    }//end
@@ -520,11 +1525,26 @@ public class Hotel {
    public static void viewRecentBookingsfromCustomer(Hotel esql, String authorizedUser) {
       try{
          int currUID = Integer.valueOf(authorizedUser);
-         //query to select last 5 bookings for the currently logged in user
-         String query = String.format("SELECT B.hotelID, B.roomNumber, R.price, B.bookingDate FROM RoomBookings B, Rooms R WHERE R.roomNumber=B.roomNumber AND R.hotelID=B.hotelID AND B.customerID='%s' ORDER BY B.bookingDate DESC LIMIT 5", currUID);
-         esql.executeQueryAndPrintResult(query);
+         if (catalog != null){
+            //bookings for the currently logged in user, 5 at a time from the most recent, the prices come from the room catalog
+            String query = "SELECT B.bookingID, B.hotelID, B.roomNumber, B.bookingDate FROM RoomBookings B WHERE B.customerID = ? AND B.bookingDate <= CAST(? AS date) AND (B.bookingDate, B.bookingID) < (CAST(? AS date), ?) ORDER BY B.bookingDate DESC, B.bookingID DESC LIMIT ?";
+            KeysetPager pager = new KeysetPager(query, 3, 0, true, RECENT_PAGE_SIZE, currUID, KeysetPager.KEY_DATE, KeysetPager.KEY, KeysetPager.LIMIT);
+            do{
+               List<String[]> rows = new ArrayList<String[]>();
+               for (String[] booking : pager.next(esql)){
+                  RoomCatalog.Room room = catalog.room(esql, Integer.parseInt(booking[1]), Integer.parseInt(booking[2]));
+                  rows.add(new String[] { booking[0], booking[1], booking[2],
+                                          room == null ? null : Integer.toString(room.getPrice()), booking[3] });
+               }
+               esql.printRows(new String[] { "bookingid", "hotelid", "roomnumber", "price", "bookingdate" }, rows);
+            }while (pager.askNext(esql));
+            return;
+         }
+         //query to select bookings for the currently logged in user, 5 at a time from the most recent
+         String query = "SELECT B.bookingID, B.hotelID, B.roomNumber, R.price, B.bookingDate FROM RoomBookings B, Rooms R WHERE R.roomNumber=B.roomNumber AND R.hotelID=B.hotelID AND B.customerID = ? AND B.bookingDate <= CAST(? AS date) AND (B.bookingDate, B.bookingID) < (CAST(? AS date), ?) ORDER BY B.bookingDate DESC, B.bookingID DESC LIMIT ?";
+         new KeysetPager(query, 4, 0, true, RECENT_PAGE_SIZE, currUID, KeysetPager.KEY_DATE, KeysetPager.KEY, KeysetPager.LIMIT).print(esql);
       }catch(Exception e){
-         System.err.println (e.getMessage ());
+         esql.err.println (e.getMessage ());
          return;
       }
    }
@@ -535,95 +1555,124 @@ public class Hotel {
    public static void updateRoomInfo(Hotel esql, String authorizedUser) {
       try {
          int currUserID = Integer.valueOf(authorizedUser);
-         //query to find user matching current user and of type manager
-         String currUserTypeQuery = String.format("SELECT * FROM USERS WHERE userID = '%s' AND userType = 'manager'", currUserID);
-         int userNum = esql.executeQuery(currUserTypeQuery);
-         //if query returns a result, it means user is a manager
-         if (userNum > 0){
+         //the session principal knows whether the user is a manager
+         if (esql.isManager(currUserID)){
             //Get user input
-            System.out.print("\tEnter Hotel ID: ");
-            String hotelID = in.readLine();
-            System.out.print("\tEnter Room Number: ");
-            String roomNumber = in.readLine();
+            esql.out.print("\tEnter Hotel ID: ");
+            String hotelID = esql.readLine();
+            esql.out.print("\tEnter Room Number: ");
+            String roomNumber = esql.readLine();
 
             //check if the current user manages the hotel that they inputted !!!
-            String managerHotelCheckQuery = String.format("SELECT * FROM HOTEL WHERE hotelID = '%s' AND managerUserID = '%s'", hotelID, currUserID);
-            int userHotel = esql.executeQuery(managerHotelCheckQuery);
-
-            //if query returns a result, it means the user manages the inputted hotel
-            if (userHotel > 0){
+            if (esql.manages(currUserID, Integer.valueOf(hotelID))){
                //ask user what part of the room they want to edit
-               System.out.print("\tWhat part of the room would you like to edit? 1. price 2. imageURL \n");
-               String userChoice = in.readLine();
+               esql.out.print("\tWhat part of the room would you like to edit? 1. price 2. imageURL \n");
+               String userChoice = esql.readLine();
 
-               System.out.print("\tWhat would you like the new value to be?\n");
-               String newValue = in.readLine();
+               esql.out.print("\tWhat would you like the new value to be?\n");
+               String newValue = esql.readLine();
 
+               //the room update and its log record are one statement, so they commit or fail together
+               String logUpdate = " RETURNING hotelID, roomNumber) INSERT INTO RoomUpdatesLog (managerID, hotelID, roomNumber, updatedOn) SELECT ?, hotelID, roomNumber, NOW() FROM updated RETURNING updateNumber";
                if (userChoice.equals("1")) {
                   //query to update room info
-                  System.out.print("\tUpdating Room Price \n");
-                  String updateRoomPriceQuery = String.format("UPDATE Rooms SET price = '%s' WHERE roomNumber = '%s'", newValue, roomNumber);
-                  esql.executeUpdate(updateRoomPriceQuery);
-
-                  //query to update room update logs
-                  String updateRoomUpdateLogsPrice = String.format("INSERT INTO RoomUpdatesLog (managerID, hotelID, roomNumber, updatedOn) VALUES ('%s', '%s', '%s', NOW())", currUserID, hotelID, roomNumber);
-                  esql.executeUpdate(updateRoomUpdateLogsPrice);
-                  System.out.println("Successfully Updated Room Price");
+                  esql.out.print("\tUpdating Room Price \n");
+                  String updateRoomPriceQuery = "WITH updated AS (UPDATE Rooms SET price = ? WHERE hotelID = ? AND roomNumber = ?" + logUpdate;
+                  int updateNumber = esql.executeUpdateAndReturnKey(updateRoomPriceQuery, Integer.valueOf(newValue), Integer.valueOf(hotelID), Integer.valueOf(roomNumber), currUserID);
+                  if (catalog != null)
+                     catalog.invalidate(Integer.valueOf(hotelID), Integer.valueOf(roomNumber));
+                  esql.out.println(updateNumber < 0 ? "This hotel has no such room" : "Successfully Updated Room Price (update number " + updateNumber + ")");
                }
                else if (userChoice.equals("2")) {
                   //query to update room info
-                  System.out.print("\tUpdating Room Image URL \n");
-                  String updateRoomImageQuery = String.format("UPDATE Rooms SET imageURL = '%s' WHERE roomNumber = '%s'", newValue, roomNumber);
-                  esql.executeUpdate(updateRoomImageQuery);
-
-                  //query to update room update logs
-                  String updateRoomUpdateLogsImage = String.format("INSERT INTO RoomUpdatesLog (managerID, hotelID, roomNumber, updatedOn) VALUES ('%s', '%s', '%s', NOW())", currUserID, hotelID, roomNumber);
-                  esql.executeUpdate(updateRoomUpdateLogsImage);
-                  System.out.println("Successfully Updated Room Image");
+                  esql.out.print("\tUpdating Room Image URL \n");
+                  String updateRoomImageQuery = "WITH updated AS (UPDATE Rooms SET imageURL = ? WHERE hotelID = ? AND roomNumber = ?" + logUpdate;
+                  int updateNumber = esql.executeUpdateAndReturnKey(updateRoomImageQuery, newValue, Integer.valueOf(hotelID), Integer.valueOf(roomNumber), currUserID);
+                  if (catalog != null)
+                     catalog.invalidate(Integer.valueOf(hotelID), Integer.valueOf(roomNumber));
+                  esql.out.println(updateNumber < 0 ? "This hotel has no such room" : "Successfully Updated Room Image (update number " + updateNumber + ")");
                }
                else{
-                  System.out.print("\tNot an option! Goodbye!");
+                  esql.out.print("\tNot an option! Goodbye!");
                   return;
                }
             }
             else{
-               System.out.print("\tYou can only update rooms of hotels that you manage.\n");
+               esql.out.print("\tYou can only update rooms of hotels that you manage.\n");
             }
          }
          //if no result, current user is not a manager
          else{
-            System.out.print("\tThis option is for MANAGERS only.\n");
+            esql.out.print("\tThis option is for MANAGERS only.\n");
             return;
          }
 
       }catch(Exception e){
-         System.err.println (e.getMessage ());
+         esql.err.println (e.getMessage ());
 	 return;
       }
    }
 
 
 
+   public static void repriceRooms(Hotel esql, String authorizedUser) {
+      try{
+         int currUserID = Integer.valueOf(authorizedUser);
+         //the session principal knows whether the user is a manager and of which hotels
+         if (esql.isManager(currUserID)){
+            esql.out.print("\tEnter Hotel ID, or 'all' for every hotel you manage: ");
+            String hotelID = esql.readLine().trim();
+            esql.out.print("\tEnter the price change in percent (for example 10 or -5): ");
+            int percent = Integer.parseInt(esql.readLine().trim());
+            if (percent <= -100){
+               esql.out.print("\tPrices cannot drop by 100% or more.\n");
+               return;
+            }
+            int[] hotels;
+            if (hotelID.equalsIgnoreCase("all"))
+               hotels = esql.getPrincipal(currUserID).getManagedHotels();
+            else if (esql.manages(currUserID, Integer.valueOf(hotelID)))
+               hotels = new int[] { Integer.valueOf(hotelID) };
+            else{
+               esql.out.print("\tYou can only update rooms of hotels that you manage.\n");
+               return;
+            }
+            int rooms = 0;
+            for (int hotel : hotels)
+               rooms += esql.repriceRooms(currUserID, hotel, percent);
+            esql.out.println("Repriced " + rooms + " rooms");
+         }
+         else{
+            esql.out.print("\tThis option is for MANAGERS only.\n");
+            return;
+         }
+      }catch(Exception e){
+         esql.err.println (e.getMessage ());
+         return;
+      }
+   }
+
+
+
    public static void viewRecentUpdates(Hotel esql, String authorizedUser) {
       try{
          int currUID = Integer.valueOf(authorizedUser);
-         //query to select user matching currently logged in user, and with manager type
-         String query = String.format("SELECT * FROM USERS WHERE userID = '%s' AND userType = 'manager'", currUID);
-         int userNum = esql.executeQuery(query);
-         //if query has result, means current user is a manger
-         if (userNum > 0){
-            //query to select the last 5 room updates
-            String query2 = String.format("SELECT * FROM RoomUpdatesLog U WHERE U.managerID='%s' ORDER BY U.updatedOn DESC LIMIT 5", currUID);
-            esql.executeQueryAndPrintResult(query2);
+         //the session principal knows whether the user is a manager
+         if (esql.isManager(currUID)){
+            //a report, read from the replica when there is one, unless it did not replay this session's updates yet
+            esql.readOnly();
+            //query to select the room updates, 5 at a time from the most recent
+            String query2 = "SELECT U.updateNumber, U.managerID, U.hotelID, U.roomNumber, U.updatedOn FROM RoomUpdatesLog U WHERE U.managerID = ? AND U.updatedOn <= CAST(? AS timestamp) AND (U.updatedOn, U.updateNumber) < (CAST(? AS timestamp), ?) ORDER BY U.updatedOn DESC, U.updateNumber DESC LIMIT ?";
+            new KeysetPager(query2, 4, 0, true, RECENT_PAGE_SIZE, currUID, KeysetPager.KEY_DATE, KeysetPager.KEY, KeysetPager.LIMIT).print(esql);
             return;
          }
          //if no result, current user is not a manager
          else{
-            System.out.print("\tThis option is for MANAGERS only.\n");
+            esql.out.print("\tThis option is for MANAGERS only.\n");
             return;
          }
       }catch(Exception e){
-         System.err.println (e.getMessage ());
+         esql.err.println (e.getMessage ());
          return;
       }
    }
@@ -633,41 +1682,57 @@ public class Hotel {
    public static void viewBookingHistoryofHotel(Hotel esql, String authorizedUser) {
       try{
          int currUID = Integer.valueOf(authorizedUser);
-         //query to select user matching currently logged in user, and with manager type
-         String query = String.format("SELECT * FROM USERS WHERE userID = '%s' AND userType = 'manager'", currUID);
-         int userNum = esql.executeQuery(query);
-         //if query has result, means current user is a manger
-         if (userNum > 0){
-            System.out.print("\tDo you wish to select a date range? (y/n): ");
-            String answer = in.readLine();
+         //the session principal knows whether the user is a manager
+         if (esql.isManager(currUID)){
+            //a report, read from the replica when there is one
+            esql.readOnly();
+            esql.out.print("\tDo you wish to select a date range? (y/n): ");
+            String answer = esql.readLine();
+            esql.out.print("\tShow 1. daily totals per hotel or 2. every booking? ");
+            boolean totals = esql.readLine().trim().equals("1");
+            if(totals && (answer.equals("n") || answer.equals("y"))){
+               //daily totals only read the HotelDailyBookings rows kept by the count_booking trigger
+               String totalsQuery = "SELECT S.hotelID, S.bookingDate, S.bookings FROM HotelDailyBookings S, Hotel H WHERE H.managerUserID = ? AND H.hotelID = S.hotelID";
+               if(answer.equals("n")){
+                  esql.executeQueryAndPrintResult(totalsQuery + " ORDER BY S.bookingDate, S.hotelID", currUID);
+                  return;
+               }
+               esql.out.print("\tPlease enter the start date (MM/DD/YYYY): ");
+               String startDate = esql.readLine();
+               esql.out.print("\tPlease enter the end date (MM/DD/YYYY): ");
+               String endDate = esql.readLine();
+               esql.executeQueryAndPrintResult(totalsQuery + " AND S.bookingDate BETWEEN CAST(? AS date) AND CAST(? AS date) ORDER BY S.bookingDate, S.hotelID", currUID, startDate, endDate);
+               return;
+            }
             if(answer.equals("n")){
-               //query to view entire booking history for all hotels manager by user
-               String query2 = String.format("SELECT B.bookingID, U.name, B.hotelID, B.roomNumber, B.bookingDate FROM RoomBookings B, Hotel H, Users U WHERE U.userID=B.customerID AND H.managerUserID='%s' AND H.hotelID=B.hotelID ORDER BY B.bookingDate", currUID);
-               esql.executeQueryAndPrintResult(query2);
+               //query to view entire booking history for all hotels manager by user, a page at a time.
+               //each hotel reads at most a page past the last booking shown from its (hotelID, bookingDate, bookingID) index
+               String query2 = "SELECT B.bookingID, U.name, B.hotelID, B.roomNumber, B.bookingDate FROM (SELECT hotelID FROM Hotel WHERE managerUserID = ?) H CROSS JOIN LATERAL (SELECT * FROM RoomBookings R WHERE R.hotelID = H.hotelID AND R.bookingDate >= CAST(? AS date) AND (R.bookingDate, R.bookingID) > (CAST(? AS date), ?) ORDER BY R.bookingDate, R.bookingID LIMIT ?) B JOIN Users U ON U.userID = B.customerID ORDER BY B.bookingDate, B.bookingID LIMIT ?";
+               new KeysetPager(query2, 4, 0, false, PAGE_SIZE, currUID, KeysetPager.KEY_DATE, KeysetPager.KEY, KeysetPager.LIMIT, KeysetPager.LIMIT).print(esql);
                return;
             }
             else if (answer.equals("y")){
-               System.out.print("\tPlease enter the start date (MM/DD/YYYY): ");
-               String startDate = in.readLine();
-               System.out.print("\tPlease enter the end date (MM/DD/YYYY): ");
-               String endDate = in.readLine();
-               //query to view booking history for 
-               String query3 = String.format("SELECT B.bookingID, U.name, B.hotelID, B.roomNumber, B.bookingDate FROM RoomBookings B, Hotel H, Users U WHERE U.userID=B.customerID AND H.managerUserID='%s' AND H.hotelID=B.hotelID AND B.bookingDate BETWEEN '%s' AND '%s' ORDER BY B.bookingDate", currUID, startDate, endDate);
-               esql.executeQueryAndPrintResult(query3);
+               esql.out.print("\tPlease enter the start date (MM/DD/YYYY): ");
+               String startDate = esql.readLine();
+               esql.out.print("\tPlease enter the end date (MM/DD/YYYY): ");
+               String endDate = esql.readLine();
+               //query to view booking history for the date range, a page at a time
+               String query3 = "SELECT B.bookingID, U.name, B.hotelID, B.roomNumber, B.bookingDate FROM (SELECT hotelID FROM Hotel WHERE managerUserID = ?) H CROSS JOIN LATERAL (SELECT * FROM RoomBookings R WHERE R.hotelID = H.hotelID AND R.bookingDate BETWEEN CAST(? AS date) AND CAST(? AS date) AND (R.bookingDate, R.bookingID) > (CAST(? AS date), ?) ORDER BY R.bookingDate, R.bookingID LIMIT ?) B JOIN Users U ON U.userID = B.customerID ORDER BY B.bookingDate, B.bookingID LIMIT ?";
+               new KeysetPager(query3, 4, 0, false, PAGE_SIZE, currUID, startDate, endDate, KeysetPager.KEY, KeysetPager.LIMIT, KeysetPager.LIMIT).print(esql);
             }
             else{
-               System.out.print("\tNot an option! Goodbye!");
+               esql.out.print("\tNot an option! Goodbye!");
                return;
             }
 
          }
          //if no result, current user is not a manager
          else{
-            System.out.print("\tThis option is for MANAGERS only.\n");
+            esql.out.print("\tThis option is for MANAGERS only.\n");
             return;
          }
       }catch(Exception e){
-         System.err.println (e.getMessage ());
+         esql.err.println (e.getMessage ());
          return;
       }
    }
@@ -680,32 +1745,31 @@ public class Hotel {
       try{
          int currUID = Integer.valueOf(authorizedUser);
          //check for manager
-         String query = String.format("SELECT * FROM USERS WHERE userID = '%s' AND userType = 'manager'", currUID);
-         int userNum = esql.executeQuery(query);
-         if (userNum > 0){
-            System.out.print("\tEnter HotelID: ");
-            String userHotelID = in.readLine();
-            //Select records from Hotel relation under your management and with provided hotelID
-            String query2 = String.format("SELECT * FROM Hotel H WHERE H.hotelID='%s' AND H.managerUserID='%s'", userHotelID, currUID);
-            int hotelNum = esql.executeQuery(query2);
-            if (hotelNum > 0){
-               //by top 5 customers by number of bookings
-               String query3 = String.format("SELECT customerID, COUNT(*) AS Bookings FROM RoomBookings WHERE hotelID='%s' GROUP BY customerID ORDER BY Bookings DESC LIMIT 5", userHotelID);
-               esql.executeQueryAndPrintResult(query3);
+         if (esql.isManager(currUID)){
+            esql.out.print("\tEnter HotelID: ");
+            String userHotelID = esql.readLine();
+            //the hotel has to be under your management
+            Integer hotel = Integer.valueOf(userHotelID);
+            if (esql.manages(currUID, hotel)){
+               //a report, read from the replica when there is one
+               esql.readOnly();
+               //by top 5 customers by number of bookings, counted by the count_booking trigger
+               String query3 = "SELECT customerID, bookings FROM CustomerBookingCounts WHERE hotelID = ? ORDER BY bookings DESC, customerID LIMIT 5";
+               esql.executeQueryAndPrintResult(query3, hotel);
             }
             else{
-               System.out.print("\t\tFound no hotel with this hotelID under your management.\n");
+               esql.out.print("\t\tFound no hotel with this hotelID under your management.\n");
                return;
             }
 
             return;
          }
          else{
-            System.out.print("\tThis option is for MANAGERS only.\n");
+            esql.out.print("\tThis option is for MANAGERS only.\n");
             return;
          }
       }catch(Exception e){
-         System.err.println (e.getMessage ());
+         esql.err.println (e.getMessage ());
          return;
       }
    }
@@ -718,53 +1782,109 @@ public class Hotel {
       try{
 	      //check to see if current user is manager
          int currUserID = Integer.valueOf(authorizedUser);
-         String query = String.format("SELECT * FROM USERS WHERE userID = '%s' AND userType = 'manager'", currUserID);
-         int userNum = esql.executeQuery(query);
-	      //if there is a result, that means the user is a manager
-         if (userNum > 0){
+	      //the session principal knows whether the user is a manager
+         if (esql.isManager(currUserID)){
             //inputs for hotelID, roomNumber, and companyID of repair company
-            System.out.print("\tPlease enter the following information for your Room Repair Request: \n");
-            System.out.print("\tHotelID: ");
-            String hotelID = in.readLine();
-	         System.out.print("\tRoom Number: ");
-            String roomNumber = in.readLine();
-	         System.out.print("\tCompany ID of maintenance company: ");
-            String companyID = in.readLine();
-
-	         //make sure User MANAGES HotelID from input -- NEW
-            String managerHotelCheckQuery = String.format("SELECT * FROM HOTEL WHERE hotelID = '%s' AND managerUserID = '%s'", hotelID, currUserID);
-            int userHotel = esql.executeQuery(managerHotelCheckQuery);
-
-            //if query returns a result, it means the user manages the inputted hotel -- NEW
-            if(userHotel > 0) {
-
-	            //update RoomRepairs table
-	            String roomRepairRequestQuery = String.format("INSERT INTO RoomRepairs (companyID, hotelID, roomNumber, repairDate) VALUES ('%s', '%s', '%s', CURRENT_DATE)", companyID, hotelID, roomNumber);
-               esql.executeUpdate(roomRepairRequestQuery);
-
-	            //Get lastest repairID
-               int repairID = esql.getCurrSeqVal("RoomRepairs_repairID_seq");
-
-	            //update RoomRepairRequests table
-               String roomRepairsRequestInsertQuery = String.format("INSERT INTO RoomRepairRequests (managerID, repairID) VALUES ('%s', '%s')", currUserID, repairID);
-	            esql.executeUpdate(roomRepairsRequestInsertQuery);
-	            System.out.print("\tSuccessfully placed Room Repair Request!\n");
-            }
-	         else{
-               System.out.print("\tYou can only update rooms of hotels that you manage.\n");
+            esql.out.print("\tPlease enter the following information for your Room Repair Request: \n");
+            esql.out.print("\tHotelID (several separated by commas, or 'all' for every hotel you manage): ");
+            String hotelID = esql.readLine().trim();
+	         esql.out.print("\tRoom Number (several separated by commas, or a range like 101-150): ");
+            String roomNumber = esql.readLine().trim();
+	         esql.out.print("\tCompany ID of maintenance company: ");
+            int companyID = Integer.parseInt(esql.readLine().trim());
+
+            int[] hotels;
+            if (hotelID.equalsIgnoreCase("all"))
+               hotels = esql.getPrincipal(currUserID).getManagedHotels();
+            else
+               hotels = parseNumbers(hotelID);
+            int[] rooms = parseNumbers(roomNumber);
+
+	         //make sure User MANAGES every HotelID from input
+            for (int hotel : hotels){
+               if (!esql.manages(currUserID, hotel)){
+                  esql.out.print("\tYou can only update rooms of hotels that you manage.\n");
+                  return;
+               }
             }
 
+            if (hotels.length == 1 && rooms.length == 1){
+               //the repair and its request in one statement
+               int repairID = esql.placeRepairRequest(currUserID, companyID, hotels[0], rooms[0]);
+               if (repairID < 0)
+                  esql.out.print("\tThis hotel has no such room.\n");
+               else
+                  esql.out.print("\tSuccessfully placed Room Repair Request! (repairID = " + repairID + ")\n");
+               return;
+            }
+            if ((long) hotels.length * rooms.length > MAX_REPAIR_BATCH){
+               esql.out.print("\tAt most " + MAX_REPAIR_BATCH + " rooms can be requested at once.\n");
+               return;
+            }
+            //every room of every hotel in one batch
+            List<int[]> batch = new ArrayList<int[]>(hotels.length * rooms.length);
+            for (int hotel : hotels)
+               for (int room : rooms)
+                  batch.add(new int[] { hotel, room });
+            int[] repairIDs = esql.placeRepairRequests(currUserID, companyID, batch);
+            esql.out.print("\tSuccessfully placed " + repairIDs.length + " Room Repair Requests!" +
+                           (repairIDs.length < batch.size() ? " " + (batch.size() - repairIDs.length) + " rooms do not exist." : "") + "\n");
+            if (repairIDs.length > 0)
+               esql.out.print("\trepairIDs: " + formatRanges(repairIDs) + "\n");
             return;
          }
          else{
-            System.out.print("\tThis option is for MANAGERS only.\n");
+            esql.out.print("\tThis option is for MANAGERS only.\n");
             return;
          }
       }catch(Exception e){
-         System.err.println (e.getMessage ());
+         esql.err.println (e.getMessage ());
          return;
       }
    }
+
+   /*
+    * Writes increasing numbers as ranges, like 101-150, 163
+    **/
+   private static String formatRanges(int[] numbers) {
+      StringBuilder sb = new StringBuilder();
+      for (int i = 0; i < numbers.length; ++i){
+         int first = numbers[i];
+         while (i + 1 < numbers.length && numbers[i + 1] == numbers[i] + 1)
+            ++i;
+         if (sb.length() > 0)
+            sb.append(", ");
+         sb.append(first);
+         if (numbers[i] != first)
+            sb.append('-').append(numbers[i]);
+      }
+      return sb.toString();
+   }//end formatRanges
+
+   /*
+    * Reads numbers separated by commas, and ranges like 101-150
+    **/
+   private static int[] parseNumbers(String list) {
+      List<Integer> numbers = new ArrayList<Integer>();
+      for (String part : list.split(",")){
+         part = part.trim();
+         int dash = part.indexOf('-', 1);
+         if (dash < 0){
+            numbers.add(Integer.valueOf(part));
+            continue;
+         }
+         int first = Integer.parseInt(part.substring(0, dash).trim());
+         int last = Integer.parseInt(part.substring(dash + 1).trim());
+         if (last - first >= MAX_REPAIR_BATCH)
+            throw new IllegalArgumentException("At most " + MAX_REPAIR_BATCH + " rooms can be requested at once.");
+         for (int n = first; n <= last; ++n)
+            numbers.add(n);
+      }
+      int[] result = new int[numbers.size()];
+      for (int i = 0; i < result.length; ++i)
+         result[i] = numbers.get(i);
+      return result;
+   }//end parseNumbers
    //==========END NEW FUNCTION ADDED BY VINCENT==========//
 
 
@@ -773,19 +1893,20 @@ public class Hotel {
    public static void viewRoomRepairHistory(Hotel esql, String authorizedUser) {
       try{
          int currUID = Integer.valueOf(authorizedUser);
-         String query = String.format("SELECT * FROM USERS WHERE userID = '%s' AND userType = 'manager'", currUID);
-         int userNum = esql.executeQuery(query);
-         if (userNum > 0){
-            String query2 = String.format("SELECT R.companyID, R.hotelID, R.roomNumber, R.repairDate FROM RoomRepairs R, Hotel H WHERE R.hotelID=H.hotelID AND H.managerUserID='%s'", currUID);
-            esql.executeQueryAndPrintResult(query2);
+         if (esql.isManager(currUID)){
+            //a report, read from the replica when there is one
+            esql.readOnly();
+            //repairs of the hotels managed by the user, a page at a time from the most recent
+            String query2 = "SELECT R.repairID, R.companyID, R.hotelID, R.roomNumber, R.repairDate FROM (SELECT hotelID FROM Hotel WHERE managerUserID = ?) H CROSS JOIN LATERAL (SELECT * FROM RoomRepairs P WHERE P.hotelID = H.hotelID AND (P.repairDate, P.repairID) < (CAST(? AS date), ?) ORDER BY P.repairDate DESC, P.repairID DESC LIMIT ?) R ORDER BY R.repairDate DESC, R.repairID DESC LIMIT ?";
+            new KeysetPager(query2, 4, 0, true, PAGE_SIZE, currUID, KeysetPager.KEY, KeysetPager.LIMIT, KeysetPager.LIMIT).print(esql);
             return;
          }
          else{
-            System.out.print("\tThis option is for MANAGERS only.\n");
+            esql.out.print("\tThis option is for MANAGERS only.\n");
             return;
          }
       }catch(Exception e){
-         System.err.println (e.getMessage ());
+         esql.err.println (e.getMessage ());
          return;
       }
    }
@@ -0,0 +1,739 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.io.BufferedReader;
+import java.io.FileWriter;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.io.StringReader;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * This class benchmarks the menu actions against a running database, for
+ * instance one filled by DataGenerator. Every operation runs the same
+ * static action method the menus call, on a session fed with generated
+ * input lines and with its output thrown away, so the numbers include the
+ * queries, the statement cache, the pool and the result printing.
+ *
+ * Each operation is warmed up, then run for a fixed time on a number of
+ * threads. For each one the throughput and the latency percentiles are
+ * printed, and optionally written to a CSV file to compare runs. An
+ * operation that throws, or whose action prints an error message, is
+ * counted as an error instead, and left out of the throughput and the
+ * latencies.
+ *
+ * The booking operations write to RoomBookings, repricing to Rooms and
+ * RoomUpdatesLog, and the repair requests to RoomRepairs and
+ * RoomRepairRequests, so run them on a scratch database.
+ *
+ * After the runs, checkNearestHotels() compares the nearest hotels the
+ * location index finds with the ones the database finds,
+ * checkDoubleBooking() books the same room on the same night from many
+ * threads at once, and checks that exactly one of them got it, and
+ * checkDuplicateBookings() checks that no room is booked twice on a
+ * night. The program exits with status 1 when a check fails.
+ *
+ * Settings are read from system properties:
+ *   hotel.bench.threads   threads running an operation at the same time
+ *   hotel.bench.warmup    seconds of warmup per operation
+ *   hotel.bench.seconds   seconds measured per operation
+ *   hotel.bench.seed      seed of the generated inputs
+ *   hotel.bench.out       CSV file the results are appended to
+ *   hotel.bench.password  password of the customers whose password is hashed
+ *   hotel.bench.verify    false to skip the checks after the runs
+ *   hotel.bench.race.threads  threads booking the same room night
+ *   hotel.bench.race.rounds   room nights booked by those threads
+ *
+ */
+public class HotelBenchmark {
+
+   public static final int DEFAULT_THREADS = 1;
+   public static final int DEFAULT_WARMUP_SECONDS = 3;
+   public static final int DEFAULT_SECONDS = 10;
+   public static final int DEFAULT_RACE_THREADS = 8;
+   public static final int DEFAULT_RACE_ROUNDS = 20;
+
+   // the contended booking operation fights over this many nights
+   private static final int HOT_NIGHTS = 30;
+
+   private static final int FIRST_DAY = RoomOccupancy.day(2000, 1, 1);
+   private static final int LAST_DAY = RoomOccupancy.day(2024, 12, 31);
+
+   // the nights checkDoubleBooking() frees and books, after the contended ones
+   private static final int RACE_FIRST_DAY = LAST_DAY + HOT_NIGHTS + 1;
+
+   /*
+    * One benchmarked action, which types its input into a session
+    **/
+   private abstract class Operation {
+      final String name;
+
+      Operation(String name) {
+         this.name = name;
+      }
+
+      abstract void run(Session session, Random random) throws Exception;
+   }//end Operation
+
+   /*
+    * The sessions of one thread, their output is thrown away and their
+    * error messages counted
+    **/
+   private class Session {
+      private final PrintStream _out = new PrintStream (new OutputStream () {
+         public void write(int b) {}
+         public void write(byte[] b, int off, int len) {}
+      });
+      private long _errorBytes = 0;
+      private final PrintStream _err = new PrintStream (new OutputStream () {
+         public void write(int b) { ++_errorBytes; }
+         public void write(byte[] b, int off, int len) { _errorBytes += len; }
+      });
+      private Hotel _esql = null;
+
+      // a new session reading the given lines
+      Hotel typing(String input) {
+         this._esql = new Hotel (_pool, new BufferedReader (new StringReader (input)), this._out, this._err);
+         return this._esql;
+      }
+
+      // true when an action printed an error message since the last release
+      boolean failed() {
+         this._err.flush ();
+         return this._errorBytes > 0;
+      }
+
+      void release() {
+         if (this._esql != null)
+            this._esql.releaseConnection ();
+         this._esql = null;
+         this._errorBytes = 0;
+      }
+   }//end Session
+
+   /*
+    * Latencies of one thread, in nanoseconds, and its failed operations
+    **/
+   private static class Latencies {
+      long[] values = new long[1024];
+      int size = 0;
+      int errors = 0;
+
+      void add(long value) {
+         if (size == values.length)
+            values = Arrays.copyOf(values, size * 2);
+         values[size++] = value;
+      }
+   }//end Latencies
+
+   private final HotelConnectionPool _pool;
+   private final Map<String, Operation> _operations = new LinkedHashMap<String, Operation>();
+
+   // sample of the data set, read once before the runs
+   private final List<String[]> _customers = new ArrayList<String[]>();
+   private final List<int[]> _hotels = new ArrayList<int[]>();
+   private int _hotHotel = 0, _hotRooms = 1;
+
+   public HotelBenchmark(HotelConnectionPool pool) {
+      this._pool = pool;
+      addOperations ();
+   }//end HotelBenchmark
+
+   /**
+    * @return the names of all operations, in the order they run
+    */
+   public List<String> getOperations() {
+      return new ArrayList<String>(this._operations.keySet ());
+   }//end getOperations
+
+   /**
+    * Reads a sample of customers, hotels and their managers to build the
+    * inputs from.
+    *
+    * @throws java.lang.Exception when the sample cannot be read
+    */
+   public void sample() throws Exception {
+      Hotel esql = new Hotel (this._pool, null, System.out);
+      try{
+         TypedResult customers = esql.executeQueryAndReturnTypedResult (
+            "SELECT userID, password FROM Users WHERE userType = 'customer' ORDER BY userID LIMIT 10000");
+         for (int r = 0; r < customers.getRowCount (); ++r)
+            this._customers.add (new String[] { customers.getString (r, 0), password (customers.getString (r, 1).trim ()) });
+         TypedResult hotels = esql.executeQueryAndReturnTypedResult (
+            "SELECT H.hotelID, H.managerUserID, MAX(R.roomNumber) FROM Hotel H, Rooms R " +
+            "WHERE R.hotelID = H.hotelID GROUP BY H.hotelID, H.managerUserID ORDER BY H.hotelID");
+         for (int r = 0; r < hotels.getRowCount (); ++r)
+            this._hotels.add (new int[] { hotels.getInt (r, 0), hotels.getInt (r, 1), hotels.getInt (r, 2) });
+         // the most booked hotel is where bookings collide
+         TypedResult hot = esql.executeQueryAndReturnTypedResult (
+            "SELECT B.hotelID, MAX(B.roomNumber) FROM RoomBookings B GROUP BY B.hotelID ORDER BY COUNT(*) DESC LIMIT 1");
+         if (hot.getRowCount () > 0){
+            this._hotHotel = hot.getInt (0, 0);
+            this._hotRooms = hot.getInt (0, 1);
+         }
+      }finally{
+         esql.releaseConnection ();
+      }
+      if (this._customers.isEmpty () || this._hotels.isEmpty ())
+         throw new IllegalStateException ("The database has no customers or no hotels with rooms");
+      if (this._hotHotel == 0){
+         this._hotHotel = this._hotels.get (0)[0];
+         this._hotRooms = this._hotels.get (0)[2];
+      }
+   }//end sample
+
+   /**
+    * Warms up and measures one operation, and prints its results.
+    *
+    * @param name the operation
+    * @param threads the number of threads running it
+    * @param warmupSeconds seconds run before measuring
+    * @param seconds seconds measured
+    * @param seed seed of the generated inputs
+    * @param csv where the results are appended, or null
+    */
+   public void run(String name, int threads, int warmupSeconds, int seconds, long seed, PrintWriter csv) throws InterruptedException {
+      Operation operation = this._operations.get (name);
+      if (operation == null)
+         throw new IllegalArgumentException ("Unknown operation " + name + ", expected one of " + getOperations ());
+      measure (operation, threads, warmupSeconds, seed, null);
+      Latencies[] latencies = new Latencies[threads];
+      long elapsed = measure (operation, threads, seconds, seed + 1, latencies);
+
+      int count = 0, errors = 0;
+      for (Latencies thread : latencies){
+         count += thread.size;
+         errors += thread.errors;
+      }
+      long[] all = new long[count];
+      int at = 0;
+      for (Latencies thread : latencies){
+         System.arraycopy (thread.values, 0, all, at, thread.size);
+         at += thread.size;
+      }
+      Arrays.sort (all);
+      double total = 0;
+      for (long value : all)
+         total += value;
+
+      double opsPerSecond = count / (elapsed / 1e9);
+      double mean = count == 0 ? 0 : total / count / 1e6;
+      System.out.println (String.format ("%-20s %8d %8d %10.1f %9.3f %9.3f %9.3f %9.3f %9.3f %9.3f",
+                                         name, count, errors, opsPerSecond, mean,
+                                         percentile (all, 50), percentile (all, 90), percentile (all, 99),
+                                         percentile (all, 99.9), percentile (all, 100)));
+      if (csv != null){
+         // errors come last, so the columns of older runs keep their place
+         csv.println (String.format (Locale.ROOT, "%s,%d,%d,%.1f,%.3f,%.3f,%.3f,%.3f,%.3f,%.3f,%d",
+                                     name, threads, count, opsPerSecond, mean,
+                                     percentile (all, 50), percentile (all, 90), percentile (all, 99),
+                                     percentile (all, 99.9), percentile (all, 100), errors));
+         csv.flush ();
+      }
+   }//end run
+
+   /**
+    * Runs one operation once on the calling thread, for tools that watch
+    * the statements it runs.
+    *
+    * @param name the operation
+    * @param seed seed of the generated input
+    * @throws java.lang.Exception when the operation fails
+    */
+   public void runOnce(String name, long seed) throws Exception {
+      Operation operation = this._operations.get (name);
+      if (operation == null)
+         throw new IllegalArgumentException ("Unknown operation " + name + ", expected one of " + getOperations ());
+      Session session = new Session ();
+      try{
+         operation.run (session, new Random (seed));
+      }finally{
+         session.release ();
+      }
+   }//end runOnce
+
+   /**
+    * Compares the nearest hotels the in-memory location index finds with
+    * the ones the database finds, from the middle of the hotels, from just
+    * outside each side of them and from far outside, where the index has
+    * to widen its search across the empty space first.
+    *
+    * @param count the hotels asked for from each location
+    * @return true when both found the same number of hotels at the same
+    *         distances from every location
+    * @throws java.lang.Exception when the database cannot be read
+    */
+   public boolean checkNearestHotels(int count) throws Exception {
+      int differ = 0;
+      double[][] points;
+      Hotel esql = new Hotel (this._pool, null, System.out);
+      try{
+         TypedResult box = esql.executeQueryAndReturnTypedResult (
+            "SELECT MIN(latitude), MAX(latitude), MIN(longitude), MAX(longitude) FROM Hotel");
+         if (box.getRowCount () == 0 || box.isNull (0, 0))
+            return true;
+         double minLat = box.getDouble (0, 0), maxLat = box.getDouble (0, 1);
+         double minLong = box.getDouble (0, 2), maxLong = box.getDouble (0, 3);
+         double midLat = (minLat + maxLat) / 2, midLong = (minLong + maxLong) / 2;
+         double far = 3 * Math.max (maxLat - minLat, maxLong - minLong) + 100;
+         points = new double[][] {
+            { midLat, midLong },
+            { minLat - 1, midLong }, { maxLat + 1, midLong }, { midLat, minLong - 1 }, { midLat, maxLong + 1 },
+            { minLat - far, minLong - far }, { maxLat + far, maxLong + far }, { midLat, maxLong + far }
+         };
+         for (double[] point : points){
+            List<String[]> fromIndex = Hotel.locations.within (point[0], point[1], Integer.MAX_VALUE, count);
+            TypedResult fromDatabase = esql.executeQueryAndReturnTypedResult (
+               "SELECT H.latitude, H.longitude FROM Hotel H WHERE H.latitude IS NOT NULL AND H.longitude IS NOT NULL " +
+               "ORDER BY point(H.latitude, H.longitude) <-> point(?, ?) LIMIT ?", point[0], point[1], count);
+            boolean same = fromIndex.size () == fromDatabase.getRowCount ();
+            for (int i = 0; same && i < fromIndex.size (); ++i){
+               String[] hotel = fromIndex.get (i);
+               double indexed = Hotel.calculateDistance (point[0], point[1],
+                                                         Double.parseDouble (hotel[2].trim ()), Double.parseDouble (hotel[3].trim ()));
+               double stored = Hotel.calculateDistance (point[0], point[1], fromDatabase.getDouble (i, 0), fromDatabase.getDouble (i, 1));
+               same = Math.abs (indexed - stored) <= 1e-6 * Math.max (1, stored);
+            }
+            if (!same){
+               ++differ;
+               System.out.println (String.format (Locale.ROOT, "From (%.2f, %.2f) the index found %d hotels, the database %d, not at the same distances",
+                                                  point[0], point[1], fromIndex.size (), fromDatabase.getRowCount ()));
+            }
+         }
+      }finally{
+         esql.releaseConnection ();
+      }
+      System.out.println (String.format ("%-20s %d locations, %d nearest hotels each: %d differ from the database",
+                                         "nearest hotels", points.length, count, differ));
+      return differ == 0;
+   }//end checkNearestHotels
+
+   /**
+    * Books the same room on the same night from many threads at once, for
+    * a number of nights, with the single statement booking of
+    * Hotel.bookRoom() and with the check, insert and price queries
+    * bookRooms ran before it, and prints how each way ended. Each night
+    * is freed before it is booked.
+    *
+    * @param threads the threads booking the same night
+    * @param rounds the nights booked
+    * @return true when every night was booked exactly once with
+    *         Hotel.bookRoom(), and by the only thread told it got it
+    * @throws java.lang.Exception when a night cannot be freed or counted
+    */
+   public boolean checkDoubleBooking(int threads, int rounds) throws Exception {
+      boolean atomic = race ("single statement", threads, rounds, true);
+      // the old way is only reported, the unique constraint turns its
+      // double bookings into errors
+      race ("three queries", threads, rounds, false);
+      return atomic;
+   }//end checkDoubleBooking
+
+   /*
+    * Runs the booking race of checkDoubleBooking() with one way of booking
+    *
+    * @return true when every night ended with one row and one booking
+    **/
+   private boolean race(String name, int threads, int rounds, final boolean atomic) throws Exception {
+      final int hotel = this._hotHotel;
+      final AtomicInteger booked = new AtomicInteger ();
+      final AtomicInteger taken = new AtomicInteger ();
+      final AtomicInteger errors = new AtomicInteger ();
+      int rows = 0, wrong = 0;
+      Hotel esql = new Hotel (this._pool, null, System.out);
+      try{
+         for (int r = 0; r < rounds; ++r){
+            final int room = 1 + r % this._hotRooms;
+            final String night = DataGenerator.date (RACE_FIRST_DAY + r);
+            esql.executeUpdate (
+               "DELETE FROM RoomBookings WHERE hotelID = ? AND roomNumber = ? AND bookingDate = CAST(? AS date)",
+               hotel, room, night);
+            esql.releaseConnection ();
+
+            int bookedBefore = booked.get ();
+            final CountDownLatch start = new CountDownLatch (1);
+            Thread[] workers = new Thread[threads];
+            for (int t = 0; t < threads; ++t){
+               final int customer = Integer.parseInt (this._customers.get (t % this._customers.size ())[0]);
+               workers[t] = new Thread (new Runnable () {
+                  public void run() {
+                     Hotel session = new Session ().typing ("");
+                     try{
+                        start.await ();
+                        boolean got = atomic
+                           ? session.bookRoom (customer, hotel, room, night).getStatus () == BookingResult.Status.BOOKED
+                           : bookInThreeQueries (session, customer, hotel, room, night);
+                        (got ? booked : taken).incrementAndGet ();
+                     }catch (Exception e){
+                        errors.incrementAndGet ();
+                     }finally{
+                        session.releaseConnection ();
+                     }
+                  }
+               }, "bench-race-" + t);
+               workers[t].start ();
+            }
+            start.countDown ();
+            for (Thread worker : workers)
+               worker.join ();
+
+            int nightRows = esql.executeQuery (
+               "SELECT bookingID FROM RoomBookings WHERE hotelID = ? AND roomNumber = ? AND bookingDate = CAST(? AS date)",
+               hotel, room, night);
+            esql.releaseConnection ();
+            rows += nightRows;
+            if (nightRows != 1 || booked.get () - bookedBefore != 1)
+               ++wrong;
+         }
+      }finally{
+         esql.releaseConnection ();
+      }
+      System.out.println (String.format ("%-20s %d nights, %d threads each: %d rows, %d booked, %d taken, %d errors, %d nights not booked exactly once",
+                                         name, rounds, threads, rows, booked.get (), taken.get (), errors.get (), wrong));
+      return wrong == 0;
+   }//end race
+
+   /**
+    * Checks that no room is booked twice on the same night, after the
+    * booking operations and checks ran.
+    *
+    * @return true when RoomBookings has no two rows for one room night
+    * @throws java.lang.Exception when RoomBookings cannot be read
+    */
+   public boolean checkDuplicateBookings() throws Exception {
+      Hotel esql = new Hotel (this._pool, null, System.out);
+      int duplicates;
+      try{
+         duplicates = esql.executeQuery (
+            "SELECT hotelID, roomNumber, bookingDate FROM RoomBookings " +
+            "GROUP BY hotelID, roomNumber, bookingDate HAVING COUNT(*) > 1");
+      }finally{
+         esql.releaseConnection ();
+      }
+      System.out.println (String.format ("%-20s %d room nights booked more than once", "duplicate bookings", duplicates));
+      return duplicates == 0;
+   }//end checkDuplicateBookings
+
+   /*
+    * Books a room the way bookRooms did before Hotel.bookRoom(): checks
+    * that the night is free, inserts the booking, then reads the price.
+    * Two sessions can both find the night free.
+    *
+    * @return false when the night was taken
+    **/
+   private static boolean bookInThreeQueries(Hotel esql, int customerID, int hotelID, int roomNumber, String night) throws SQLException {
+      if (esql.executeQuery ("SELECT * FROM RoomBookings B WHERE B.hotelID = ? AND B.roomNumber = ? AND B.bookingDate = CAST(? AS date)",
+                             hotelID, roomNumber, night) > 0)
+         return false;
+      esql.executeUpdate ("INSERT INTO RoomBookings (customerID, hotelID, roomNumber, bookingDate) VALUES (?, ?, ?, CAST(? AS date))",
+                          customerID, hotelID, roomNumber, night);
+      esql.executeQueryAndReturnResult ("SELECT R.price FROM Rooms R WHERE R.hotelID = ? AND R.roomNumber = ?", hotelID, roomNumber);
+      return true;
+   }//end bookInThreeQueries
+
+   public static void printHeader() {
+      System.out.println (String.format ("%-20s %8s %8s %10s %9s %9s %9s %9s %9s %9s",
+                                         "operation", "ops", "errors", "ops/s", "mean ms", "p50 ms", "p90 ms",
+                                         "p99 ms", "p99.9 ms", "max ms"));
+   }//end printHeader
+
+   /*
+    * Runs an operation on a number of threads for some seconds, recording
+    * latencies and errors when given somewhere to keep them
+    *
+    * @return the nanoseconds the threads ran
+    **/
+   private long measure(final Operation operation, int threads, final int seconds, long seed, final Latencies[] latencies) throws InterruptedException {
+      final CountDownLatch start = new CountDownLatch (1);
+      final CountDownLatch done = new CountDownLatch (threads);
+      Thread[] workers = new Thread[threads];
+      for (int t = 0; t < threads; ++t){
+         final int thread = t;
+         final Random random = new Random (seed * 31 + t);
+         if (latencies != null)
+            latencies[t] = new Latencies ();
+         workers[t] = new Thread (new Runnable () {
+            public void run() {
+               Session session = new Session ();
+               try{
+                  start.await ();
+                  long end = System.nanoTime () + seconds * 1000000000L;
+                  while (System.nanoTime () < end) {
+                     long begin = System.nanoTime ();
+                     boolean failed = true;
+                     try{
+                        operation.run (session, random);
+                        failed = session.failed ();
+                     }catch (Exception e){
+                        System.err.println (operation.name + ": " + e.getMessage ());
+                     }finally{
+                        session.release ();
+                     }
+                     if (latencies == null)
+                        continue;
+                     if (failed)
+                        ++latencies[thread].errors;
+                     else
+                        latencies[thread].add (System.nanoTime () - begin);
+                  }
+               }catch (InterruptedException e){
+                  // stop early.
+               }finally{
+                  done.countDown ();
+               }
+            }
+         }, "bench-" + operation.name + "-" + t);
+         workers[t].start ();
+      }
+      long begin = System.nanoTime ();
+      start.countDown ();
+      done.await ();
+      return System.nanoTime () - begin;
+   }//end measure
+
+   private static double percentile(long[] sorted, double percent) {
+      if (sorted.length == 0)
+         return 0;
+      int index = (int) Math.ceil (percent / 100 * sorted.length) - 1;
+      return sorted[Math.max (0, Math.min (index, sorted.length - 1))] / 1e6;
+   }//end percentile
+
+   private String[] customer(Random random) {
+      return this._customers.get (random.nextInt (this._customers.size ()));
+   }//end customer
+
+   // a hashed password is not the password, use the one DataGenerator writes
+   private static String password(String stored) {
+      return PasswordHash.isHash (stored) ? System.getProperty ("hotel.bench.password", "xyz") : stored;
+   }//end password
+
+   private int[] hotel(Random random) {
+      return this._hotels.get (random.nextInt (this._hotels.size ()));
+   }//end hotel
+
+   private static String date(Random random) {
+      return DataGenerator.date (FIRST_DAY + random.nextInt (LAST_DAY - FIRST_DAY + 1));
+   }//end date
+
+   private static String coordinate(Random random) {
+      return Integer.toString (random.nextInt (100));
+   }//end coordinate
+
+   private void addOperations() {
+      add (new Operation ("login") {
+         void run(Session session, Random random) {
+            String[] user = customer (random);
+            Hotel.LogIn (session.typing (user[0] + "\n" + user[1] + "\n"));
+         }
+      });
+      // a new session reads the principal, later checks use the one it holds
+      add (new Operation ("manager-check") {
+         void run(Session session, Random random) throws Exception {
+            session.typing ("").isManager (hotel (random)[1]);
+         }
+      });
+      add (new Operation ("hotels-within") {
+         void run(Session session, Random random) {
+            Hotel.viewHotels (session.typing (coordinate (random) + "\n" + coordinate (random) + "\n"));
+         }
+      });
+      add (new Operation ("nearest-hotels") {
+         void run(Session session, Random random) {
+            Hotel.viewNearestHotels (session.typing (coordinate (random) + "\n" + coordinate (random) + "\n10\n\n"));
+         }
+      });
+      add (new Operation ("room-availability") {
+         void run(Session session, Random random) {
+            Hotel.viewRooms (session.typing (hotel (random)[0] + "\n" + date (random) + "\n\n"));
+         }
+      });
+      add (new Operation ("booking") {
+         void run(Session session, Random random) {
+            int[] hotel = hotel (random);
+            String input = hotel[0] + "\n" + (1 + random.nextInt (hotel[2])) + "\n" + date (random) + "\n";
+            Hotel.bookRooms (session.typing (input), customer (random)[0]);
+         }
+      });
+      // every thread books the same few rooms and nights, after the
+      // generated ones, so most attempts conflict with another thread
+      add (new Operation ("booking-contended") {
+         void run(Session session, Random random) {
+            String input = _hotHotel + "\n" + (1 + random.nextInt (_hotRooms)) + "\n" +
+                           DataGenerator.date (LAST_DAY + 1 + random.nextInt (HOT_NIGHTS)) + "\n";
+            Hotel.bookRooms (session.typing (input), customer (random)[0]);
+         }
+      });
+      // the same bookings with the check, insert and price queries
+      // bookRooms ran before Hotel.bookRoom, to compare with the two above
+      add (new Operation ("booking-3-queries") {
+         void run(Session session, Random random) throws Exception {
+            int[] hotel = hotel (random);
+            bookInThreeQueries (session.typing (""), Integer.parseInt (customer (random)[0]),
+                                hotel[0], 1 + random.nextInt (hotel[2]), date (random));
+         }
+      });
+      add (new Operation ("contended-3-queries") {
+         void run(Session session, Random random) throws Exception {
+            bookInThreeQueries (session.typing (""), Integer.parseInt (customer (random)[0]), _hotHotel,
+                                1 + random.nextInt (_hotRooms), DataGenerator.date (LAST_DAY + 1 + random.nextInt (HOT_NIGHTS)));
+         }
+      });
+      add (new Operation ("recent-bookings") {
+         void run(Session session, Random random) {
+            Hotel.viewRecentBookingsfromCustomer (session.typing ("n\n"), customer (random)[0]);
+         }
+      });
+      add (new Operation ("booking-history") {
+         void run(Session session, Random random) {
+            int from = FIRST_DAY + random.nextInt (LAST_DAY - FIRST_DAY - 30);
+            String input = "y\n2\n" + DataGenerator.date (from) + "\n" + DataGenerator.date (from + 30) + "\nn\n";
+            Hotel.viewBookingHistoryofHotel (session.typing (input), Integer.toString (hotel (random)[1]));
+         }
+      });
+      add (new Operation ("booking-totals") {
+         void run(Session session, Random random) {
+            int from = FIRST_DAY + random.nextInt (LAST_DAY - FIRST_DAY - 30);
+            String input = "y\n1\n" + DataGenerator.date (from) + "\n" + DataGenerator.date (from + 30) + "\n";
+            Hotel.viewBookingHistoryofHotel (session.typing (input), Integer.toString (hotel (random)[1]));
+         }
+      });
+      add (new Operation ("regular-customers") {
+         void run(Session session, Random random) {
+            int[] hotel = hotel (random);
+            Hotel.viewRegularCustomers (session.typing (hotel[0] + "\n"), Integer.toString (hotel[1]));
+         }
+      });
+      // every room of a hotel, priced the same again, with a log record each
+      add (new Operation ("reprice") {
+         void run(Session session, Random random) {
+            int[] hotel = hotel (random);
+            Hotel.repriceRooms (session.typing (hotel[0] + "\n0\n"), Integer.toString (hotel[1]));
+         }
+      });
+      add (new Operation ("repair-request") {
+         void run(Session session, Random random) {
+            int[] hotel = hotel (random);
+            String input = hotel[0] + "\n" + (1 + random.nextInt (hotel[2])) + "\n1\n";
+            Hotel.placeRoomRepairRequests (session.typing (input), Integer.toString (hotel[1]));
+         }
+      });
+      // a maintenance sweep, a request for every room of a hotel in one batch
+      add (new Operation ("repair-sweep") {
+         void run(Session session, Random random) {
+            int[] hotel = hotel (random);
+            String input = hotel[0] + "\n1-" + hotel[2] + "\n1\n";
+            Hotel.placeRoomRepairRequests (session.typing (input), Integer.toString (hotel[1]));
+         }
+      });
+      add (new Operation ("repair-history") {
+         void run(Session session, Random random) {
+            Hotel.viewRoomRepairHistory (session.typing ("n\n"), Integer.toString (hotel (random)[1]));
+         }
+      });
+   }//end addOperations
+
+   private void add(Operation operation) {
+      this._operations.put (operation.name, operation);
+   }//end add
+
+   /**
+    * The main execution method
+    *
+    * @param args the command line arguments this inclues the <dbname> <port> <user> [operation ...]
+    */
+   public static void main (String[] args) {
+      if (args.length < 3) {
+         System.err.println (
+            "Usage: " +
+            "java [-classpath <classpath>] " +
+            HotelBenchmark.class.getName () +
+            " <dbname> <port> <user> [operation ...]");
+         return;
+      }//end if
+
+      HotelConnectionPool pool = null;
+      PrintWriter csv = null;
+      boolean failed = false;
+      try{
+         // use postgres JDBC driver.
+         Class.forName ("org.postgresql.Driver");
+         int threads = Integer.getInteger ("hotel.bench.threads", DEFAULT_THREADS);
+         int warmup = Integer.getInteger ("hotel.bench.warmup", DEFAULT_WARMUP_SECONDS);
+         int seconds = Integer.getInteger ("hotel.bench.seconds", DEFAULT_SECONDS);
+         int raceThreads = Integer.getInteger ("hotel.bench.race.threads", DEFAULT_RACE_THREADS);
+         long seed = Long.getLong ("hotel.bench.seed", DataGenerator.DEFAULT_SEED);
+         pool = new HotelConnectionPool (Hotel.connectionURL (args[0], args[1]), args[2], "",
+                                         Math.max (threads, raceThreads), HotelServer.DEFAULT_MAX_WAIT_MILLIS);
+
+         HotelBenchmark benchmark = new HotelBenchmark (pool);
+         benchmark.sample ();
+         // same in-memory structures as the console and the server
+         Hotel esql = new Hotel (pool, null, System.out);
+         if (Boolean.parseBoolean (System.getProperty ("hotel.locations", "true")))
+            Hotel.locations.refresh (esql);
+         if (Boolean.getBoolean ("hotel.occupancy"))
+            Hotel.occupancy.load (esql);
+         esql.releaseConnection ();
+         Hotel.startAuditLog (Hotel.connectionURL (args[0], args[1]), args[2], "");
+         Hotel.startReplicas (Hotel.connectionURL (args[0], args[1]), args[2], "");
+
+         String out = System.getProperty ("hotel.bench.out");
+         if (out != null)
+            csv = new PrintWriter (new FileWriter (out, true));
+         List<String> operations = args.length > 3
+            ? Arrays.asList (args).subList (3, args.length)
+            : benchmark.getOperations ();
+         System.out.println (threads + " thread(s), " + warmup + " s warmup, " + seconds + " s measured");
+         printHeader ();
+         for (String operation : operations)
+            benchmark.run (operation, threads, warmup, seconds, seed, csv);
+         if (Boolean.parseBoolean (System.getProperty ("hotel.bench.verify", "true"))){
+            System.out.println ("Checks:");
+            if (Hotel.locations.isLoaded () && !benchmark.checkNearestHotels (10))
+               failed = true;
+            if (!benchmark.checkDoubleBooking (raceThreads, Integer.getInteger ("hotel.bench.race.rounds", DEFAULT_RACE_ROUNDS)))
+               failed = true;
+            if (!benchmark.checkDuplicateBookings ())
+               failed = true;
+         }
+         System.out.println ("Pool: " + pool.getStats ());
+         if (Hotel.catalog != null)
+            System.out.println ("Room catalog: " + Hotel.catalog.getStats ());
+         if (Hotel.metrics != null)
+            System.out.print (Hotel.metrics.getReport ());
+      }catch(Exception e) {
+         System.err.println (e.getMessage ());
+         failed = true;
+      }finally{
+         if (csv != null)
+            csv.close ();
+         Hotel.stopAuditLog ();
+         Hotel.stopReplicas ();
+         if (pool != null)
+            pool.close ();
+      }//end try
+      if (failed)
+         System.exit (1);
+   }//end main
+
+}//end HotelBenchmark
@@ -0,0 +1,272 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.DriverManager;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.LinkedList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * This class keeps a bounded pool of physical connections that sessions
+ * check out and give back. Each pooled connection carries its own
+ * prepared statement cache, so plans survive across sessions.
+ *
+ * Waiting is done on a ReentrantLock rather than a monitor, so sessions
+ * running on virtual threads unmount from their carrier while they wait.
+ *
+ */
+public class HotelConnectionPool {
+
+   // connections idle for longer than this are checked before reuse
+   public static final long VALIDATE_AFTER_MILLIS = 30000;
+
+   /**
+    * A physical connection handed out by the pool together with its
+    * prepared statement cache.
+    */
+   public static class Lease {
+      private final Connection _connection;
+      private final StatementCache _statements;
+      private long _lastUsed;
+
+      private Lease(Connection connection) {
+         this._connection = connection;
+         this._statements = new StatementCache(connection, StatementCache.DEFAULT_CAPACITY);
+         this._lastUsed = System.currentTimeMillis();
+      }
+
+      public Connection getConnection() { return this._connection; }
+      public StatementCache getStatements() { return this._statements; }
+
+      private void close() {
+         this._statements.clear();
+         try{
+            this._connection.close();
+         }catch (SQLException e){
+            // ignored.
+         }
+      }
+   }//end Lease
+
+   private final String _url;
+   private final String _user;
+   private final String _passwd;
+   private final int _maxSize;
+   private final long _maxWaitMillis;
+
+   // guards every field below, signalled when a connection is released
+   private final ReentrantLock _lock = new ReentrantLock();
+   private final Condition _released = _lock.newCondition();
+
+   // connections ready to be checked out, most recently used first
+   private final LinkedList<Lease> _idle = new LinkedList<Lease>();
+
+   // number of connections opened by the pool, idle or checked out
+   private int _total = 0;
+   private boolean _closed = false;
+
+   // counters reported by getStats()
+   private long _checkouts = 0;
+   private long _waits = 0;
+   private long _timeouts = 0;
+   private long _discarded = 0;
+
+   /**
+    * Creates a new pool. Connections are opened lazily on checkout.
+    *
+    * @param url the JDBC connection URL
+    * @param user the user name used to login to the database
+    * @param passwd the user login password
+    * @param maxSize the maximum number of open connections
+    * @param maxWaitMillis how long a checkout waits for a free connection
+    */
+   public HotelConnectionPool(String url, String user, String passwd, int maxSize, long maxWaitMillis) {
+      this._url = url;
+      this._user = user;
+      this._passwd = passwd;
+      this._maxSize = maxSize;
+      this._maxWaitMillis = maxWaitMillis;
+   }//end HotelConnectionPool
+
+   /**
+    * Checks out a connection, opening a new one if the pool is below its
+    * maximum size and waiting for a released one otherwise.
+    *
+    * @return a healthy connection lease
+    * @throws java.sql.SQLException when no connection is free within the
+    *         maximum wait, or a new connection cannot be opened
+    */
+   public Lease checkout() throws SQLException {
+      long deadline = System.currentTimeMillis() + this._maxWaitMillis;
+      while (true) {
+         Lease lease = null;
+         boolean open = false;
+         _lock.lock();
+         try{
+            if (this._closed)
+               throw new SQLException("Connection pool is closed");
+            if (!this._idle.isEmpty()){
+               lease = this._idle.removeFirst();
+            }
+            else if (this._total < this._maxSize){
+               ++this._total;
+               open = true;
+            }
+            else{
+               long remaining = deadline - System.currentTimeMillis();
+               if (remaining <= 0){
+                  ++this._timeouts;
+                  throw new SQLException("Timed out after " + this._maxWaitMillis + " ms waiting for a database connection");
+               }
+               ++this._waits;
+               try{
+                  _released.await(remaining, TimeUnit.MILLISECONDS);
+               }catch (InterruptedException e){
+                  Thread.currentThread().interrupt();
+                  throw new SQLException("Interrupted while waiting for a database connection");
+               }
+               continue;
+            }
+            ++this._checkouts;
+         }finally{
+            _lock.unlock();
+         }
+
+         // opening and validating happen outside the lock
+         if (open){
+            try{
+               return new Lease(DriverManager.getConnection(this._url, this._user, this._passwd));
+            }catch (SQLException e){
+               _lock.lock();
+               try{
+                  --this._total;
+                  _released.signalAll();
+               }finally{
+                  _lock.unlock();
+               }
+               throw e;
+            }
+         }
+         if (isHealthy(lease))
+            return lease;
+         discard(lease);
+      }
+   }//end checkout
+
+   /**
+    * Gives a connection back to the pool. Any open transaction is rolled
+    * back so the next session starts clean.
+    *
+    * @param lease the connection to give back
+    */
+   public void release(Lease lease) {
+      if (lease == null)
+         return;
+      try{
+         if (!lease._connection.getAutoCommit()){
+            lease._connection.rollback();
+            lease._connection.setAutoCommit(true);
+         }
+      }catch (SQLException e){
+         discard(lease);
+         return;
+      }
+      _lock.lock();
+      try{
+         if (this._closed){
+            --this._total;
+            lease.close();
+            return;
+         }
+         lease._lastUsed = System.currentTimeMillis();
+         this._idle.addFirst(lease);
+         _released.signal();
+      }finally{
+         _lock.unlock();
+      }
+   }//end release
+
+   /**
+    * Closes a broken connection instead of returning it to the pool.
+    *
+    * @param lease the broken connection
+    */
+   public void discard(Lease lease) {
+      lease.close();
+      _lock.lock();
+      try{
+         --this._total;
+         ++this._discarded;
+         _released.signalAll();
+      }finally{
+         _lock.unlock();
+      }
+   }//end discard
+
+   /**
+    * Closes every idle connection. Connections still checked out are
+    * closed when they are released.
+    */
+   public void close() {
+      _lock.lock();
+      try{
+         this._closed = true;
+         for (Lease lease : this._idle){
+            lease.close();
+            --this._total;
+         }
+         this._idle.clear();
+         _released.signalAll();
+      }finally{
+         _lock.unlock();
+      }
+   }//end close
+
+   /**
+    * @return a one line summary of the pool counters
+    */
+   public String getStats() {
+      _lock.lock();
+      try{
+         return String.format("connections open: %d/%d, idle: %d, checkouts: %d, waits: %d, timeouts: %d, discarded: %d",
+                              this._total, this._maxSize, this._idle.size(), this._checkouts,
+                              this._waits, this._timeouts, this._discarded);
+      }finally{
+         _lock.unlock();
+      }
+   }//end getStats
+
+   /*
+    * Runs a trivial query on connections that sat idle for a while, since
+    * the server may have dropped them in the meantime.
+    **/
+   private static boolean isHealthy(Lease lease) {
+      if (System.currentTimeMillis() - lease._lastUsed < VALIDATE_AFTER_MILLIS)
+         return true;
+      try{
+         PreparedStatement stmt = lease._statements.prepare("SELECT 1");
+         ResultSet rs = stmt.executeQuery();
+         boolean ok = rs.next();
+         rs.close();
+         return ok;
+      }catch (SQLException e){
+         return false;
+      }
+   }//end isHealthy
+
+}//end HotelConnectionPool
@@ -0,0 +1,384 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * This class keeps the location of every hotel in memory, in a uniform grid
+ * of square cells, so proximity searches are answered without going to the
+ * database. Hotel coordinates are kept in primitive double arrays, and
+ * each grid cell lists the slots of the hotels inside it.
+ *
+ * The index is loaded with refresh() and kept current with put() and
+ * remove(), or by calling refresh() again, which applies only the hotels
+ * that changed. The server refreshes in the background; the console calls
+ * refreshIfOlder() between menu actions.
+ *
+ */
+public class HotelLocationIndex {
+
+   // side of a grid cell, in the same units as calculate_distance
+   public static final double DEFAULT_CELL_SIZE = 10.0;
+
+   // the columns printed for a hotel, same as the viewHotels query
+   public static final String[] COLUMNS = { "hotelid", "hotelname", "latitude", "longitude", "dateestablished" };
+
+   private static final String LOAD_QUERY =
+      "SELECT H.hotelID, H.hotelName, H.latitude, H.longitude, H.dateEstablished FROM Hotel H";
+
+   /*
+    * A growable list of slot numbers
+    **/
+   private static class IntList {
+      int[] values = new int[4];
+      int size = 0;
+
+      void add(int value) {
+         if (size == values.length)
+            values = Arrays.copyOf(values, size * 2);
+         values[size++] = value;
+      }
+
+      void replace(int oldValue, int newValue) {
+         for (int i = 0; i < size; ++i)
+            if (values[i] == oldValue){
+               values[i] = newValue;
+               return;
+            }
+      }
+
+      void remove(int value) {
+         for (int i = 0; i < size; ++i)
+            if (values[i] == value){
+               values[i] = values[--size];
+               return;
+            }
+      }
+   }//end IntList
+
+   private final double _cellSize;
+   private final ReentrantReadWriteLock _lock = new ReentrantReadWriteLock();
+
+   // hotels are stored in slots 0 .. _size-1 of these arrays
+   private int _size = 0;
+   private int[] _ids = new int[16];
+   private double[] _lats = new double[16];
+   private double[] _longs = new double[16];
+   private String[][] _rows = new String[16][];
+
+   // hotelID to slot, and grid cell to the slots inside it
+   private final Map<Integer, Integer> _slotOf = new HashMap<Integer, Integer>();
+   private final Map<Long, IntList> _cells = new HashMap<Long, IntList>();
+
+   // bounds of all hotels ever indexed, used to stop widening searches
+   private double _minLat = Double.MAX_VALUE, _maxLat = -Double.MAX_VALUE;
+   private double _minLong = Double.MAX_VALUE, _maxLong = -Double.MAX_VALUE;
+
+   private volatile boolean _loaded = false;
+   // when the index was last refreshed
+   private volatile long _refreshedAt = 0;
+
+   public HotelLocationIndex(double cellSize) {
+      this._cellSize = cellSize;
+   }//end HotelLocationIndex
+
+   /**
+    * @return true once the index holds the hotel catalog
+    */
+   public boolean isLoaded() {
+      return this._loaded;
+   }//end isLoaded
+
+   /**
+    * Loads every hotel from the database. Can be called again later to
+    * pick up changes; only hotels that moved, appeared or disappeared are
+    * touched, and searches keep running while it happens.
+    *
+    * @param esql the session used to read the Hotel relation
+    * @return the number of hotels that changed
+    * @throws java.sql.SQLException when failed to read the hotels
+    */
+   public int refresh(Hotel esql) throws SQLException {
+      TypedResult hotels = esql.executeQueryAndReturnTypedResult (LOAD_QUERY);
+      int changed = 0;
+      Set<Integer> seen = new HashSet<Integer>();
+      for (int r = 0; r < hotels.getRowCount(); ++r){
+         // hotels without a location never match a proximity search
+         if (hotels.isNull(r, 2) || hotels.isNull(r, 3))
+            continue;
+         int id = hotels.getInt(r, 0);
+         seen.add(id);
+         String[] row = new String[COLUMNS.length];
+         for (int c = 0; c < row.length; ++c)
+            row[c] = hotels.getString(r, c);
+         if (!sameAsIndexed(id, row)){
+            put(id, hotels.getDouble(r, 2), hotels.getDouble(r, 3), row);
+            ++changed;
+         }
+      }
+      for (int id : ids())
+         if (!seen.contains(id)){
+            remove(id);
+            ++changed;
+         }
+      this._refreshedAt = System.currentTimeMillis();
+      this._loaded = true;
+      return changed;
+   }//end refresh
+
+   /**
+    * Refreshes the index when it was last refreshed longer ago than a
+    * given time, for a process that does not refresh in the background.
+    *
+    * @param esql the session used to read the Hotel relation
+    * @param millis the age after which the index is refreshed
+    * @return the number of hotels that changed
+    * @throws java.sql.SQLException when failed to read the hotels
+    */
+   public int refreshIfOlder(Hotel esql, long millis) throws SQLException {
+      if (!this._loaded || System.currentTimeMillis() - this._refreshedAt < millis)
+         return 0;
+      return refresh(esql);
+   }//end refreshIfOlder
+
+   /**
+    * Adds a hotel, or moves it if it is already indexed.
+    *
+    * @param hotelID the hotel
+    * @param latitude its latitude
+    * @param longitude its longitude
+    * @param row the column values printed for it, see COLUMNS
+    */
+   public void put(int hotelID, double latitude, double longitude, String[] row) {
+      _lock.writeLock().lock();
+      try{
+         Integer slot = this._slotOf.get(hotelID);
+         int s;
+         if (slot != null){
+            s = slot;
+            cell(cellKey(this._lats[s], this._longs[s])).remove(s);
+         }
+         else{
+            s = this._size++;
+            grow(this._size);
+            this._slotOf.put(hotelID, s);
+         }
+         this._ids[s] = hotelID;
+         this._lats[s] = latitude;
+         this._longs[s] = longitude;
+         this._rows[s] = row;
+         cell(cellKey(latitude, longitude)).add(s);
+
+         this._minLat = Math.min(this._minLat, latitude);
+         this._maxLat = Math.max(this._maxLat, latitude);
+         this._minLong = Math.min(this._minLong, longitude);
+         this._maxLong = Math.max(this._maxLong, longitude);
+      }finally{
+         _lock.writeLock().unlock();
+      }
+   }//end put
+
+   /**
+    * Drops a hotel from the index, if it is there.
+    *
+    * @param hotelID the hotel
+    */
+   public void remove(int hotelID) {
+      _lock.writeLock().lock();
+      try{
+         Integer slot = this._slotOf.remove(hotelID);
+         if (slot == null)
+            return;
+         int s = slot;
+         cell(cellKey(this._lats[s], this._longs[s])).remove(s);
+
+         // move the last hotel into the freed slot to keep the arrays dense
+         int last = --this._size;
+         if (s != last){
+            cell(cellKey(this._lats[last], this._longs[last])).replace(last, s);
+            this._ids[s] = this._ids[last];
+            this._lats[s] = this._lats[last];
+            this._longs[s] = this._longs[last];
+            this._rows[s] = this._rows[last];
+            this._slotOf.put(this._ids[s], s);
+         }
+         this._rows[last] = null;
+      }finally{
+         _lock.writeLock().unlock();
+      }
+   }//end remove
+
+   /**
+    * Finds the hotels strictly closer than a radius to a location, nearest
+    * first. With a limit and no useful radius, the search starts with one
+    * cell around the location and widens until enough hotels are found,
+    * or until it reaches the farthest corner of the indexed hotels, from
+    * a location inside them or outside.
+    *
+    * @param latitude the latitude of the location
+    * @param longitude the longitude of the location
+    * @param radius the search radius
+    * @param limit the number of nearest hotels to return, 0 for all of them
+    * @return the column values of the hotels found, see COLUMNS
+    */
+   public List<String[]> within(double latitude, double longitude, double radius, int limit) {
+      _lock.readLock().lock();
+      try{
+         if (this._size == 0)
+            return new ArrayList<String[]>();
+         // every indexed hotel is within this distance of the location
+         double farthest = Math.max(
+            Math.max(Hotel.calculateDistance(latitude, longitude, this._minLat, this._minLong),
+                     Hotel.calculateDistance(latitude, longitude, this._minLat, this._maxLong)),
+            Math.max(Hotel.calculateDistance(latitude, longitude, this._maxLat, this._minLong),
+                     Hotel.calculateDistance(latitude, longitude, this._maxLat, this._maxLong)));
+         double reach = limit > 0 ? Math.min(radius, this._cellSize) : radius;
+         IntList found;
+         while (true) {
+            found = collect(latitude, longitude, Math.min(reach, radius));
+            if (limit <= 0 || found.size >= limit || reach >= radius || reach > farthest)
+               break;
+            reach *= 2;
+         }
+
+         // order the matches by distance
+         final double[] dist = new double[found.size];
+         Integer[] order = new Integer[found.size];
+         for (int i = 0; i < found.size; ++i){
+            int s = found.values[i];
+            dist[i] = Hotel.calculateDistance(latitude, longitude, this._lats[s], this._longs[s]);
+            order[i] = i;
+         }
+         Arrays.sort(order, new Comparator<Integer>() {
+            public int compare(Integer a, Integer b) {
+               return Double.compare(dist[a], dist[b]);
+            }
+         });
+
+         int count = limit > 0 ? Math.min(limit, found.size) : found.size;
+         List<String[]> result = new ArrayList<String[]>(count);
+         for (int i = 0; i < count; ++i)
+            result.add(this._rows[found.values[order[i]]]);
+         return result;
+      }finally{
+         _lock.readLock().unlock();
+      }
+   }//end within
+
+   /**
+    * @return the number of indexed hotels
+    */
+   public int size() {
+      _lock.readLock().lock();
+      try{
+         return this._size;
+      }finally{
+         _lock.readLock().unlock();
+      }
+   }//end size
+
+   /*
+    * Collects the slots of hotels strictly within a radius, visiting only
+    * the cells that overlap the bounding box of the search circle. Called
+    * with the read lock held.
+    **/
+   private IntList collect(double latitude, double longitude, double radius) {
+      IntList found = new IntList();
+      long fromX = cellOf(Math.max(latitude - radius, this._minLat));
+      long toX = cellOf(Math.min(latitude + radius, this._maxLat));
+      long fromY = cellOf(Math.max(longitude - radius, this._minLong));
+      long toY = cellOf(Math.min(longitude + radius, this._maxLong));
+      if ((toX - fromX + 1) * (toY - fromY + 1) > this._cells.size()){
+         // the box covers more cells than are occupied, scan those instead
+         for (IntList cell : this._cells.values())
+            addWithin(found, cell, latitude, longitude, radius);
+      }
+      else{
+         for (long x = fromX; x <= toX; ++x)
+            for (long y = fromY; y <= toY; ++y){
+               IntList cell = this._cells.get(key(x, y));
+               if (cell != null)
+                  addWithin(found, cell, latitude, longitude, radius);
+            }
+      }
+      return found;
+   }//end collect
+
+   private void addWithin(IntList found, IntList cell, double latitude, double longitude, double radius) {
+      for (int i = 0; i < cell.size; ++i){
+         int s = cell.values[i];
+         if (Hotel.calculateDistance(latitude, longitude, this._lats[s], this._longs[s]) < radius)
+            found.add(s);
+      }
+   }//end addWithin
+
+   private boolean sameAsIndexed(int hotelID, String[] row) {
+      _lock.readLock().lock();
+      try{
+         Integer slot = this._slotOf.get(hotelID);
+         return slot != null && Arrays.equals(this._rows[slot], row);
+      }finally{
+         _lock.readLock().unlock();
+      }
+   }//end sameAsIndexed
+
+   private int[] ids() {
+      _lock.readLock().lock();
+      try{
+         return Arrays.copyOf(this._ids, this._size);
+      }finally{
+         _lock.readLock().unlock();
+      }
+   }//end ids
+
+   private void grow(int size) {
+      if (size <= this._ids.length)
+         return;
+      int capacity = Math.max(size, this._ids.length * 2);
+      this._ids = Arrays.copyOf(this._ids, capacity);
+      this._lats = Arrays.copyOf(this._lats, capacity);
+      this._longs = Arrays.copyOf(this._longs, capacity);
+      this._rows = Arrays.copyOf(this._rows, capacity);
+   }//end grow
+
+   private IntList cell(long key) {
+      IntList cell = this._cells.get(key);
+      if (cell == null){
+         cell = new IntList();
+         this._cells.put(key, cell);
+      }
+      return cell;
+   }//end cell
+
+   private long cellOf(double coordinate) {
+      return (long) Math.floor(coordinate / this._cellSize);
+   }//end cellOf
+
+   private long cellKey(double latitude, double longitude) {
+      return key(cellOf(latitude), cellOf(longitude));
+   }//end cellKey
+
+   private static long key(long x, long y) {
+      return (x << 32) ^ (y & 0xffffffffL);
+   }//end key
+
+}//end HotelLocationIndex
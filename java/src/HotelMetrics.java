@@ -0,0 +1,285 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.lang.management.ManagementFactory;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.ObjectName;
+
+/**
+ * This class measures the statements the sessions run: a latency histogram,
+ * the rows and the errors of every query template, the errors by SQLState,
+ * and the database time of every menu action, that is the time its
+ * statements took, without the time spent waiting on the user.
+ *
+ * Statements slower than the threshold are written to standard error with
+ * their template, never their parameters, which may hold passwords.
+ *
+ * Measuring a statement looks its template up in a map and bumps a few
+ * counters: nothing is allocated once a template has been seen, so the
+ * metrics can stay on in production. The figures are read through JMX
+ * (see HotelMetricsMBean) or printed by getReport().
+ *
+ */
+public class HotelMetrics implements HotelMetricsMBean {
+
+   public static final long DEFAULT_SLOW_MILLIS = 500;
+
+   // templates measured on their own, later ones are counted together
+   private static final int MAX_TEMPLATES = 1000;
+   private static final String OTHER = "(other templates)";
+
+   private static final int LABEL_WIDTH = 60;
+
+   /*
+    * The figures of one query template or menu action
+    **/
+   private static class Stats {
+      final String label;
+      final LatencyHistogram latency = new LatencyHistogram();
+      final AtomicLong rows = new AtomicLong();
+      final AtomicLong errors = new AtomicLong();
+
+      Stats(String label) {
+         this.label = label;
+      }
+   }//end Stats
+
+   private final long _slowNanos;
+
+   private final ConcurrentMap<String, Stats> _templates = new ConcurrentHashMap<String, Stats>();
+   private final ConcurrentMap<String, Stats> _actions = new ConcurrentHashMap<String, Stats>();
+   private final ConcurrentMap<String, AtomicLong> _sqlStates = new ConcurrentHashMap<String, AtomicLong>();
+
+   private final AtomicLong _statements = new AtomicLong();
+   private final AtomicLong _rows = new AtomicLong();
+   private final AtomicLong _errors = new AtomicLong();
+   private final AtomicLong _slow = new AtomicLong();
+
+   /**
+    * @param slowMillis statements taking longer are logged, negative to log none
+    */
+   public HotelMetrics(long slowMillis) {
+      this._slowNanos = slowMillis < 0 ? Long.MAX_VALUE : slowMillis * 1000000L;
+   }//end HotelMetrics
+
+   /**
+    * Registers the metrics with the platform MBean server, once per JVM.
+    */
+   public void register() {
+      try{
+         ManagementFactory.getPlatformMBeanServer().registerMBean(this, new ObjectName("hotel:type=Metrics"));
+      }catch (InstanceAlreadyExistsException e){
+         // registered by an earlier start.
+      }catch (Exception e){
+         System.err.println("Unable to register the metrics with JMX: " + e.getMessage());
+      }
+   }//end register
+
+   /**
+    * Measures a statement that ran.
+    *
+    * @param sql the query template
+    * @param nanos the time it took
+    * @param rows the rows it read or changed
+    */
+   public void statement(String sql, long nanos, int rows) {
+      Stats stats = template(sql);
+      stats.latency.record(nanos);
+      stats.rows.addAndGet(rows);
+      this._statements.incrementAndGet();
+      this._rows.addAndGet(rows);
+      if (nanos > this._slowNanos){
+         this._slow.incrementAndGet();
+         System.err.println(String.format("Slow statement, %.1f ms, %d rows: %s", nanos / 1e6, rows, stats.label));
+      }
+   }//end statement
+
+   /**
+    * Measures a statement that failed.
+    *
+    * @param sql the query template
+    * @param nanos the time until it failed
+    * @param e the error
+    */
+   public void failed(String sql, long nanos, SQLException e) {
+      Stats stats = template(sql);
+      stats.latency.record(nanos);
+      stats.errors.incrementAndGet();
+      this._statements.incrementAndGet();
+      this._errors.incrementAndGet();
+      String state = e.getSQLState() == null ? "none" : e.getSQLState();
+      AtomicLong count = this._sqlStates.get(state);
+      if (count == null){
+         AtomicLong created = new AtomicLong();
+         count = this._sqlStates.putIfAbsent(state, created);
+         if (count == null)
+            count = created;
+      }
+      count.incrementAndGet();
+      if (nanos > this._slowNanos){
+         this._slow.incrementAndGet();
+         System.err.println(String.format("Slow statement, %.1f ms, failed with %s: %s", nanos / 1e6, state, stats.label));
+      }
+   }//end failed
+
+   /**
+    * Measures a menu action.
+    *
+    * @param name the action
+    * @param nanos the time its statements took
+    * @param failed true when one of its statements failed
+    */
+   public void action(String name, long nanos, boolean failed) {
+      Stats stats = stats(this._actions, name, name);
+      stats.latency.record(nanos);
+      if (failed)
+         stats.errors.incrementAndGet();
+   }//end action
+
+   private Stats template(String sql) {
+      Stats stats = this._templates.get(sql);
+      if (stats != null)
+         return stats;
+      if (this._templates.size() >= MAX_TEMPLATES)
+         return stats(this._templates, OTHER, OTHER);
+      return stats(this._templates, sql, label(sql));
+   }//end template
+
+   private static Stats stats(ConcurrentMap<String, Stats> map, String key, String label) {
+      Stats stats = map.get(key);
+      if (stats == null){
+         Stats created = new Stats(label);
+         stats = map.putIfAbsent(key, created);
+         if (stats == null)
+            stats = created;
+      }
+      return stats;
+   }//end stats
+
+   // the template on one line
+   private static String label(String sql) {
+      return sql.trim().replaceAll("\\s+", " ");
+   }//end label
+
+   public long getStatements() {
+      return this._statements.get();
+   }//end getStatements
+
+   public long getRows() {
+      return this._rows.get();
+   }//end getRows
+
+   public long getErrors() {
+      return this._errors.get();
+   }//end getErrors
+
+   public long getSlowStatements() {
+      return this._slow.get();
+   }//end getSlowStatements
+
+   public long getSlowThresholdMillis() {
+      return this._slowNanos == Long.MAX_VALUE ? -1 : this._slowNanos / 1000000L;
+   }//end getSlowThresholdMillis
+
+   public String[] getNames() {
+      List<String> names = new ArrayList<String>();
+      for (Stats stats : this._templates.values())
+         names.add(stats.label);
+      for (Stats stats : this._actions.values())
+         names.add(stats.label);
+      Collections.sort(names);
+      return names.toArray(new String[names.size()]);
+   }//end getNames
+
+   public String[] getErrorsBySqlState() {
+      List<String> errors = new ArrayList<String>();
+      for (Map.Entry<String, AtomicLong> entry : this._sqlStates.entrySet())
+         errors.add(entry.getKey() + "=" + entry.getValue().get());
+      Collections.sort(errors);
+      return errors.toArray(new String[errors.size()]);
+   }//end getErrorsBySqlState
+
+   public double getPercentileMillis(String name, double percent) {
+      Stats stats = this._actions.get(name);
+      if (stats == null)
+         for (Stats template : this._templates.values())
+            if (template.label.equals(name))
+               stats = template;
+      return stats == null ? 0 : stats.latency.getPercentileMillis(percent);
+   }//end getPercentileMillis
+
+   /**
+    * @return every figure as a text table, templates and actions by total time
+    */
+   public String getReport() {
+      StringBuilder sb = new StringBuilder();
+      sb.append(String.format("%d statements, %d rows, %d errors, %d slower than %d ms%n",
+                              getStatements(), getRows(), getErrors(), getSlowStatements(), getSlowThresholdMillis()));
+      appendTable(sb, "Statement", this._templates);
+      appendTable(sb, "Menu action (database time)", this._actions);
+      String[] errors = getErrorsBySqlState();
+      if (errors.length > 0){
+         sb.append("Errors by SQLState:");
+         for (String error : errors)
+            sb.append(' ').append(error);
+         sb.append(String.format("%n"));
+      }
+      return sb.toString();
+   }//end getReport
+
+   private static void appendTable(StringBuilder sb, String title, ConcurrentMap<String, Stats> map) {
+      List<Stats> rows = new ArrayList<Stats>(map.values());
+      if (rows.isEmpty())
+         return;
+      Collections.sort(rows, new Comparator<Stats>() {
+         public int compare(Stats a, Stats b) {
+            return Double.compare(b.latency.getMeanMillis() * b.latency.getCount(),
+                                  a.latency.getMeanMillis() * a.latency.getCount());
+         }
+      });
+      sb.append(String.format("%-" + LABEL_WIDTH + "s %8s %9s %6s %8s %8s %8s %8s %8s%n",
+                              title, "count", "rows", "errors", "mean ms", "p50", "p90", "p99", "max"));
+      for (Stats stats : rows){
+         String label = stats.label.length() > LABEL_WIDTH ? stats.label.substring(0, LABEL_WIDTH - 3) + "..." : stats.label;
+         LatencyHistogram latency = stats.latency;
+         sb.append(String.format("%-" + LABEL_WIDTH + "s %8d %9d %6d %8.2f %8.2f %8.2f %8.2f %8.2f%n",
+                                 label, latency.getCount(), stats.rows.get(), stats.errors.get(),
+                                 latency.getMeanMillis(), latency.getPercentileMillis(50),
+                                 latency.getPercentileMillis(90), latency.getPercentileMillis(99),
+                                 latency.getMaxMillis()));
+      }
+   }//end appendTable
+
+   /**
+    * Forgets every figure measured so far.
+    */
+   public void reset() {
+      this._templates.clear();
+      this._actions.clear();
+      this._sqlStates.clear();
+      this._statements.set(0);
+      this._rows.set(0);
+      this._errors.set(0);
+      this._slow.set(0);
+   }//end reset
+
+}//end HotelMetrics
@@ -0,0 +1,51 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+/**
+ * The JMX view of HotelMetrics, registered as "hotel:type=Metrics".
+ *
+ */
+public interface HotelMetricsMBean {
+
+   long getStatements();
+
+   long getRows();
+
+   long getErrors();
+
+   long getSlowStatements();
+
+   long getSlowThresholdMillis();
+
+   /**
+    * @return the query templates and menu actions measured so far
+    */
+   String[] getNames();
+
+   /**
+    * @return the errors by SQLState, as "state=count"
+    */
+   String[] getErrorsBySqlState();
+
+   /**
+    * @param name a query template or a menu action, see getNames()
+    * @param percent the percentile, from 0 to 100
+    * @return the latency in milliseconds, 0 when never measured
+    */
+   double getPercentileMillis(String name, double percent);
+
+   String getReport();
+
+   void reset();
+
+}//end HotelMetricsMBean
@@ -0,0 +1,424 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.io.BufferedReader;
+import java.io.EOFException;
+import java.io.InputStreamReader;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * This class runs the Hotel front end headless. Clients connect to a local
+ * socket and drive the same menus as the console, one line per menu choice
+ * or prompt answer. All sessions share one bounded connection pool.
+ *
+ * Every session runs on its own virtual thread when the JVM has them (Java
+ * 21 and later), so thousands of sessions waiting on their user or on the
+ * database only cost a few carrier threads. Older JVMs fall back to one
+ * platform thread per session. Sessions hold a pooled connection only
+ * while a menu action runs.
+ *
+ * Settings are read from system properties:
+ *   hotel.pool.size        maximum number of database connections
+ *   hotel.pool.maxWait     milliseconds a session waits for a connection
+ *   hotel.server.sessions  maximum number of concurrent sessions
+ *   hotel.locations        keep hotel locations in memory (true/false)
+ *   hotel.locations.refresh  seconds between location index refreshes
+ *   hotel.occupancy        keep room occupancy bitmaps in memory (true/false)
+ *   hotel.occupancy.days   past nights kept in the occupancy bitmaps
+ *   hotel.occupancy.verify   seconds between occupancy checks against the database
+ *   hotel.listen           apply change notifications from triggers.sql (true/false)
+ *   hotel.listen.poll      milliseconds between two checks for notifications
+ *   hotel.catalog          cache room prices and images in memory (true/false)
+ *   hotel.catalog.size     maximum number of rooms in the catalog cache
+ *   hotel.catalog.ttl      milliseconds a cached room is used before it is read again
+ *   hotel.audit.async      write the room update log of bulk repricing in batches, after
+ *                          the prices commit (true/false, default false)
+ *   hotel.audit.batch      room update log records inserted per batch
+ *   hotel.audit.flush      milliseconds a queued log record waits at most
+ *   hotel.audit.wait       milliseconds a session waits for room in the queue
+ *   hotel.audit.attempts   times a batch is tried before it is dead lettered
+ *   hotel.audit.deadLetter file the batches that cannot be written are appended to
+ *   hotel.partitions       create the yearly partitions of the coming years (true/false)
+ *   hotel.partitions.ahead years ahead of the current one that must have partitions
+ *   hotel.auth.cache.size  users whose recent log ins are remembered
+ *   hotel.auth.cache.ttl   milliseconds a log in or an unknown userID is remembered
+ *   hotel.auth.maxFailures failed log ins in a row that lock a user out
+ *   hotel.auth.lockout     milliseconds a lock out lasts
+ *   hotel.auth.upgrade     replace plain text passwords by their hash at log in (true/false)
+ *   hotel.auth.iterations  PBKDF2 iterations of new password hashes
+ *   hotel.ids.block        repairIDs reserved ahead for batches of repair requests
+ *   hotel.replica.url      JDBC URL of a read replica the manager reports read from
+ *   hotel.replica.pool.size  maximum number of connections to the replica
+ *   hotel.replica.maxLag   milliseconds the replica may be behind the primary
+ *   hotel.replica.check    milliseconds between two checks of the replica lag
+ *   hotel.metrics          measure statements and menu actions (true/false)
+ *   hotel.metrics.slow     milliseconds above which a statement is logged, -1 for none
+ *   hotel.metrics.dump     seconds between two metrics reports, 0 for none
+ *
+ * The metrics are also registered with JMX as "hotel:type=Metrics".
+ *
+ */
+public class HotelServer {
+
+   public static final int DEFAULT_POOL_SIZE = 20;
+   public static final long DEFAULT_MAX_WAIT_MILLIS = 5000;
+   public static final int DEFAULT_MAX_SESSIONS = 5000;
+   public static final long DEFAULT_LOCATIONS_REFRESH_SECONDS = 60;
+   public static final long DEFAULT_OCCUPANCY_VERIFY_SECONDS = 300;
+   public static final int DEFAULT_PARTITIONS_AHEAD = 2;
+   public static final long DEFAULT_METRICS_DUMP_SECONDS = 300;
+
+   private final HotelConnectionPool _pool;
+   private final ServerSocket _socket;
+   private final ExecutorService _sessions;
+
+   // one permit per session allowed to run at the same time
+   private final Semaphore _admission;
+
+   // background jobs, like refreshing the hotel location index
+   private final ScheduledExecutorService _background = Executors.newSingleThreadScheduledExecutor();
+
+   // notifications of changes to cached data, null when not listening
+   private ChangeListener _listener = null;
+
+   // reloads changed hotels into the location index, null when not indexing
+   private Runnable _refreshLocations = null;
+
+   /**
+    * Creates a new server listening on the loopback interface
+    *
+    * @param pool the connection pool shared by every session
+    * @param listenPort the local port clients connect to
+    * @param maxSessions the maximum number of concurrent sessions
+    * @throws java.io.IOException when the port cannot be bound
+    */
+   public HotelServer(HotelConnectionPool pool, int listenPort, int maxSessions) throws IOException {
+      this._pool = pool;
+      this._socket = new ServerSocket(listenPort, 50, InetAddress.getLoopbackAddress());
+      this._sessions = newSessionExecutor();
+      this._admission = new Semaphore(maxSessions);
+   }//end HotelServer
+
+   /*
+    * Returns a virtual thread per task executor when the running JVM has
+    * one, looked up by name so the sources still build for older targets.
+    **/
+   private static ExecutorService newSessionExecutor() {
+      try{
+         Method m = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+         System.out.println("Sessions run on virtual threads");
+         return (ExecutorService) m.invoke(null);
+      }catch (Exception e){
+         System.out.println("Sessions run on platform threads");
+         return Executors.newCachedThreadPool();
+      }
+   }//end newSessionExecutor
+
+   /**
+    * Builds the pool and the server from the system properties and serves
+    * sessions until the process is stopped.
+    */
+   public static void start(String dbname, String dbport, String user, String passwd, int listenPort) throws IOException {
+      HotelConnectionPool pool = new HotelConnectionPool(
+            Hotel.connectionURL(dbname, dbport), user, passwd,
+            Integer.getInteger("hotel.pool.size", DEFAULT_POOL_SIZE),
+            Long.getLong("hotel.pool.maxWait", DEFAULT_MAX_WAIT_MILLIS));
+      final HotelServer server = new HotelServer(pool, listenPort,
+            Integer.getInteger("hotel.server.sessions", DEFAULT_MAX_SESSIONS));
+
+      Runtime.getRuntime().addShutdownHook(new Thread() {
+         @Override
+         public void run() {
+            server.shutdown();
+         }
+      });
+      if (Boolean.parseBoolean(System.getProperty("hotel.locations", "true")))
+         server.refreshLocations(Long.getLong("hotel.locations.refresh", DEFAULT_LOCATIONS_REFRESH_SECONDS));
+      if (Boolean.getBoolean("hotel.occupancy"))
+         server.verifyOccupancy(Long.getLong("hotel.occupancy.verify", DEFAULT_OCCUPANCY_VERIFY_SECONDS));
+      Hotel.startAuditLog(Hotel.connectionURL(dbname, dbport), user, passwd);
+      Hotel.startReplicas(Hotel.connectionURL(dbname, dbport), user, passwd);
+      if (Hotel.metrics != null){
+         Hotel.metrics.register();
+         server.dumpMetrics(Long.getLong("hotel.metrics.dump", DEFAULT_METRICS_DUMP_SECONDS));
+      }
+      if (Boolean.parseBoolean(System.getProperty("hotel.partitions", "true")))
+         server.createPartitions(Integer.getInteger("hotel.partitions.ahead", DEFAULT_PARTITIONS_AHEAD));
+      if (Boolean.parseBoolean(System.getProperty("hotel.listen", "true")))
+         server.listenForChanges(new ChangeListener(Hotel.connectionURL(dbname, dbport), user, passwd,
+               Long.getLong("hotel.listen.poll", ChangeListener.DEFAULT_POLL_MILLIS)));
+      System.out.println("Listening for sessions on localhost:" + listenPort);
+      server.serve();
+   }//end start
+
+   /**
+    * Loads the hotel location index now, then applies hotel changes to it
+    * every few seconds in the background.
+    *
+    * @param seconds the time between two refreshes
+    */
+   public void refreshLocations(long seconds) {
+      Runnable refresh = this._refreshLocations = new Runnable() {
+         public void run() {
+            Hotel esql = new Hotel(_pool, null, System.out);
+            try{
+               Hotel.locations.refresh(esql);
+            }catch (Exception e){
+               System.err.println("Unable to refresh hotel locations: " + e.getMessage());
+            }finally{
+               esql.cleanup();
+            }
+         }
+      };
+      refresh.run();
+      System.out.println("Hotel locations indexed: " + Hotel.locations.size());
+      this._background.scheduleWithFixedDelay(refresh, seconds, seconds, TimeUnit.SECONDS);
+   }//end refreshLocations
+
+   /**
+    * Builds the room occupancy bitmaps now, then checks them against the
+    * database every few seconds in the background, which also evicts the
+    * nights that fell out of the retention window.
+    *
+    * @param seconds the time between two checks
+    */
+   public void verifyOccupancy(long seconds) {
+      Hotel loader = new Hotel(_pool, null, System.out);
+      try{
+         Hotel.occupancy.load(loader);
+      }catch (Exception e){
+         System.err.println("Unable to load room occupancy: " + e.getMessage());
+         return;
+      }finally{
+         loader.cleanup();
+      }
+      this._background.scheduleWithFixedDelay(new Runnable() {
+         public void run() {
+            Hotel esql = new Hotel(_pool, null, System.out);
+            try{
+               int stale = Hotel.occupancy.verify(esql);
+               if (stale > 0)
+                  System.out.println("Room occupancy was out of date for " + stale + " hotels, reloaded");
+            }catch (Exception e){
+               System.err.println("Unable to verify room occupancy: " + e.getMessage());
+            }finally{
+               esql.cleanup();
+            }
+         }
+      }, seconds, seconds, TimeUnit.SECONDS);
+   }//end verifyOccupancy
+
+   /**
+    * Creates the RoomBookings and RoomUpdatesLog partitions of this year
+    * and the next ones now, then checks again every day, so bookings and
+    * room updates always have a partition to go to.
+    *
+    * @param yearsAhead the years after the current one that need partitions
+    */
+   public void createPartitions(final int yearsAhead) {
+      Runnable create = new Runnable() {
+         public void run() {
+            Hotel esql = new Hotel(_pool, null, System.out);
+            try{
+               int created = esql.createPartitions(yearsAhead);
+               if (created > 0)
+                  System.out.println("Created " + created + " partitions");
+            }catch (Exception e){
+               System.err.println("Unable to create partitions: " + e.getMessage());
+            }finally{
+               esql.cleanup();
+            }
+         }
+      };
+      create.run();
+      this._background.scheduleWithFixedDelay(create, 1, 1, TimeUnit.DAYS);
+   }//end createPartitions
+
+   /**
+    * Prints the metrics report every few seconds in the background.
+    *
+    * @param seconds the time between two reports, 0 for none
+    */
+   public void dumpMetrics(long seconds) {
+      if (seconds <= 0)
+         return;
+      this._background.scheduleWithFixedDelay(new Runnable() {
+         public void run() {
+            System.out.print(Hotel.metrics.getReport());
+         }
+      }, seconds, seconds, TimeUnit.SECONDS);
+   }//end dumpMetrics
+
+   /**
+    * Applies the change notifications sent by the triggers to the data
+    * cached in memory: session principals are read again when the type or
+    * the hotels of their user change, changed rooms are dropped from the
+    * room catalog, and the location index is refreshed when hotels change.
+    *
+    * @param listener the listener, not started yet
+    */
+   public void listenForChanges(ChangeListener listener) {
+      listener.listen("principal_changed", new ChangeListener.Handler() {
+         public void changed(String payload) {
+            try{
+               if (payload != null){
+                  SessionPrincipal.invalidate(Integer.parseInt(payload.trim()));
+                  return;
+               }
+            }catch (NumberFormatException e){
+               // not a userID, fall through.
+            }
+            SessionPrincipal.invalidateAll();
+         }
+      });
+      if (Hotel.catalog != null)
+         listener.listen("catalog_changed", new ChangeListener.Handler() {
+            public void changed(String payload) {
+               Hotel.catalog.changed(payload);
+            }
+         });
+      if (Hotel.locations.isLoaded())
+         listener.listen("hotel_changed", new ChangeListener.Handler() {
+            private final AtomicBoolean _pending = new AtomicBoolean();
+
+            public void changed(String payload) {
+               // a burst of hotel changes queues a single refresh
+               if (this._pending.compareAndSet(false, true))
+                  _background.execute(new Runnable() {
+                     public void run() {
+                        _pending.set(false);
+                        _refreshLocations.run();
+                     }
+                  });
+            }
+         });
+      listener.start();
+      this._listener = listener;
+   }//end listenForChanges
+
+   /**
+    * Accepts sessions until the server socket is closed
+    */
+   public void serve() throws IOException {
+      while (!this._socket.isClosed()) {
+         Socket client;
+         try{
+            client = this._socket.accept();
+         }catch (SocketException e){
+            // socket closed by shutdown()
+            break;
+         }
+         if (this._admission.tryAcquire()){
+            this._sessions.execute(new Session(client));
+         }
+         else{
+            // a client gone before the answer must not stop the server
+            try{
+               PrintStream out = new PrintStream(client.getOutputStream(), true);
+               out.println("Server is busy, please try again later.");
+            }catch (IOException e){
+               // ignored.
+            }finally{
+               try{
+                  client.close();
+               }catch (IOException e){
+                  // ignored.
+               }
+            }
+         }
+      }//end while
+   }//end serve
+
+   /**
+    * Stops accepting sessions and closes the connection pool
+    */
+   public void shutdown() {
+      try{
+         this._socket.close();
+      }catch (IOException e){
+         // ignored.
+      }
+      this._background.shutdownNow();
+      if (this._listener != null)
+         this._listener.stop();
+      this._sessions.shutdown();
+      try{
+         this._sessions.awaitTermination(10, TimeUnit.SECONDS);
+      }catch (InterruptedException e){
+         Thread.currentThread().interrupt();
+      }
+      // sessions are done, write what they logged
+      Hotel.stopAuditLog();
+      Hotel.stopReplicas();
+      System.out.println("Connection pool: " + this._pool.getStats());
+      if (Hotel.catalog != null)
+         System.out.println("Room catalog: " + Hotel.catalog.getStats());
+      System.out.println("Log in cache: " + SessionPrincipal.getLogInStats());
+      if (Hotel.metrics != null)
+         System.out.print(Hotel.metrics.getReport());
+      this._pool.close();
+   }//end shutdown
+
+   /*
+    * One client connection, running the console menus over the socket
+    **/
+   private class Session implements Runnable {
+      private final Socket _client;
+
+      Session(Socket client) {
+         this._client = client;
+      }
+
+      public void run() {
+         Hotel esql = null;
+         try{
+            BufferedReader in = new BufferedReader(new InputStreamReader(this._client.getInputStream()));
+            PrintStream out = new PrintStream(this._client.getOutputStream(), true);
+            Hotel.Greeting(out);
+            try{
+               esql = new Hotel(_pool, in, out);
+               Hotel.runSession(esql);
+               out.println("Bye !");
+            }catch (EOFException e){
+               // client disconnected.
+            }catch (Exception e){
+               out.println(e.getMessage());
+            }
+         }catch (IOException e){
+            // client went away, nothing to report.
+         }finally{
+            if (esql != null)
+               esql.cleanup();
+            try{
+               this._client.close();
+            }catch (IOException e){
+               // ignored.
+            }
+            _admission.release();
+         }
+      }
+   }//end Session
+
+}//end HotelServer
@@ -0,0 +1,458 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * This class checks the indexes against the statements the menu actions
+ * really run. It runs every HotelBenchmark operation once and records each
+ * query template with the parameters it was first bound to, then runs
+ * EXPLAIN (ANALYZE, BUFFERS) on every template and reports its median
+ * execution time, the shared buffers it touched, the sequential scans of
+ * tables that are not tiny, the indexes no plan used, and the indexes
+ * whose columns are the leading columns of another index of the table.
+ *
+ * Plans of partitioned tables, such as RoomBookings, name the partitions
+ * and the index each partition has of an index of the table. They are
+ * reported under the partitioned table and its index, found with
+ * pg_partition_root (PostgreSQL 12 or later).
+ *
+ * Given index scripts, such as sql/src/create_indexes.sql, it runs them
+ * one at a time and explains the templates again, so the timings with the
+ * indexes of the database and with each script can be compared. Scripts
+ * and explained statements run in transactions that are rolled back, and
+ * the database keeps its indexes. Recording runs the booking operations,
+ * which do book rooms, so use a scratch database filled by DataGenerator,
+ * as for the benchmark.
+ *
+ * Settings are read from system properties:
+ *   hotel.advisor.runs      times each template is explained, the median is kept
+ *   hotel.advisor.minRows   tables with fewer rows are not flagged for sequential scans
+ *
+ */
+public class IndexAdvisor {
+
+   public static final int DEFAULT_RUNS = 5;
+   public static final int DEFAULT_MIN_ROWS = 1000;
+
+   private static final Pattern EXECUTION_TIME = Pattern.compile("(?:Execution Time|Total runtime): ([0-9.]+) ms");
+   private static final Pattern BUFFERS = Pattern.compile("Buffers: shared(?: hit=(\\d+))?(?: read=(\\d+))?");
+   private static final Pattern SEQ_SCAN = Pattern.compile("Seq Scan on (\\w+)");
+   private static final Pattern INDEX_SCAN = Pattern.compile("(?:Index Scan|Index Only Scan|Bitmap Index Scan)(?: Backward)? (?:using|on) (\\w+)");
+
+   private static final String INDEX_QUERY =
+      "SELECT C.relname, I.relname, X.indisunique, CAST(X.indkey AS text), " +
+      "X.indexprs IS NULL AND X.indpred IS NULL AND M.amname = 'btree' " +
+      "FROM pg_index X JOIN pg_class I ON I.oid = X.indexrelid JOIN pg_class C ON C.oid = X.indrelid " +
+      "JOIN pg_am M ON M.oid = I.relam JOIN pg_namespace N ON N.oid = C.relnamespace " +
+      "WHERE N.nspname = current_schema() AND NOT C.relispartition ORDER BY C.relname, I.relname";
+
+   private static final String TABLE_QUERY =
+      "SELECT C.relname, C.reltuples FROM pg_class C JOIN pg_namespace N ON N.oid = C.relnamespace " +
+      "WHERE N.nspname = current_schema() AND C.relkind = 'r'";
+
+   // partitions, and the indexes of partitions, with the partitioned table or index they belong to
+   private static final String PARTITION_QUERY =
+      "SELECT C.relname, R.relname FROM pg_class C JOIN pg_namespace N ON N.oid = C.relnamespace " +
+      "JOIN pg_class R ON R.oid = pg_partition_root(C.oid) WHERE N.nspname = current_schema() AND C.relispartition";
+
+   /*
+    * A recorded template, with the parameters it was first bound to
+    **/
+   private static class Template {
+      final String sql;
+      final Object[] params;
+
+      Template(String sql, Object[] params) {
+         this.sql = sql;
+         this.params = params;
+      }
+   }//end Template
+
+   /*
+    * The plans of every template with one set of indexes
+    **/
+   private static class Report {
+      final String name;
+      final double[] millis;
+      final long[] buffers;
+      final String[] seqScans;
+      final Set<String> usedIndexes = new TreeSet<String>();
+      final List<String> findings = new ArrayList<String>();
+
+      Report(String name, int templates) {
+         this.name = name;
+         this.millis = new double[templates];
+         this.buffers = new long[templates];
+         this.seqScans = new String[templates];
+         Arrays.fill(this.millis, Double.NaN);
+      }
+   }//end Report
+
+   private final int _runs;
+   private final long _minRows;
+
+   public IndexAdvisor(int runs, long minRows) {
+      this._runs = runs;
+      this._minRows = minRows;
+   }//end IndexAdvisor
+
+   /**
+    * Runs every benchmark operation once and records the statements.
+    *
+    * @param benchmark a benchmark that read its sample
+    * @param seed seed of the generated inputs
+    * @return the templates, in the order they first ran
+    */
+   private static List<Template> record(HotelBenchmark benchmark, long seed) {
+      final Map<String, Object[]> templates = new LinkedHashMap<String, Object[]>();
+      Hotel.observer = new Hotel.StatementObserver() {
+         public void bound(String sql, Object[] params) {
+            synchronized (templates) {
+               if (!templates.containsKey(sql))
+                  templates.put(sql, params.clone());
+            }
+         }
+      };
+      try{
+         for (String operation : benchmark.getOperations())
+            try{
+               benchmark.runOnce(operation, seed);
+            }catch (Exception e){
+               System.err.println(operation + ": " + e.getMessage());
+            }
+      }finally{
+         Hotel.observer = null;
+      }
+      List<Template> recorded = new ArrayList<Template>();
+      synchronized (templates) {
+         for (Map.Entry<String, Object[]> template : templates.entrySet())
+            recorded.add(new Template(template.getKey(), template.getValue()));
+      }
+      return recorded;
+   }//end record
+
+   /**
+    * Explains every template with the indexes the connection sees, and
+    * checks the indexes. Writes are rolled back after each run.
+    *
+    * @param connection a connection with auto-commit off
+    * @param name what the indexes are, for the report
+    * @param templates the recorded templates
+    * @return the report
+    * @throws java.sql.SQLException when the catalog cannot be read
+    */
+   private Report explain(Connection connection, String name, List<Template> templates) throws SQLException {
+      Report report = new Report(name, templates.size());
+      Map<String, String> roots = partitionRoots(connection);
+      Map<String, Double> tableRows = tableRows(connection);
+      Statement stmt = connection.createStatement();
+      for (int t = 0; t < templates.size(); ++t){
+         double[] runs = new double[this._runs];
+         int count = 0;
+         for (int r = 0; r < this._runs; ++r){
+            stmt.execute("SAVEPOINT explain");
+            try{
+               List<String> plan = plan(connection, templates.get(t));
+               runs[count++] = match(EXECUTION_TIME, plan, 0);
+               if (r == this._runs - 1)
+                  read(report, t, plan, roots, tableRows);
+            }catch (SQLException e){
+               report.findings.add("#" + (t + 1) + " failed: " + e.getMessage());
+               break;
+            }finally{
+               stmt.execute("ROLLBACK TO SAVEPOINT explain");
+            }
+         }
+         if (count > 0){
+            Arrays.sort(runs, 0, count);
+            report.millis[t] = runs[count / 2];
+         }
+      }
+      checkIndexes(connection, report);
+      return report;
+   }//end explain
+
+   private static List<String> plan(Connection connection, Template template) throws SQLException {
+      PreparedStatement stmt = connection.prepareStatement("EXPLAIN (ANALYZE, BUFFERS) " + template.sql);
+      try{
+         for (int i = 0; i < template.params.length; ++i)
+            stmt.setObject(i + 1, template.params[i]);
+         List<String> plan = new ArrayList<String>();
+         ResultSet rs = stmt.executeQuery();
+         while (rs.next())
+            plan.add(rs.getString(1));
+         rs.close();
+         return plan;
+      }finally{
+         stmt.close();
+      }
+   }//end plan
+
+   /*
+    * Takes the buffers, sequential scans and indexes out of a plan. Scans
+    * of partitions count for their partitioned table and index.
+    **/
+   private void read(Report report, int t, List<String> plan, Map<String, String> roots, Map<String, Double> tableRows) {
+      // table scanned, and the number of its partitions scanned and their rows
+      Map<String, long[]> seqScans = new TreeMap<String, long[]>();
+      for (String line : plan){
+         Matcher scan = SEQ_SCAN.matcher(line);
+         if (scan.find()){
+            Double rows = tableRows.get(scan.group(1));
+            if (rows == null || rows >= this._minRows){
+               String table = root(roots, scan.group(1));
+               long[] scanned = seqScans.get(table);
+               if (scanned == null)
+                  seqScans.put(table, scanned = new long[2]);
+               if (!table.equals(scan.group(1)))
+                  ++scanned[0];
+               scanned[1] += rows == null ? 0 : Math.round(rows);
+            }
+         }
+         Matcher index = INDEX_SCAN.matcher(line);
+         if (index.find())
+            report.usedIndexes.add(root(roots, index.group(1)));
+      }
+      // the top node counts the buffers of the whole plan
+      for (String line : plan){
+         Matcher buffers = BUFFERS.matcher(line);
+         if (buffers.find()){
+            report.buffers[t] = (buffers.group(1) == null ? 0 : Long.parseLong(buffers.group(1)))
+                              + (buffers.group(2) == null ? 0 : Long.parseLong(buffers.group(2)));
+            break;
+         }
+      }
+      report.seqScans[t] = seqScans.isEmpty() ? "-" : seqScans.keySet().toString();
+      for (Map.Entry<String, long[]> scan : seqScans.entrySet())
+         report.findings.add("#" + (t + 1) + " reads " + scan.getKey() + " with a sequential scan ("
+                             + (scan.getValue()[0] > 0 ? scan.getValue()[0] + " partitions, " : "")
+                             + scan.getValue()[1] + " rows)");
+   }//end read
+
+   private static String root(Map<String, String> roots, String relation) {
+      String root = roots.get(relation);
+      return root == null ? relation : root;
+   }//end root
+
+   /*
+    * Flags btree indexes made redundant by another index starting with the
+    * same columns, and indexes no plan used. Unique indexes enforce
+    * constraints and are only reported as the index making another redundant.
+    **/
+   private static void checkIndexes(Connection connection, Report report) throws SQLException {
+      List<String[]> indexes = new ArrayList<String[]>();
+      Statement stmt = connection.createStatement();
+      ResultSet rs = stmt.executeQuery(INDEX_QUERY);
+      while (rs.next())
+         indexes.add(new String[] { rs.getString(1), rs.getString(2), rs.getBoolean(3) ? "unique" : "",
+                                    rs.getString(4).trim(), rs.getBoolean(5) ? "plain" : "" });
+      rs.close();
+      stmt.close();
+      for (String[] index : indexes){
+         if (!index[2].isEmpty())
+            continue;
+         if (!index[4].isEmpty())
+            for (String[] other : indexes){
+               if (other == index || !other[0].equals(index[0]) || other[4].isEmpty())
+                  continue;
+               boolean prefix = (other[3] + " ").startsWith(index[3] + " ");
+               // of two identical indexes, only one is reported
+               boolean same = other[3].equals(index[3]);
+               if (prefix && (!same || !other[2].isEmpty() || other[1].compareTo(index[1]) < 0)){
+                  report.findings.add("index " + index[1] + " on " + index[0] + (same ? " duplicates " : " is a prefix of ") + other[1]);
+                  break;
+               }
+            }
+         if (!report.usedIndexes.contains(index[1]))
+            report.findings.add("index " + index[1] + " on " + index[0] + " was not used by any recorded statement");
+      }
+   }//end checkIndexes
+
+   private static Map<String, Double> tableRows(Connection connection) throws SQLException {
+      Map<String, Double> rows = new HashMap<String, Double>();
+      Statement stmt = connection.createStatement();
+      ResultSet rs = stmt.executeQuery(TABLE_QUERY);
+      while (rs.next())
+         rows.put(rs.getString(1), rs.getDouble(2));
+      rs.close();
+      stmt.close();
+      return rows;
+   }//end tableRows
+
+   private static Map<String, String> partitionRoots(Connection connection) throws SQLException {
+      Map<String, String> roots = new HashMap<String, String>();
+      Statement stmt = connection.createStatement();
+      ResultSet rs = stmt.executeQuery(PARTITION_QUERY);
+      while (rs.next())
+         roots.put(rs.getString(1), rs.getString(2));
+      rs.close();
+      stmt.close();
+      return roots;
+   }//end partitionRoots
+
+   private static double match(Pattern pattern, List<String> plan, double otherwise) {
+      for (String line : plan){
+         Matcher matcher = pattern.matcher(line);
+         if (matcher.find())
+            return Double.parseDouble(matcher.group(1));
+      }
+      return otherwise;
+   }//end match
+
+   /*
+    * Runs an index script, one statement per ';'. Lines starting with
+    * "--" are comments; statements with ';' inside them are not supported.
+    **/
+   private static void runScript(Connection connection, String file) throws IOException, SQLException {
+      StringBuilder sql = new StringBuilder();
+      BufferedReader in = new BufferedReader(new FileReader(file));
+      try{
+         String line;
+         while ((line = in.readLine()) != null)
+            if (!line.trim().startsWith("--"))
+               sql.append(line).append('\n');
+      }finally{
+         in.close();
+      }
+      Statement stmt = connection.createStatement();
+      for (String statement : sql.toString().split(";"))
+         if (!statement.trim().isEmpty())
+            stmt.execute(statement);
+      stmt.execute("ANALYZE");
+      stmt.close();
+   }//end runScript
+
+   private static void print(List<Template> templates, List<Report> reports) {
+      for (Report report : reports){
+         System.out.println();
+         System.out.println("Indexes: " + report.name);
+         System.out.println(String.format("%4s %10s %10s  %s", "#", "median ms", "buffers", "sequential scans"));
+         for (int t = 0; t < templates.size(); ++t)
+            System.out.println(String.format("%4d %10s %10d  %s", t + 1, millis(report.millis[t]),
+                                             report.buffers[t], report.seqScans[t] == null ? "-" : report.seqScans[t]));
+         for (String finding : report.findings)
+            System.out.println("   " + finding);
+      }
+      if (reports.size() > 1){
+         System.out.println();
+         System.out.println("Median ms, " + reports.get(0).name + " against each script");
+         StringBuilder header = new StringBuilder(String.format("%4s %12s", "#", reports.get(0).name));
+         for (Report report : reports.subList(1, reports.size()))
+            header.append(String.format(" %24s %8s", report.name, "speedup"));
+         System.out.println(header);
+         for (int t = 0; t < templates.size(); ++t){
+            double before = reports.get(0).millis[t];
+            StringBuilder line = new StringBuilder(String.format("%4d %12s", t + 1, millis(before)));
+            for (Report report : reports.subList(1, reports.size())){
+               double after = report.millis[t];
+               line.append(String.format(" %24s %8s", millis(after),
+                                         Double.isNaN(before) || Double.isNaN(after) || after == 0
+                                            ? "-" : String.format("%.1fx", before / after)));
+            }
+            System.out.println(line);
+         }
+      }
+      System.out.println();
+      System.out.println("Statements");
+      for (int t = 0; t < templates.size(); ++t)
+         System.out.println(String.format("%4d %s", t + 1, templates.get(t).sql));
+   }//end print
+
+   private static String millis(double value) {
+      return Double.isNaN(value) ? "failed" : String.format("%.3f", value);
+   }//end millis
+
+   /**
+    * The main execution method
+    *
+    * @param args the command line arguments this inclues the <dbname> <port> <user> [index script ...]
+    */
+   public static void main(String[] args) {
+      if (args.length < 3) {
+         System.err.println (
+            "Usage: " +
+            "java [-classpath <classpath>] " +
+            IndexAdvisor.class.getName () +
+            " <dbname> <port> <user> [index script ...]");
+         return;
+      }//end if
+
+      HotelConnectionPool pool = null;
+      Connection connection = null;
+      boolean failed = false;
+      try{
+         // use postgres JDBC driver.
+         Class.forName ("org.postgresql.Driver");
+         String url = Hotel.connectionURL (args[0], args[1]);
+         IndexAdvisor advisor = new IndexAdvisor (Integer.getInteger ("hotel.advisor.runs", DEFAULT_RUNS),
+                                                  Integer.getInteger ("hotel.advisor.minRows", DEFAULT_MIN_ROWS));
+         pool = new HotelConnectionPool (url, args[2], "", 1, HotelServer.DEFAULT_MAX_WAIT_MILLIS);
+
+         // the location index stays empty, so the proximity searches query the database
+         HotelBenchmark benchmark = new HotelBenchmark (pool);
+         benchmark.sample ();
+         List<Template> templates = record (benchmark, DataGenerator.DEFAULT_SEED);
+         System.out.println ("Recorded " + templates.size () + " statements from " + benchmark.getOperations ().size () + " operations");
+
+         connection = DriverManager.getConnection (url, args[2], "");
+         connection.setAutoCommit (false);
+         List<Report> reports = new ArrayList<Report> ();
+         reports.add (advisor.explain (connection, "current", templates));
+         connection.rollback ();
+         for (int i = 3; i < args.length; ++i){
+            try{
+               runScript (connection, args[i]);
+               reports.add (advisor.explain (connection, args[i].substring (args[i].lastIndexOf ('/') + 1), templates));
+            }finally{
+               connection.rollback ();
+            }
+         }
+         print (templates, reports);
+      }catch(Exception e) {
+         System.err.println (e.getMessage ());
+         failed = true;
+      }finally{
+         try{
+            if (connection != null)
+               connection.close ();
+         }catch (SQLException e){
+            // ignored.
+         }
+         if (pool != null)
+            pool.close ();
+      }//end try
+      if (failed)
+         System.exit (1);
+   }//end main
+
+}//end IndexAdvisor
@@ -0,0 +1,179 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.io.IOException;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * This class pages through a report ordered by a date and an ID. Each page
+ * seeks past the key of the last row of the previous page, for instance
+ * with "(B.bookingDate, B.bookingID) > (CAST(? AS date), ?)", instead of
+ * skipping rows with OFFSET, so with an index on the date and the ID every
+ * page costs the same as the first one.
+ *
+ * The query marks where the key and the row limit are bound with the KEY,
+ * KEY_DATE and LIMIT placeholder objects among its parameters. The first
+ * page binds a key before every row, '-infinity' (or 'infinity' when
+ * descending). Since every page only needs the key, the session gives its
+ * connections back while the user decides whether to see the next page.
+ *
+ */
+public class KeysetPager {
+
+   /**
+    * Parameter standing for the key of the last row read: binds its date,
+    * as text, then its ID.
+    */
+   public static final Object KEY = new Object();
+
+   /**
+    * Parameter standing for the date of the key alone, for a plain bound
+    * such as "B.bookingDate >= CAST(? AS date)" next to the seek, which
+    * lets postgres skip the partitions before (or after) the key.
+    */
+   public static final Object KEY_DATE = new Object();
+
+   /**
+    * Parameter standing for the number of rows to read, one more than a
+    * page to know whether another page follows.
+    */
+   public static final Object LIMIT = new Object();
+
+   private final String _query;
+   private final Object[] _params;
+   private final int _dateColumn;
+   private final int _idColumn;
+   private final int _pageSize;
+
+   private String[] _columns = null;
+   private String _lastDate;
+   private int _lastID = 0;
+   private boolean _more = true;
+
+   /**
+    * @param query the query template, ordered by the date and ID columns
+    * @param dateColumn the result column holding the date of the key
+    * @param idColumn the result column holding the ID of the key
+    * @param descending true when the query orders the newest first
+    * @param pageSize the rows per page
+    * @param params the values for the placeholders, with KEY, KEY_DATE and LIMIT
+    */
+   public KeysetPager(String query, int dateColumn, int idColumn, boolean descending, int pageSize, Object... params) {
+      this._query = query;
+      this._params = params;
+      this._dateColumn = dateColumn;
+      this._idColumn = idColumn;
+      this._pageSize = pageSize;
+      this._lastDate = descending ? "infinity" : "-infinity";
+   }//end KeysetPager
+
+   /**
+    * Reads the next page.
+    *
+    * @param esql the session to query with
+    * @return the rows of the page, as text, empty after the last page
+    * @throws java.sql.SQLException when failed to execute the query
+    */
+   public List<String[]> next(Hotel esql) throws SQLException {
+      if (!this._more)
+         return new ArrayList<String[]>();
+      List<Object> params = new ArrayList<Object>(this._params.length + 2);
+      for (Object param : this._params){
+         if (param == KEY){
+            params.add(this._lastDate);
+            params.add(this._lastID);
+         }
+         else if (param == KEY_DATE)
+            params.add(this._lastDate);
+         else if (param == LIMIT)
+            params.add(this._pageSize + 1);
+         else
+            params.add(param);
+      }
+      final List<String[]> rows = new ArrayList<String[]>(this._pageSize + 1);
+      esql.executeQueryAndProcess(this._query, new Hotel.RowHandler() {
+         public void handle(ResultSet rs) throws SQLException {
+            if (_columns == null){
+               ResultSetMetaData rsmd = rs.getMetaData();
+               _columns = new String[rsmd.getColumnCount()];
+               for (int i = 1; i <= _columns.length; ++i)
+                  _columns[i - 1] = rsmd.getColumnName(i);
+            }
+            String[] row = new String[_columns.length];
+            for (int i = 1; i <= row.length; ++i)
+               row[i - 1] = rs.getString(i);
+            rows.add(row);
+         }
+      }, params.toArray());
+      this._more = rows.size() > this._pageSize;
+      if (this._more)
+         rows.remove(rows.size() - 1);
+      if (!rows.isEmpty()){
+         String[] last = rows.get(rows.size() - 1);
+         this._lastDate = last[this._dateColumn];
+         this._lastID = Integer.parseInt(last[this._idColumn].trim());
+      }
+      return rows;
+   }//end next
+
+   /**
+    * @return true when another page follows the last one read
+    */
+   public boolean hasMore() {
+      return this._more;
+   }//end hasMore
+
+   /**
+    * @return the column names, or null before a row was read
+    */
+   public String[] getColumns() {
+      return this._columns;
+   }//end getColumns
+
+   /**
+    * Prints the pages one after the other, asking before each next page.
+    *
+    * @param esql the session to query and print with
+    * @return the number of rows printed
+    * @throws java.sql.SQLException when failed to execute the query
+    * @throws java.io.IOException when failed to read the answer
+    */
+   public int print(Hotel esql) throws SQLException, IOException {
+      int rowCount = 0;
+      do{
+         rowCount += esql.printRows(getColumns(), next(esql));
+      }while (askNext(esql));
+      return rowCount;
+   }//end print
+
+   /**
+    * Asks whether to show the next page, when there is one. No connection
+    * is held while waiting for the answer, the next page checks one out.
+    *
+    * @param esql the session to ask
+    * @return true when the user wants the next page
+    * @throws java.io.IOException when failed to read the answer
+    */
+   public boolean askNext(Hotel esql) throws IOException {
+      if (!this._more)
+         return false;
+      esql.releaseLeases();
+      esql.out.print("\tShow the next page? (y/n): ");
+      return esql.readLine().trim().equalsIgnoreCase("y");
+   }//end askNext
+
+}//end KeysetPager
@@ -0,0 +1,113 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * This class counts latencies in buckets that grow with the value, like
+ * HdrHistogram: below 64 microseconds every microsecond has its bucket,
+ * above that every power of two is split into 32 buckets, so percentiles
+ * are within about 3% of the true value from microseconds to days.
+ *
+ * Recording takes no lock and allocates nothing, so many threads can
+ * record into one histogram all the time.
+ *
+ */
+public class LatencyHistogram {
+
+   // buckets per power of two, as a number of bits
+   private static final int SUB_BITS = 5;
+   private static final int SUB = 1 << SUB_BITS;
+
+   // values up to 2^40 microseconds, about 12 days, larger ones go to the last bucket
+   private static final int MAX_BITS = 40;
+   private static final int BUCKETS = 2 * SUB + (MAX_BITS - SUB_BITS - 1) * SUB;
+
+   private final AtomicLongArray _counts = new AtomicLongArray(BUCKETS);
+   private final AtomicLong _count = new AtomicLong();
+   private final AtomicLong _totalMicros = new AtomicLong();
+   private final AtomicLong _maxMicros = new AtomicLong();
+
+   /**
+    * Records one latency.
+    *
+    * @param nanos the latency in nanoseconds
+    */
+   public void record(long nanos) {
+      long micros = Math.max(0, nanos / 1000);
+      this._counts.incrementAndGet(index(micros));
+      this._count.incrementAndGet();
+      this._totalMicros.addAndGet(micros);
+      long max = this._maxMicros.get();
+      while (micros > max && !this._maxMicros.compareAndSet(max, micros))
+         max = this._maxMicros.get();
+   }//end record
+
+   public long getCount() {
+      return this._count.get();
+   }//end getCount
+
+   /**
+    * @return the mean latency in milliseconds
+    */
+   public double getMeanMillis() {
+      long count = this._count.get();
+      return count == 0 ? 0 : this._totalMicros.get() / 1000.0 / count;
+   }//end getMeanMillis
+
+   public double getMaxMillis() {
+      return this._maxMicros.get() / 1000.0;
+   }//end getMaxMillis
+
+   /**
+    * @param percent the percentile, from 0 to 100
+    * @return the latency in milliseconds that percent of the records do
+    *         not exceed, as the upper end of its bucket
+    */
+   public double getPercentileMillis(double percent) {
+      long count = this._count.get();
+      if (count == 0)
+         return 0;
+      long target = Math.max(1, (long) Math.ceil(percent / 100 * count));
+      long seen = 0;
+      for (int i = 0; i < BUCKETS; ++i){
+         seen += this._counts.get(i);
+         if (seen >= target)
+            return Math.min(highest(i), this._maxMicros.get()) / 1000.0;
+      }
+      return getMaxMillis();
+   }//end getPercentileMillis
+
+   /*
+    * The bucket of a value: the value itself below 2 * SUB, else the power
+    * of two it falls in and its next SUB_BITS bits
+    **/
+   private static int index(long micros) {
+      if (micros < 2 * SUB)
+         return (int) micros;
+      int shift = 63 - Long.numberOfLeadingZeros(micros) - SUB_BITS;
+      int index = 2 * SUB + (shift - 1) * SUB + (int) (micros >> shift) - SUB;
+      return Math.min(index, BUCKETS - 1);
+   }//end index
+
+   // the largest value counted in a bucket
+   private static long highest(int index) {
+      if (index < 2 * SUB)
+         return index;
+      int shift = (index - 2 * SUB) / SUB + 1;
+      long top = (index - 2 * SUB) % SUB + SUB;
+      return ((top + 1) << shift) - 1;
+   }//end highest
+
+}//end LatencyHistogram
@@ -0,0 +1,215 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.nio.charset.Charset;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * This class remembers recent log ins for a short time, so a burst of log
+ * ins, like at check-in time, does not reach the database and the password
+ * hashing every time:
+ *
+ *   a user who logged in is logged in again from memory with the same
+ *   password, as long as the principal read then is not stale;
+ *   a userID that does not exist is turned down from memory;
+ *   a user is locked out for a while after too many failed attempts in a
+ *   row, and attempts during the lock out do not reach the database.
+ *
+ * Passwords are not kept, only an HMAC of them under a key drawn when the
+ * JVM starts, compared in constant time. The cache holds a bounded number
+ * of users, least recently used first out.
+ *
+ */
+public class LoginCache {
+
+   public static final int DEFAULT_MAX_USERS = 10000;
+   public static final long DEFAULT_TTL_MILLIS = 30000;
+   public static final int DEFAULT_MAX_FAILURES = 5;
+   public static final long DEFAULT_LOCKOUT_MILLIS = 60000;
+
+   private static final Charset UTF8 = Charset.forName("UTF-8");
+
+   /*
+    * What is known of one userID
+    **/
+   private static class Login {
+      // the principal and password HMAC of the last log in, null when none
+      SessionPrincipal principal;
+      byte[] verifier;
+      long loggedInAt;
+      // true when the userID did not exist at the last failed attempt
+      boolean unknown;
+      long failedAt;
+      // failed attempts in a row, and the end of the lock out
+      int failures;
+      long lockedUntil;
+   }//end Login
+
+   private final long _ttlMillis;
+   private final int _maxFailures;
+   private final long _lockoutMillis;
+   private final byte[] _key = new byte[32];
+
+   private final LinkedHashMap<Integer, Login> _entries;
+
+   private long _hits = 0, _misses = 0, _rejected = 0;
+
+   /**
+    * @param maxUsers the number of users remembered at most
+    * @param ttlMillis how long a log in or an unknown userID is remembered
+    * @param maxFailures failed attempts in a row that lock a user out,
+    *        attempts further apart than a lock out are not in a row
+    * @param lockoutMillis how long a lock out lasts
+    */
+   public LoginCache(final int maxUsers, long ttlMillis, int maxFailures, long lockoutMillis) {
+      this._ttlMillis = ttlMillis;
+      this._maxFailures = maxFailures;
+      this._lockoutMillis = lockoutMillis;
+      new SecureRandom().nextBytes(this._key);
+      this._entries = new LinkedHashMap<Integer, Login>(16, 0.75f, true) {
+         @Override
+         protected boolean removeEldestEntry(Map.Entry<Integer, Login> eldest) {
+            return size() > maxUsers;
+         }
+      };
+   }//end LoginCache
+
+   /**
+    * @return true when the user is locked out now
+    */
+   public synchronized boolean isLockedOut(int userID) {
+      Login entry = this._entries.get(userID);
+      return entry != null && entry.lockedUntil > System.currentTimeMillis();
+   }//end isLockedOut
+
+   /**
+    * Answers a log in from memory when possible.
+    *
+    * @param userID the user logging in
+    * @param password the password typed
+    * @return the principal when the same password logged in recently,
+    *         null otherwise
+    */
+   public SessionPrincipal loggedIn(int userID, String password) {
+      byte[] verifier = verifier(password);
+      synchronized (this) {
+         Login entry = this._entries.get(userID);
+         if (entry == null || entry.principal == null
+             || System.currentTimeMillis() - entry.loggedInAt > this._ttlMillis
+             || entry.principal.isStale()
+             || !MessageDigest.isEqual(entry.verifier, verifier)){
+            ++this._misses;
+            return null;
+         }
+         ++this._hits;
+         entry.failures = 0;
+         return entry.principal;
+      }
+   }//end loggedIn
+
+   /**
+    * @return true when an attempt is turned down without asking the
+    *         database: the user is locked out or the userID was recently
+    *         found not to exist
+    */
+   public synchronized boolean rejects(int userID) {
+      Login entry = this._entries.get(userID);
+      if (entry == null)
+         return false;
+      long now = System.currentTimeMillis();
+      if (entry.lockedUntil > now
+          || (entry.unknown && now - entry.failedAt <= this._ttlMillis)){
+         ++this._rejected;
+         return true;
+      }
+      return false;
+   }//end rejects
+
+   /**
+    * Remembers a log in checked against the database.
+    */
+   public void succeeded(int userID, String password, SessionPrincipal principal) {
+      byte[] verifier = verifier(password);
+      synchronized (this) {
+         Login entry = entry(userID);
+         entry.principal = principal;
+         entry.verifier = verifier;
+         entry.loggedInAt = System.currentTimeMillis();
+         entry.unknown = false;
+         entry.failures = 0;
+         entry.lockedUntil = 0;
+      }
+   }//end succeeded
+
+   /**
+    * Counts a failed attempt, locking the user out after too many.
+    *
+    * @param userID the user
+    * @param unknown true when the userID does not exist
+    */
+   public synchronized void failed(int userID, boolean unknown) {
+      Login entry = entry(userID);
+      long now = System.currentTimeMillis();
+      entry.principal = null;
+      entry.verifier = null;
+      entry.unknown = unknown;
+      if (now - entry.failedAt > this._lockoutMillis)
+         entry.failures = 0;
+      entry.failedAt = now;
+      if (++entry.failures >= this._maxFailures){
+         entry.lockedUntil = now + this._lockoutMillis;
+         entry.failures = 0;
+      }
+   }//end failed
+
+   /**
+    * Forgets what is known of a user, for instance a userID just created.
+    */
+   public synchronized void forget(int userID) {
+      this._entries.remove(userID);
+   }//end forget
+
+   private Login entry(int userID) {
+      Login entry = this._entries.get(userID);
+      if (entry == null){
+         entry = new Login();
+         this._entries.put(userID, entry);
+      }
+      return entry;
+   }//end entry
+
+   private byte[] verifier(String password) {
+      try{
+         Mac mac = Mac.getInstance("HmacSHA256");
+         mac.init(new SecretKeySpec(this._key, "HmacSHA256"));
+         return mac.doFinal(password.getBytes(UTF8));
+      }catch (GeneralSecurityException e){
+         throw new IllegalStateException("Unable to check passwords: " + e.getMessage());
+      }
+   }//end verifier
+
+   /**
+    * @return the counters of the cache, for logging
+    */
+   public synchronized String getStats() {
+      return String.format("%d users, %d hits, %d misses, %d attempts turned down",
+                           this._entries.size(), this._hits, this._misses, this._rejected);
+   }//end getStats
+
+}//end LoginCache
@@ -0,0 +1,115 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.nio.charset.Charset;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+
+/**
+ * This class hashes the passwords stored in Users.password, with PBKDF2
+ * and a random salt per user, as "pbkdf2$iterations$salt$hash" in hex.
+ * Hashes are compared in constant time, so the time a check takes does
+ * not tell how much of a guess was right.
+ *
+ * Passwords loaded as plain text (load_data.sql, BulkLoader) are still
+ * accepted, compared in constant time too, and replaced by their hash at
+ * the next successful log in (see SessionPrincipal.logIn).
+ *
+ * Settings are read from system properties:
+ *   hotel.auth.iterations  PBKDF2 iterations of new hashes
+ *
+ */
+public class PasswordHash {
+
+   public static final int DEFAULT_ITERATIONS = 10000;
+
+   private static final int ITERATIONS = Integer.getInteger("hotel.auth.iterations", DEFAULT_ITERATIONS);
+   private static final String PREFIX = "pbkdf2$";
+   private static final String ALGORITHM = "PBKDF2WithHmacSHA1";
+   private static final int SALT_BYTES = 16;
+   private static final int HASH_BITS = 160;
+   private static final Charset UTF8 = Charset.forName("UTF-8");
+
+   private static final SecureRandom _random = new SecureRandom();
+
+   // checked against when the user does not exist, so that takes as long
+   private static final String DUMMY = hash("");
+
+   /**
+    * @param password the password to store
+    * @return the salted hash to store instead
+    */
+   public static String hash(String password) {
+      byte[] salt = new byte[SALT_BYTES];
+      _random.nextBytes(salt);
+      return PREFIX + ITERATIONS + "$" + hex(salt) + "$" + hex(pbkdf2(password, salt, ITERATIONS));
+   }//end hash
+
+   /**
+    * Checks a password against what Users.password holds.
+    *
+    * @param password the password typed
+    * @param stored the stored hash, or a plain text password, null for no user
+    * @return true when they match
+    */
+   public static boolean verify(String password, String stored) {
+      if (stored == null){
+         // the same work as a real check, then no
+         verify(password, DUMMY);
+         return false;
+      }
+      stored = stored.trim();
+      if (!isHash(stored))
+         return MessageDigest.isEqual(password.getBytes(UTF8), stored.getBytes(UTF8));
+      String[] parts = stored.split("\\$");
+      if (parts.length != 4)
+         return false;
+      byte[] expected = unhex(parts[3]);
+      byte[] actual = pbkdf2(password, unhex(parts[2]), Integer.parseInt(parts[1]));
+      return MessageDigest.isEqual(expected, actual);
+   }//end verify
+
+   /**
+    * @return true when the stored value is a hash, false for plain text
+    */
+   public static boolean isHash(String stored) {
+      return stored != null && stored.trim().startsWith(PREFIX);
+   }//end isHash
+
+   private static byte[] pbkdf2(String password, byte[] salt, int iterations) {
+      try{
+         PBEKeySpec spec = new PBEKeySpec(password.toCharArray(), salt, iterations, HASH_BITS);
+         return SecretKeyFactory.getInstance(ALGORITHM).generateSecret(spec).getEncoded();
+      }catch (GeneralSecurityException e){
+         throw new IllegalStateException("Unable to hash passwords: " + e.getMessage());
+      }
+   }//end pbkdf2
+
+   private static String hex(byte[] bytes) {
+      StringBuilder sb = new StringBuilder(bytes.length * 2);
+      for (byte b : bytes)
+         sb.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+      return sb.toString();
+   }//end hex
+
+   private static byte[] unhex(String hex) {
+      byte[] bytes = new byte[hex.length() / 2];
+      for (int i = 0; i < bytes.length; ++i)
+         bytes[i] = (byte) Integer.parseInt(hex.substring(2 * i, 2 * i + 2), 16);
+      return bytes;
+   }//end unhex
+
+}//end PasswordHash
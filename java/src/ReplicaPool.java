@@ -0,0 +1,224 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This class keeps the connections to a read replica of the database, a
+ * hot standby fed by streaming replication, for the reports sessions route
+ * to it (see Hotel.readOnly()). The replica is only used while it is
+ * reachable, streaming from the primary and within the staleness bound,
+ * and for sessions whose own last write it has already replayed.
+ * Otherwise reads stay on the primary.
+ *
+ * Positions in the write-ahead log (WAL) are compared, never clocks of
+ * different servers. Every few hundred milliseconds a background thread
+ * reads the current WAL position of the primary, noting the time on this
+ * machine, then the position the replica has replayed. The replica has
+ * caught up to the time of the newest primary position it has replayed.
+ * A session that wrote reads the primary's position before its next
+ * report, and the replica serves it once it has replayed that position.
+ * Reading the replica's receiver status takes the pg_read_all_stats role.
+ *
+ */
+public class ReplicaPool {
+
+   public static final int DEFAULT_POOL_SIZE = 10;
+   public static final long DEFAULT_MAX_LAG_MILLIS = 5000;
+   public static final long DEFAULT_CHECK_MILLIS = 500;
+
+   /**
+    * The current WAL position of the primary, as a number of bytes.
+    */
+   public static final String PRIMARY_LSN_QUERY =
+      "SELECT CAST(pg_wal_lsn_diff(pg_current_wal_lsn(), '0/0') AS bigint)";
+
+   // whether the standby is streaming from the primary, and the WAL position it replayed.
+   // A server that is not a standby is never behind.
+   private static final String REPLAY_QUERY =
+      "SELECT NOT pg_is_in_recovery() OR EXISTS (SELECT 1 FROM pg_stat_wal_receiver WHERE status = 'streaming'), " +
+      "CAST(pg_wal_lsn_diff(CASE WHEN pg_is_in_recovery() THEN pg_last_wal_replay_lsn() ELSE pg_current_wal_lsn() END, '0/0') AS bigint)";
+
+   private final HotelConnectionPool _pool;
+   private final HotelConnectionPool _primary;
+   private final long _maxLagMillis;
+   private final ScheduledExecutorService _checker;
+
+   // primary WAL positions and when they were read, oldest first, used by the checker only
+   private final ArrayDeque<long[]> _samples = new ArrayDeque<long[]>();
+
+   // the time up to which the replica has replayed the primary, 0 while it is unusable
+   private volatile long _caughtUpTo = 0;
+   // the WAL position the replica has replayed
+   private volatile long _replayedLsn = -1;
+   private volatile long _lagMillis = -1;
+
+   private final AtomicLong _reads = new AtomicLong();
+   private final AtomicLong _fallbacks = new AtomicLong();
+
+   /**
+    * @param primaryURL the JDBC URL of the primary
+    * @param url the JDBC URL of the replica
+    * @param user the user name used to login to the database
+    * @param passwd the user login password
+    * @param size the maximum number of connections to the replica
+    * @param maxLagMillis how far behind the primary the replica may be
+    */
+   public ReplicaPool(String primaryURL, String url, String user, String passwd, int size, long maxLagMillis) {
+      this._pool = new HotelConnectionPool(url, user, passwd, size, 0);
+      this._primary = new HotelConnectionPool(primaryURL, user, passwd, 1, 0);
+      this._maxLagMillis = maxLagMillis;
+      this._checker = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+         public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "hotel-replica-lag");
+            thread.setDaemon(true);
+            return thread;
+         }
+      });
+   }//end ReplicaPool
+
+   /**
+    * Checks the lag now, then every few milliseconds in the background.
+    *
+    * @param checkMillis the time between two checks
+    */
+   public void start(long checkMillis) {
+      Runnable check = new Runnable() {
+         public void run() {
+            checkLag();
+         }
+      };
+      check.run();
+      this._checker.scheduleWithFixedDelay(check, checkMillis, checkMillis, TimeUnit.MILLISECONDS);
+   }//end start
+
+   private void checkLag() {
+      long checkedAt = System.currentTimeMillis();
+      HotelConnectionPool.Lease primary = null, lease = null;
+      try{
+         // the primary first, so the replica is compared with a position it may have reached
+         primary = this._primary.checkout();
+         this._samples.addLast(new long[] { checkedAt, readLong(primary, PRIMARY_LSN_QUERY) });
+         // positions older than the staleness bound cannot make the replica usable
+         while (this._samples.size() > 1 && this._samples.peekFirst()[0] < checkedAt - this._maxLagMillis)
+            this._samples.removeFirst();
+
+         lease = this._pool.checkout();
+         PreparedStatement stmt = lease.getStatements().prepare(REPLAY_QUERY);
+         ResultSet rs = stmt.executeQuery();
+         boolean streaming = rs.next() && rs.getBoolean(1);
+         long replayed = streaming ? rs.getLong(2) : -1;
+         rs.close();
+
+         // the newest primary position the replica has replayed
+         long caughtUpTo = 0;
+         for (Iterator<long[]> i = this._samples.descendingIterator(); i.hasNext() && streaming; ){
+            long[] sample = i.next();
+            if (sample[1] <= replayed){
+               caughtUpTo = sample[0];
+               break;
+            }
+         }
+         if (!streaming && this._caughtUpTo != 0)
+            System.err.println("Read replica is not streaming from the primary, reading from the primary");
+         this._replayedLsn = replayed;
+         this._lagMillis = caughtUpTo == 0 ? -1 : System.currentTimeMillis() - caughtUpTo;
+         this._caughtUpTo = caughtUpTo != 0 && this._lagMillis <= this._maxLagMillis ? caughtUpTo : 0;
+      }catch (SQLException e){
+         if (this._caughtUpTo != 0)
+            System.err.println("Read replica unavailable, reading from the primary: " + e.getMessage());
+         this._caughtUpTo = 0;
+         this._lagMillis = -1;
+      }finally{
+         this._primary.release(primary);
+         this._pool.release(lease);
+      }
+   }//end checkLag
+
+   private static long readLong(HotelConnectionPool.Lease lease, String query) throws SQLException {
+      PreparedStatement stmt = lease.getStatements().prepare(query);
+      ResultSet rs = stmt.executeQuery();
+      try{
+         if (!rs.next())
+            throw new SQLException("No result from " + query);
+         return rs.getLong(1);
+      }finally{
+         rs.close();
+      }
+   }//end readLong
+
+   /**
+    * Checks out a replica connection for a read, when the replica is
+    * within the staleness bound and has replayed the primary up to a given
+    * WAL position.
+    *
+    * @param sinceLsn the primary position after the reader's last write, see PRIMARY_LSN_QUERY, 0 for none
+    * @return a connection, or null to read from the primary instead
+    */
+   public HotelConnectionPool.Lease checkout(long sinceLsn) {
+      if (this._caughtUpTo == 0 || this._replayedLsn < sinceLsn){
+         this._fallbacks.incrementAndGet();
+         return null;
+      }
+      try{
+         HotelConnectionPool.Lease lease = this._pool.checkout();
+         this._reads.incrementAndGet();
+         return lease;
+      }catch (SQLException e){
+         // the replica is gone, until the next check says otherwise
+         this._caughtUpTo = 0;
+         this._fallbacks.incrementAndGet();
+         return null;
+      }
+   }//end checkout
+
+   public void release(HotelConnectionPool.Lease lease) {
+      this._pool.release(lease);
+   }//end release
+
+   /**
+    * Closes a connection that failed, and stops routing reads to the
+    * replica until the next check.
+    */
+   public void failed(HotelConnectionPool.Lease lease) {
+      this._caughtUpTo = 0;
+      this._pool.discard(lease);
+   }//end failed
+
+   /**
+    * Stops the lag checks and closes the connections.
+    */
+   public void close() {
+      this._checker.shutdownNow();
+      this._pool.close();
+      this._primary.close();
+   }//end close
+
+   /**
+    * @return the counters of the replica, for logging
+    */
+   public String getStats() {
+      return String.format("lag %d ms, %d reads on the replica, %d on the primary, %s",
+                           this._lagMillis, this._reads.get(), this._fallbacks.get(), this._pool.getStats());
+   }//end getStats
+
+}//end ReplicaPool
@@ -0,0 +1,158 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * This class answers which rooms of a hotel are free and which are taken
+ * for a date, or for every night of a date range. Both lists come from a
+ * single query: the rooms of the hotel left joined to the rooms booked in
+ * the range, which is read from the (hotelID, bookingDate, roomNumber)
+ * index. The cost depends on the bookings in the range, not on the whole
+ * booking history of the hotel.
+ *
+ * When the in-memory room occupancy is loaded and holds the dates asked
+ * for, the booked rooms come from its bitmaps instead and only the room
+ * prices are read from the database. With the room catalog, the rooms and
+ * their prices come from memory and only the booked room numbers are read,
+ * from the index alone.
+ *
+ */
+public class RoomAvailability {
+
+   // the columns of the available and unavailable room lists
+   public static final String[] COLUMNS = { "roomnumber", "price" };
+
+   private static final String QUERY =
+      "SELECT R.roomNumber, R.price, B.roomNumber IS NOT NULL AS booked FROM Rooms R " +
+      "LEFT JOIN (SELECT DISTINCT roomNumber FROM RoomBookings " +
+                 "WHERE hotelID = ? AND bookingDate BETWEEN CAST(? AS date) AND CAST(? AS date)) B " +
+      "ON B.roomNumber = R.roomNumber " +
+      "WHERE R.hotelID = ? ORDER BY R.roomNumber";
+
+   private static final String ROOMS_QUERY =
+      "SELECT R.roomNumber, R.price FROM Rooms R WHERE R.hotelID = ? ORDER BY R.roomNumber";
+
+   private static final String BOOKED_QUERY =
+      "SELECT DISTINCT roomNumber FROM RoomBookings " +
+      "WHERE hotelID = ? AND bookingDate BETWEEN CAST(? AS date) AND CAST(? AS date)";
+
+   // for dates in a format parseDay() does not understand
+   private static final String REVERSED_QUERY = "SELECT CAST(? AS date) > CAST(? AS date)";
+
+   private final List<String[]> _available = new ArrayList<String[]>();
+   private final List<String[]> _unavailable = new ArrayList<String[]>();
+
+   private RoomAvailability() {
+   }
+
+   /**
+    * Looks up the rooms of a hotel for one night.
+    *
+    * @param esql the session to query with
+    * @param hotelID the hotel
+    * @param date the night, in any format postgres accepts
+    * @return the free and taken rooms
+    * @throws java.sql.SQLException when failed to execute the query
+    */
+   public static RoomAvailability forDate(Hotel esql, int hotelID, String date) throws SQLException {
+      return forRange(esql, hotelID, date, date);
+   }//end forDate
+
+   /**
+    * Looks up the rooms of a hotel that are free for every night from one
+    * date to another, both included. A room booked on any of those nights
+    * is unavailable.
+    *
+    * @param esql the session to query with
+    * @param hotelID the hotel
+    * @param from the first night
+    * @param to the last night
+    * @return the free and taken rooms
+    * @throws java.sql.SQLException when failed to execute the query
+    * @throws java.lang.IllegalArgumentException when the last night is before the first
+    */
+   public static RoomAvailability forRange(Hotel esql, int hotelID, String from, String to) throws SQLException {
+      RoomAvailability result = new RoomAvailability();
+      Integer fromDay = RoomOccupancy.parseDay(from);
+      Integer toDay = RoomOccupancy.parseDay(to);
+      // a reversed range matches no booking and would show every room free
+      boolean reversed = fromDay != null && toDay != null ? toDay < fromDay
+         : !from.equals(to) && esql.executeQueryAndReturnTypedResult(REVERSED_QUERY, from, to).getInt(0, 0) != 0;
+      if (reversed)
+         throw new IllegalArgumentException("The end date " + to.trim() + " is before the start date " + from.trim());
+      BitSet booked = fromDay == null || toDay == null ? null : Hotel.occupancy.booked(hotelID, fromDay, toDay);
+      if (Hotel.catalog != null){
+         if (booked == null){
+            booked = new BitSet();
+            TypedResult rooms = esql.executeQueryAndReturnTypedResult(BOOKED_QUERY, hotelID, from, to);
+            for (int r = 0; r < rooms.getRowCount(); ++r)
+               if (rooms.getInt(r, 0) >= 0)
+                  booked.set(rooms.getInt(r, 0));
+         }
+         for (RoomCatalog.Room room : Hotel.catalog.rooms(esql, hotelID)){
+            String[] row = { Integer.toString(room.getRoomNumber()), Integer.toString(room.getPrice()) };
+            if (isBooked(booked, room.getRoomNumber()))
+               result._unavailable.add(row);
+            else
+               result._available.add(row);
+         }
+         return result;
+      }
+      if (booked != null){
+         TypedResult rooms = esql.executeQueryAndReturnTypedResult(ROOMS_QUERY, hotelID);
+         for (int r = 0; r < rooms.getRowCount(); ++r){
+            String[] row = { rooms.getString(r, 0), rooms.getString(r, 1) };
+            if (isBooked(booked, rooms.getInt(r, 0)))
+               result._unavailable.add(row);
+            else
+               result._available.add(row);
+         }
+         return result;
+      }
+
+      TypedResult rooms = esql.executeQueryAndReturnTypedResult(QUERY, hotelID, from, to, hotelID);
+      for (int r = 0; r < rooms.getRowCount(); ++r){
+         String[] row = { rooms.getString(r, 0), rooms.getString(r, 1) };
+         // the booked column is a boolean, kept as 0 or 1
+         if (rooms.getInt(r, 2) != 0)
+            result._unavailable.add(row);
+         else
+            result._available.add(row);
+      }
+      return result;
+   }//end forRange
+
+   // bitmaps only hold room numbers 0 and up, a negative one is taken
+   private static boolean isBooked(BitSet booked, int roomNumber) {
+      return roomNumber < 0 || booked.get(roomNumber);
+   }//end isBooked
+
+   /**
+    * @return the room number and price of every free room
+    */
+   public List<String[]> getAvailable() {
+      return this._available;
+   }
+
+   /**
+    * @return the room number and price of every taken room
+    */
+   public List<String[]> getUnavailable() {
+      return this._unavailable;
+   }
+
+}//end RoomAvailability
@@ -0,0 +1,274 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * This class caches the room catalog, price and image of every room, keyed
+ * by (hotelID, roomNumber). Rooms are read a hotel at a time on the first
+ * miss, so the next lookups in the same hotel and the room list of the
+ * hotel are hits.
+ *
+ * The cache holds a bounded number of rooms, evicting the least recently
+ * used ones, and reads a room again once it is older than a time to live.
+ * Rooms changed by this JVM are invalidated right away, and with the
+ * catalog_changed notification from triggers.sql the server invalidates
+ * the rooms changed by any other process.
+ *
+ */
+public class RoomCatalog {
+
+   public static final int DEFAULT_MAX_ROOMS = 100000;
+   public static final long DEFAULT_TTL_MILLIS = 300000;
+
+   private static final String HOTEL_QUERY =
+      "SELECT R.roomNumber, R.price, R.imageURL FROM Rooms R WHERE R.hotelID = ? ORDER BY R.roomNumber";
+
+   /**
+    * One room of the catalog
+    */
+   public static class Room {
+      private final int _hotelID;
+      private final int _roomNumber;
+      private final int _price;
+      private final String _imageURL;
+      private final long _readAt;
+
+      Room(int hotelID, int roomNumber, int price, String imageURL, long readAt) {
+         this._hotelID = hotelID;
+         this._roomNumber = roomNumber;
+         this._price = price;
+         this._imageURL = imageURL;
+         this._readAt = readAt;
+      }
+
+      public int getHotelID() { return this._hotelID; }
+      public int getRoomNumber() { return this._roomNumber; }
+      public int getPrice() { return this._price; }
+      public String getImageURL() { return this._imageURL; }
+   }//end Room
+
+   private final int _maxRooms;
+   private final long _ttlMillis;
+
+   // least recently used first, guarded by this
+   private final LinkedHashMap<Long, Room> _rooms;
+
+   // room numbers of the hotels read as a whole, dropped with any of their rooms
+   private final Map<Integer, int[]> _hotels = new HashMap<Integer, int[]>();
+
+   // counts invalidations, a read that overlaps one is not cached
+   private long _invalidations = 0;
+
+   private long _hits = 0, _misses = 0, _evictions = 0, _expired = 0;
+
+   public RoomCatalog(int maxRooms, long ttlMillis) {
+      this._maxRooms = maxRooms;
+      this._ttlMillis = ttlMillis;
+      this._rooms = new LinkedHashMap<Long, Room>(1024, 0.75f, true);
+   }//end RoomCatalog
+
+   /**
+    * Looks up one room.
+    *
+    * @param esql the session to read the hotel with on a miss
+    * @param hotelID the hotel
+    * @param roomNumber the room
+    * @return the room, or null when the hotel has no such room
+    * @throws java.sql.SQLException when failed to read the rooms
+    */
+   public Room room(Hotel esql, int hotelID, int roomNumber) throws SQLException {
+      synchronized (this) {
+         Room room = fresh(key(hotelID, roomNumber));
+         if (room != null){
+            ++this._hits;
+            return room;
+         }
+         int[] hotel = this._hotels.get(hotelID);
+         if (hotel != null && Arrays.binarySearch(hotel, roomNumber) < 0 && allFresh(hotelID, hotel)){
+            // the hotel is known to have no such room
+            ++this._hits;
+            return null;
+         }
+         ++this._misses;
+      }
+      for (Room room : read(esql, hotelID))
+         if (room.getRoomNumber() == roomNumber)
+            return room;
+      return null;
+   }//end room
+
+   /**
+    * Lists the rooms of a hotel.
+    *
+    * @param esql the session to read the hotel with on a miss
+    * @param hotelID the hotel
+    * @return its rooms, ordered by room number
+    * @throws java.sql.SQLException when failed to read the rooms
+    */
+   public List<Room> rooms(Hotel esql, int hotelID) throws SQLException {
+      synchronized (this) {
+         int[] hotel = this._hotels.get(hotelID);
+         if (hotel != null && allFresh(hotelID, hotel)){
+            List<Room> rooms = new ArrayList<Room>(hotel.length);
+            for (int roomNumber : hotel)
+               rooms.add(this._rooms.get(key(hotelID, roomNumber)));
+            ++this._hits;
+            return rooms;
+         }
+         ++this._misses;
+      }
+      return read(esql, hotelID);
+   }//end rooms
+
+   /**
+    * Drops a room, after it changed.
+    */
+   public synchronized void invalidate(int hotelID, int roomNumber) {
+      ++this._invalidations;
+      this._rooms.remove(key(hotelID, roomNumber));
+      this._hotels.remove(hotelID);
+   }//end invalidate
+
+   /**
+    * Drops every room of a hotel, after rooms were added or removed.
+    */
+   public synchronized void invalidateHotel(int hotelID) {
+      ++this._invalidations;
+      this._hotels.remove(hotelID);
+      for (Iterator<Long> keys = this._rooms.keySet().iterator(); keys.hasNext(); )
+         if ((int) (keys.next() >> 32) == hotelID)
+            keys.remove();
+   }//end invalidateHotel
+
+   /**
+    * Drops everything, when it is not known what changed.
+    */
+   public synchronized void clear() {
+      ++this._invalidations;
+      this._rooms.clear();
+      this._hotels.clear();
+   }//end clear
+
+   /**
+    * Applies a catalog_changed notification: "hotelID:roomNumber" for one
+    * room, "hotelID" for a whole hotel, null for everything.
+    */
+   public void changed(String payload) {
+      try{
+         if (payload != null){
+            int colon = payload.indexOf(':');
+            if (colon < 0)
+               invalidateHotel(Integer.parseInt(payload.trim()));
+            else
+               invalidate(Integer.parseInt(payload.substring(0, colon).trim()),
+                          Integer.parseInt(payload.substring(colon + 1).trim()));
+            return;
+         }
+      }catch (NumberFormatException e){
+         // not a room, fall through.
+      }
+      clear();
+   }//end changed
+
+   /**
+    * @return the share of lookups answered from memory, from 0 to 1
+    */
+   public synchronized double getHitRatio() {
+      long lookups = this._hits + this._misses;
+      return lookups == 0 ? 0 : (double) this._hits / lookups;
+   }//end getHitRatio
+
+   /**
+    * @return the lookup counters, for logging
+    */
+   public synchronized String getStats() {
+      return String.format("%d rooms, %d hits, %d misses (%.1f%% hit ratio), %d evicted, %d expired, %d invalidations",
+                           this._rooms.size(), this._hits, this._misses, 100 * getHitRatio(),
+                           this._evictions, this._expired, this._invalidations);
+   }//end getStats
+
+   /*
+    * Reads every room of a hotel and caches them, unless an invalidation
+    * happened while reading
+    **/
+   private List<Room> read(Hotel esql, int hotelID) throws SQLException {
+      long invalidations;
+      synchronized (this) {
+         invalidations = this._invalidations;
+      }
+      TypedResult result = esql.executeQueryAndReturnTypedResult(HOTEL_QUERY, hotelID);
+      long now = System.currentTimeMillis();
+      List<Room> rooms = new ArrayList<Room>(result.getRowCount());
+      int[] numbers = new int[result.getRowCount()];
+      for (int r = 0; r < result.getRowCount(); ++r){
+         numbers[r] = result.getInt(r, 0);
+         rooms.add(new Room(hotelID, numbers[r], result.getInt(r, 1), result.getString(r, 2), now));
+      }
+      synchronized (this) {
+         if (invalidations == this._invalidations && rooms.size() <= this._maxRooms){
+            for (Room room : rooms)
+               this._rooms.put(key(hotelID, room.getRoomNumber()), room);
+            this._hotels.put(hotelID, numbers);
+            evict();
+         }
+      }
+      return rooms;
+   }//end read
+
+   /*
+    * Returns a cached room younger than the time to live. Called with the
+    * lock held.
+    **/
+   private Room fresh(long key) {
+      Room room = this._rooms.get(key);
+      if (room != null && System.currentTimeMillis() - room._readAt > this._ttlMillis){
+         this._rooms.remove(key);
+         this._hotels.remove(room.getHotelID());
+         ++this._expired;
+         return null;
+      }
+      return room;
+   }//end fresh
+
+   private boolean allFresh(int hotelID, int[] hotel) {
+      for (int roomNumber : hotel)
+         if (fresh(key(hotelID, roomNumber)) == null){
+            this._hotels.remove(hotelID);
+            return false;
+         }
+      return true;
+   }//end allFresh
+
+   private void evict() {
+      Iterator<Room> eldest = this._rooms.values().iterator();
+      while (this._rooms.size() > this._maxRooms && eldest.hasNext()) {
+         Room room = eldest.next();
+         eldest.remove();
+         this._hotels.remove(room.getHotelID());
+         ++this._evictions;
+      }
+   }//end evict
+
+   private static long key(int hotelID, int roomNumber) {
+      return ((long) hotelID << 32) | (roomNumber & 0xffffffffL);
+   }//end key
+
+}//end RoomCatalog
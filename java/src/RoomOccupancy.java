@@ -0,0 +1,371 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * This class keeps room occupancy in memory, so availability checks do not
+ * have to read RoomBookings. For every hotel it holds the set of its room
+ * numbers and, for every night, a bitmap of the room numbers booked that
+ * night. Nights are counted in days since 1970-01-01.
+ *
+ * Only nights from a retention window onwards are kept, which bounds the
+ * memory used; questions about older nights return null and the caller
+ * asks the database instead. Bookings made through this JVM are added as
+ * they happen, and verify() compares the bitmaps with RoomBookings to pick
+ * up bookings made elsewhere. Bookings recorded while verify() reads the
+ * database are kept when it replaces the bitmaps of their hotel. The
+ * server verifies in the background; the console calls verifyIfOlder()
+ * between menu actions.
+ *
+ * Room numbers index the bitmaps, so only rooms numbered 0 and up are
+ * kept. A negative room number is never free, and rooms stored with one
+ * are left to the database.
+ *
+ */
+public class RoomOccupancy {
+
+   // default number of past nights kept in memory
+   public static final int DEFAULT_RETENTION_DAYS = 365;
+
+   private static final long MILLIS_PER_DAY = 24L * 60 * 60 * 1000;
+
+   /*
+    * The rooms of one hotel and their bookings, guarded by its own monitor
+    **/
+   private static class HotelNights {
+      final BitSet rooms = new BitSet();
+      final TreeMap<Integer, BitSet> nights = new TreeMap<Integer, BitSet>();
+      // room and night of the bookings recorded while verify() reads, null otherwise
+      List<int[]> marked = null;
+
+      BitSet night(int day) {
+         BitSet booked = nights.get(day);
+         if (booked == null){
+            booked = new BitSet();
+            nights.put(day, booked);
+         }
+         return booked;
+      }
+   }//end HotelNights
+
+   private final int _retentionDays;
+   private final Map<Integer, HotelNights> _hotels = new ConcurrentHashMap<Integer, HotelNights>();
+
+   // first night kept in memory, older nights are evicted
+   private volatile int _firstDay = Integer.MAX_VALUE;
+   private volatile boolean _loaded = false;
+   // when the bitmaps were last built or verified
+   private volatile long _verifiedAt = 0;
+
+   public RoomOccupancy(int retentionDays) {
+      this._retentionDays = retentionDays;
+   }//end RoomOccupancy
+
+   /**
+    * @return true once the bitmaps have been built from the database
+    */
+   public boolean isLoaded() {
+      return this._loaded;
+   }//end isLoaded
+
+   /**
+    * Builds the bitmaps of every hotel from Rooms and RoomBookings, for the
+    * nights in the retention window.
+    *
+    * @param esql the session used to read the relations
+    * @throws java.sql.SQLException when failed to read the relations
+    */
+   public void load(Hotel esql) throws SQLException {
+      int firstDay = today() - this._retentionDays;
+      Map<Integer, HotelNights> hotels = read(esql, firstDay);
+      this._firstDay = firstDay;
+      this._hotels.keySet().retainAll(hotels.keySet());
+      this._hotels.putAll(hotels);
+      this._verifiedAt = System.currentTimeMillis();
+      this._loaded = true;
+   }//end load
+
+   /**
+    * Tells whether a room is free on a night.
+    *
+    * @return TRUE or FALSE, or null when the answer is not in memory.
+    *         FALSE for a negative room number.
+    */
+   public Boolean isFree(int hotelID, int roomNumber, int day) {
+      if (roomNumber < 0)
+         return Boolean.FALSE;
+      HotelNights hotel = this._hotels.get(hotelID);
+      if (hotel == null || day < this._firstDay)
+         return null;
+      synchronized (hotel) {
+         if (!hotel.rooms.get(roomNumber))
+            return null;
+         BitSet booked = hotel.nights.get(day);
+         return booked == null || !booked.get(roomNumber);
+      }
+   }//end isFree
+
+   /**
+    * Returns the room numbers booked on any night from one day to another,
+    * both included.
+    *
+    * @return the booked room numbers, or null when not in memory
+    */
+   public BitSet booked(int hotelID, int fromDay, int toDay) {
+      HotelNights hotel = this._hotels.get(hotelID);
+      if (hotel == null || fromDay < this._firstDay || toDay < fromDay)
+         return null;
+      BitSet result = new BitSet();
+      synchronized (hotel) {
+         for (BitSet night : hotel.nights.subMap(fromDay, true, toDay, true).values())
+            result.or(night);
+      }
+      return result;
+   }//end booked
+
+   /**
+    * Returns the room numbers free on every night from one day to another.
+    *
+    * @return the free room numbers, or null when not in memory
+    */
+   public BitSet free(int hotelID, int fromDay, int toDay) {
+      BitSet booked = booked(hotelID, fromDay, toDay);
+      if (booked == null)
+         return null;
+      HotelNights hotel = this._hotels.get(hotelID);
+      BitSet result;
+      synchronized (hotel) {
+         result = (BitSet) hotel.rooms.clone();
+      }
+      result.andNot(booked);
+      return result;
+   }//end free
+
+   /**
+    * Records a booking made by this JVM.
+    */
+   public void markBooked(int hotelID, int roomNumber, int day) {
+      if (day < this._firstDay || roomNumber < 0)
+         return;
+      HotelNights hotel = this._hotels.get(hotelID);
+      while (hotel != null) {
+         synchronized (hotel) {
+            hotel.rooms.set(roomNumber);
+            hotel.night(day).set(roomNumber);
+            if (hotel.marked != null)
+               hotel.marked.add(new int[] { roomNumber, day });
+         }
+         // verify() replaced the bitmaps meanwhile, mark the new ones too
+         HotelNights current = this._hotels.get(hotelID);
+         if (current == hotel)
+            return;
+         hotel = current;
+      }
+   }//end markBooked
+
+   /**
+    * Drops the nights that fell out of the retention window.
+    */
+   public void evictOldNights() {
+      int firstDay = today() - this._retentionDays;
+      this._firstDay = firstDay;
+      for (HotelNights hotel : this._hotels.values())
+         synchronized (hotel) {
+            hotel.nights.headMap(firstDay).clear();
+         }
+   }//end evictOldNights
+
+   /**
+    * Compares the bitmaps with the database and replaces the ones that
+    * differ, for instance after another process booked a room.
+    *
+    * @param esql the session used to read the relations
+    * @return the number of hotels whose bitmaps were out of date
+    * @throws java.sql.SQLException when failed to read the relations
+    */
+   public int verify(Hotel esql) throws SQLException {
+      evictOldNights();
+      int firstDay = this._firstDay;
+      // remember the bookings recorded while the database is read
+      for (HotelNights hotel : this._hotels.values())
+         synchronized (hotel) {
+            hotel.marked = new ArrayList<int[]>();
+         }
+      Map<Integer, HotelNights> hotels;
+      try{
+         hotels = read(esql, firstDay);
+      }catch (SQLException | RuntimeException e){
+         stopMarking();
+         throw e;
+      }
+      int stale = 0;
+      for (Map.Entry<Integer, HotelNights> entry : hotels.entrySet()){
+         HotelNights fresh = entry.getValue();
+         HotelNights current = this._hotels.get(entry.getKey());
+         if (current == null){
+            this._hotels.put(entry.getKey(), fresh);
+            ++stale;
+            continue;
+         }
+         synchronized (current) {
+            // bookings recorded after the read started may be missing from it
+            if (current.marked != null)
+               for (int[] mark : current.marked){
+                  fresh.rooms.set(mark[0]);
+                  fresh.night(mark[1]).set(mark[0]);
+               }
+            current.marked = null;
+            if (!sameAs(current, fresh)){
+               this._hotels.put(entry.getKey(), fresh);
+               ++stale;
+            }
+         }
+      }
+      if (this._hotels.keySet().retainAll(hotels.keySet()))
+         ++stale;
+      stopMarking();
+      this._verifiedAt = System.currentTimeMillis();
+      return stale;
+   }//end verify
+
+   private void stopMarking() {
+      for (HotelNights hotel : this._hotels.values())
+         synchronized (hotel) {
+            hotel.marked = null;
+         }
+   }//end stopMarking
+
+   /**
+    * Verifies the bitmaps when they were last built or verified longer ago
+    * than a given time, for a process that does not verify in the background.
+    *
+    * @param esql the session used to read the relations
+    * @param millis the age after which the bitmaps are verified
+    * @return the number of hotels whose bitmaps were out of date
+    * @throws java.sql.SQLException when failed to read the relations
+    */
+   public int verifyIfOlder(Hotel esql, long millis) throws SQLException {
+      if (!this._loaded || System.currentTimeMillis() - this._verifiedAt < millis)
+         return 0;
+      return verify(esql);
+   }//end verifyIfOlder
+
+   /**
+    * Turns a date typed by a user into a day number. Only the formats whose
+    * meaning does not depend on the server settings are understood:
+    * MM/DD/YYYY, as the menus ask for, and YYYY-MM-DD.
+    *
+    * @param date the date typed by the user
+    * @return the day number, or null when the format is not understood
+    */
+   public static Integer parseDay(String date) {
+      try{
+         String[] parts;
+         int year, month, dayOfMonth;
+         date = date.trim();
+         if ((parts = date.split("/")).length == 3 && parts[2].length() == 4){
+            year = Integer.parseInt(parts[2]);
+            month = Integer.parseInt(parts[0]);
+            dayOfMonth = Integer.parseInt(parts[1]);
+         }
+         else if ((parts = date.split("-")).length == 3 && parts[0].length() == 4){
+            year = Integer.parseInt(parts[0]);
+            month = Integer.parseInt(parts[1]);
+            dayOfMonth = Integer.parseInt(parts[2]);
+         }
+         else
+            return null;
+         // leave bad dates to postgres, which rejects them
+         if (month < 1 || month > 12 || dayOfMonth < 1 || dayOfMonth > daysInMonth(year, month))
+            return null;
+         return day(year, month, dayOfMonth);
+      }catch (NumberFormatException e){
+         // not a date we understand.
+      }
+      return null;
+   }//end parseDay
+
+   /**
+    * @return the day number of a civil date, negative before 1970
+    */
+   public static int day(int year, int month, int dayOfMonth) {
+      // days from civil, counting years from March so leap days come last
+      int y = month <= 2 ? year - 1 : year;
+      int era = (y >= 0 ? y : y - 399) / 400;
+      int yearOfEra = y - era * 400;
+      int dayOfYear = (153 * (month + (month > 2 ? -3 : 9)) + 2) / 5 + dayOfMonth - 1;
+      int dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+      return era * 146097 + dayOfEra - 719468;
+   }//end day
+
+   private static int daysInMonth(int year, int month) {
+      if (month == 2)
+         return (year % 4 == 0 && year % 100 != 0) || year % 400 == 0 ? 29 : 28;
+      return month == 4 || month == 6 || month == 9 || month == 11 ? 30 : 31;
+   }//end daysInMonth
+
+   public static int today() {
+      return (int) (System.currentTimeMillis() / MILLIS_PER_DAY);
+   }//end today
+
+   /*
+    * Reads rooms and bookings from the database into new bitmaps
+    **/
+   private static Map<Integer, HotelNights> read(Hotel esql, int firstDay) throws SQLException {
+      Map<Integer, HotelNights> hotels = new HashMap<Integer, HotelNights>();
+      TypedResult rooms = esql.executeQueryAndReturnTypedResult("SELECT hotelID, roomNumber FROM Rooms");
+      for (int r = 0; r < rooms.getRowCount(); ++r){
+         int hotelID = rooms.getInt(r, 0);
+         HotelNights hotel = hotels.get(hotelID);
+         if (hotel == null){
+            hotel = new HotelNights();
+            hotels.put(hotelID, hotel);
+         }
+         if (rooms.getInt(r, 1) >= 0)
+            hotel.rooms.set(rooms.getInt(r, 1));
+      }
+      // dates come back as day numbers
+      String query = "SELECT hotelID, roomNumber, bookingDate FROM RoomBookings WHERE bookingDate >= DATE '1970-01-01' + ?";
+      TypedResult bookings = esql.executeQueryAndReturnTypedResult(query, firstDay);
+      for (int r = 0; r < bookings.getRowCount(); ++r){
+         HotelNights hotel = hotels.get(bookings.getInt(r, 0));
+         if (hotel != null && bookings.getInt(r, 1) >= 0)
+            hotel.night(bookings.getInt(r, 2)).set(bookings.getInt(r, 1));
+      }
+      return hotels;
+   }//end read
+
+   private static boolean sameAs(HotelNights current, HotelNights fresh) {
+      synchronized (current) {
+         if (!current.rooms.equals(fresh.rooms))
+            return false;
+         // nights without bookings may be present as empty bitmaps
+         for (Map.Entry<Integer, BitSet> night : current.nights.entrySet())
+            if (!night.getValue().isEmpty() && !night.getValue().equals(fresh.nights.get(night.getKey())))
+               return false;
+         for (Map.Entry<Integer, BitSet> night : fresh.nights.entrySet())
+            if (!night.getValue().equals(current.nights.get(night.getKey())))
+               return false;
+         return true;
+      }
+   }//end sameAs
+
+}//end RoomOccupancy
@@ -0,0 +1,100 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * This class reserves IDs of a sequence ahead of the rows that take them,
+ * for bulk inserts that need the ID of every row on the client. One query,
+ * "SELECT nextval(...) FROM generate_series(1, n)", reserves the IDs of a
+ * whole batch, and the inserts then name their IDs, so a JDBC batch knows
+ * its keys without a RETURNING per row.
+ *
+ * With a block size above 0, every reservation takes that many IDs more
+ * and keeps them for the next reservations of the JVM, so small batches do
+ * not each cost a query. IDs reserved and never used leave gaps in the
+ * sequence, like rolled back inserts do.
+ *
+ */
+public class SequenceAllocator {
+
+   private final int _blockSize;
+
+   // IDs reserved and not handed out yet, by sequence
+   private final Map<String, int[]> _reserved = new HashMap<String, int[]>();
+
+   /**
+    * @param blockSize the IDs reserved ahead of what is asked, 0 for none
+    */
+   public SequenceAllocator(int blockSize) {
+      this._blockSize = Math.max(0, blockSize);
+   }//end SequenceAllocator
+
+   /**
+    * Reserves IDs of a sequence, from the IDs kept or with one query.
+    *
+    * @param esql the session to query with
+    * @param sequence the sequence, for instance "roomrepairs_repairid_seq"
+    * @param count the number of IDs wanted
+    * @return the IDs, each one handed out once
+    * @throws java.sql.SQLException when failed to execute the query
+    */
+   public int[] reserve(Hotel esql, String sequence, int count) throws SQLException {
+      int[] ids = new int[count];
+      int taken = take(sequence, ids);
+      if (taken == count)
+         return ids;
+      // the query runs without the lock, other sessions take kept IDs meanwhile
+      int missing = count - taken;
+      TypedResult reserved = esql.executeQueryAndReturnTypedResult(
+         "SELECT CAST(nextval(CAST(? AS regclass)) AS integer) FROM generate_series(1, ?)",
+         sequence, missing + this._blockSize);
+      for (int r = 0; r < missing; ++r)
+         ids[taken + r] = reserved.getInt(r, 0);
+      if (this._blockSize > 0)
+         keep(sequence, reserved, missing);
+      return ids;
+   }//end reserve
+
+   // hands out the kept IDs of a sequence into the start of ids
+   private synchronized int take(String sequence, int[] ids) {
+      int[] kept = this._reserved.get(sequence);
+      if (kept == null)
+         return 0;
+      int taken = Math.min(kept.length, ids.length);
+      System.arraycopy(kept, 0, ids, 0, taken);
+      if (taken == kept.length)
+         this._reserved.remove(sequence);
+      else{
+         int[] rest = new int[kept.length - taken];
+         System.arraycopy(kept, taken, rest, 0, rest.length);
+         this._reserved.put(sequence, rest);
+      }
+      return taken;
+   }//end take
+
+   // keeps the reserved IDs from row first on
+   private synchronized void keep(String sequence, TypedResult reserved, int first) {
+      int[] kept = this._reserved.get(sequence);
+      int old = kept == null ? 0 : kept.length;
+      int[] ids = new int[old + reserved.getRowCount() - first];
+      if (kept != null)
+         System.arraycopy(kept, 0, ids, 0, old);
+      for (int r = first; r < reserved.getRowCount(); ++r)
+         ids[old + r - first] = reserved.getInt(r, 0);
+      this._reserved.put(sequence, ids);
+   }//end keep
+
+}//end SequenceAllocator
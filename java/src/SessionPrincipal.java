@@ -0,0 +1,227 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This class holds who is logged in to a session: the userID, the user
+ * type and the hotels the user manages. It is read once at log in, in the
+ * same query as the stored password, so manager actions do not ask the
+ * database whether the user is a manager or owns a hotel.
+ *
+ * Passwords are checked against their salted hash (see PasswordHash), and
+ * recent log ins, unknown userIDs and lock outs after failed attempts are
+ * remembered for a short time (see LoginCache).
+ *
+ * A principal goes stale when invalidate() is called for its user, for
+ * instance by the principal_changed notification that the Users and Hotel
+ * triggers send, or after a maximum age. Hotel.getPrincipal() loads a
+ * fresh one when that happens.
+ *
+ */
+public class SessionPrincipal {
+
+   // default age in milliseconds after which a principal is read again
+   public static final long DEFAULT_MAX_AGE_MILLIS = 60000;
+
+   private static final long MAX_AGE_MILLIS = Long.getLong("hotel.principal.maxAge", DEFAULT_MAX_AGE_MILLIS);
+
+   // one row per managed hotel, or a single row for other users
+   private static final String LOGIN_QUERY =
+      "SELECT U.password, U.userType, H.hotelID FROM Users U LEFT JOIN Hotel H ON H.managerUserID = U.userID " +
+      "WHERE U.userID = ?";
+
+   private static final String LOAD_QUERY =
+      "SELECT U.userType, H.hotelID FROM Users U LEFT JOIN Hotel H ON H.managerUserID = U.userID " +
+      "WHERE U.userID = ?";
+
+   // plain text passwords are replaced by their hash at log in (-Dhotel.auth.upgrade)
+   private static final boolean UPGRADE = Boolean.parseBoolean(System.getProperty("hotel.auth.upgrade", "true"));
+
+   // recent log ins, shared by every session in the JVM
+   private static final LoginCache _logins = new LoginCache(
+      Integer.getInteger("hotel.auth.cache.size", LoginCache.DEFAULT_MAX_USERS),
+      Long.getLong("hotel.auth.cache.ttl", LoginCache.DEFAULT_TTL_MILLIS),
+      Integer.getInteger("hotel.auth.maxFailures", LoginCache.DEFAULT_MAX_FAILURES),
+      Long.getLong("hotel.auth.lockout", LoginCache.DEFAULT_LOCKOUT_MILLIS));
+
+   // bumped on every invalidation, principals remember the value they were read at
+   private static final AtomicLong _generation = new AtomicLong();
+   private static final Map<Integer, Long> _invalidated = new ConcurrentHashMap<Integer, Long>();
+   private static volatile long _invalidatedAll = 0;
+
+   private final int _userID;
+   private final String _userType;
+   private final int[] _managedHotels;
+   private final long _generationRead;
+   private final long _readAt;
+
+   private SessionPrincipal(int userID, String userType, int[] managedHotels, long generation) {
+      this._userID = userID;
+      this._userType = userType;
+      this._managedHotels = managedHotels;
+      this._generationRead = generation;
+      this._readAt = System.currentTimeMillis();
+   }//end SessionPrincipal
+
+   /**
+    * Checks a password and reads the principal, from the log in cache or
+    * with one query reading the stored password and the principal.
+    *
+    * @param esql the session to query with
+    * @param userID the user logging in
+    * @param password the password typed
+    * @return the principal, or null when the userID and password do not
+    *         match or the user is locked out
+    * @throws java.sql.SQLException when failed to execute the query
+    */
+   public static SessionPrincipal logIn(Hotel esql, int userID, String password) throws SQLException {
+      SessionPrincipal cached = _logins.loggedIn(userID, password);
+      if (cached != null)
+         return cached;
+      if (_logins.rejects(userID))
+         return null;
+      // read the generation first, so an invalidation during the query makes it stale
+      long generation = _generation.get();
+      TypedResult rows = esql.executeQueryAndReturnTypedResult(LOGIN_QUERY, userID);
+      String stored = rows.getRowCount() == 0 ? null : rows.getString(0, 0).trim();
+      if (!PasswordHash.verify(password, stored)){
+         _logins.failed(userID, stored == null);
+         return null;
+      }
+      if (UPGRADE && !PasswordHash.isHash(stored))
+         upgrade(esql, userID, password, stored);
+      SessionPrincipal principal = read(userID, rows, 1, generation);
+      _logins.succeeded(userID, password, principal);
+      return principal;
+   }//end logIn
+
+   /*
+    * Replaces a plain text password by its hash, unless it changed meanwhile
+    **/
+   private static void upgrade(Hotel esql, int userID, String password, String stored) {
+      try{
+         esql.executeUpdate("UPDATE Users SET password = ? WHERE userID = ? AND password = ?",
+                            PasswordHash.hash(password), userID, stored);
+      }catch (SQLException e){
+         // password still char(11), see upgrade_passwords.sql. The log in stands.
+         esql.err.println("Unable to store the password hash: " + e.getMessage());
+      }
+   }//end upgrade
+
+   /**
+    * @return true when the user is locked out after too many failed log ins
+    */
+   public static boolean isLockedOut(int userID) {
+      return _logins.isLockedOut(userID);
+   }//end isLockedOut
+
+   /**
+    * Forgets the log ins remembered for a userID, for instance one just
+    * created that was unknown before.
+    */
+   public static void forgetLogIns(int userID) {
+      _logins.forget(userID);
+   }//end forgetLogIns
+
+   /**
+    * @return the counters of the log in cache, for logging
+    */
+   public static String getLogInStats() {
+      return _logins.getStats();
+   }//end getLogInStats
+
+   /**
+    * Reads the principal of a user again.
+    *
+    * @param esql the session to query with
+    * @param userID the user
+    * @return the principal, or null when the user does not exist
+    * @throws java.sql.SQLException when failed to execute the query
+    */
+   public static SessionPrincipal load(Hotel esql, int userID) throws SQLException {
+      long generation = _generation.get();
+      return read(userID, esql.executeQueryAndReturnTypedResult(LOAD_QUERY, userID), 0, generation);
+   }//end load
+
+   /*
+    * Reads the user type and the managed hotels, from the given column on
+    **/
+   private static SessionPrincipal read(int userID, TypedResult rows, int column, long generation) {
+      if (rows.getRowCount() == 0)
+         return null;
+      String userType = rows.isNull(0, column) ? "" : rows.getString(0, column).trim();
+      int count = 0;
+      int[] hotels = new int[rows.getRowCount()];
+      for (int r = 0; r < rows.getRowCount(); ++r)
+         if (!rows.isNull(r, column + 1))
+            hotels[count++] = rows.getInt(r, column + 1);
+      hotels = Arrays.copyOf(hotels, count);
+      Arrays.sort(hotels);
+      return new SessionPrincipal(userID, userType, hotels, generation);
+   }//end read
+
+   /**
+    * Marks the principals of a user as stale.
+    *
+    * @param userID the user whose type or hotels changed
+    */
+   public static void invalidate(int userID) {
+      _invalidated.put(userID, _generation.incrementAndGet());
+   }//end invalidate
+
+   /**
+    * Marks every principal as stale, when it is not known which users changed.
+    */
+   public static void invalidateAll() {
+      _invalidatedAll = _generation.incrementAndGet();
+   }//end invalidateAll
+
+   /**
+    * @return true when the principal has to be read again
+    */
+   public boolean isStale() {
+      if (this._generationRead < _invalidatedAll)
+         return true;
+      Long invalidated = _invalidated.get(this._userID);
+      if (invalidated != null && this._generationRead < invalidated)
+         return true;
+      return System.currentTimeMillis() - this._readAt > MAX_AGE_MILLIS;
+   }//end isStale
+
+   public int getUserID() { return this._userID; }
+   public String getUserType() { return this._userType; }
+
+   public boolean isManager() {
+      return this._userType.equalsIgnoreCase("manager");
+   }//end isManager
+
+   /**
+    * @return true when the user is a manager of the hotel
+    */
+   public boolean manages(int hotelID) {
+      return isManager() && Arrays.binarySearch(this._managedHotels, hotelID) >= 0;
+   }//end manages
+
+   /**
+    * @return the hotelIDs the user manages, sorted
+    */
+   public int[] getManagedHotels() {
+      return this._managedHotels.clone();
+   }//end getManagedHotels
+
+}//end SessionPrincipal
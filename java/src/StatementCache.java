@@ -0,0 +1,131 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.lang.reflect.Method;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * This class keeps a bounded, least-recently-used cache of PreparedStatements
+ * for a single physical connection. Statements are keyed by their query
+ * template, so every call with the same template reuses the same server
+ * side plan instead of parsing and planning the query again.
+ *
+ */
+public class StatementCache {
+
+   // default number of query templates kept per connection
+   public static final int DEFAULT_CAPACITY = 64;
+
+   // the connection every cached statement belongs to
+   private final Connection _connection;
+
+   // cached statements in access order, eldest entry is evicted first
+   private final LinkedHashMap<String, PreparedStatement> _statements;
+
+   // counters used to check that plan reuse actually happens
+   private long _hits = 0;
+   private long _misses = 0;
+   private long _evictions = 0;
+
+   /**
+    * Creates a new statement cache for the given connection
+    *
+    * @param connection the physical connection statements are prepared on
+    * @param capacity the maximum number of statements kept open
+    */
+   public StatementCache(Connection connection, final int capacity) {
+      this._connection = connection;
+      this._statements = new LinkedHashMap<String, PreparedStatement>(16, 0.75f, true) {
+         @Override
+         protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest) {
+            if (size() <= capacity)
+               return false;
+            closeQuietly(eldest.getValue());
+            ++_evictions;
+            return true;
+         }
+      };
+   }//end StatementCache
+
+   /**
+    * Returns the prepared statement for a query template, preparing it on
+    * the connection the first time the template is seen.
+    *
+    * @param template the SQL query with '?' placeholders
+    * @return a prepared statement with its parameters cleared
+    * @throws java.sql.SQLException when failed to prepare the statement
+    */
+   public synchronized PreparedStatement prepare(String template) throws SQLException {
+      PreparedStatement stmt = this._statements.get(template);
+      if (stmt != null){
+         ++this._hits;
+         stmt.clearParameters();
+         return stmt;
+      }
+      ++this._misses;
+      stmt = this._connection.prepareStatement(template);
+      useServerPrepare(stmt);
+      this._statements.put(template, stmt);
+      return stmt;
+   }//end prepare
+
+   /**
+    * Closes every cached statement, used before the connection is closed
+    */
+   public synchronized void clear() {
+      for (PreparedStatement stmt : this._statements.values())
+         closeQuietly(stmt);
+      this._statements.clear();
+   }//end clear
+
+   public synchronized long getHits() { return this._hits; }
+   public synchronized long getMisses() { return this._misses; }
+   public synchronized long getEvictions() { return this._evictions; }
+
+   /**
+    * @return a one line summary of the cache counters
+    */
+   public synchronized String getStats() {
+      long lookups = this._hits + this._misses;
+      double ratio = lookups == 0 ? 0.0 : (100.0 * this._hits) / lookups;
+      return String.format("statements cached: %d, hits: %d, misses: %d, evictions: %d, hit ratio: %.1f%%",
+                           this._statements.size(), this._hits, this._misses, this._evictions, ratio);
+   }//end getStats
+
+   /*
+    * Asks the postgres driver to plan the statement once on the server and
+    * reuse that plan. Older and newer drivers both expose this through
+    * PGStatement, looked up by name so we do not need the driver to compile.
+    **/
+   private static void useServerPrepare(PreparedStatement stmt) {
+      try{
+         Method m = stmt.getClass().getMethod("setUseServerPrepare", boolean.class);
+         m.invoke(stmt, Boolean.TRUE);
+      }catch (Exception e){
+         // ignored, the driver prepares on its own terms.
+      }
+   }//end useServerPrepare
+
+   private static void closeQuietly(PreparedStatement stmt) {
+      try{
+         stmt.close();
+      }catch (SQLException e){
+         // ignored.
+      }
+   }//end closeQuietly
+
+}//end StatementCache
@@ -0,0 +1,282 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.math.BigDecimal;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.TimeZone;
+
+/**
+ * This class holds a query result column by column, keeping numbers and
+ * dates in primitive arrays instead of one String per value:
+ *
+ *   integer, smallint, boolean    int[]    (booleans as 0 or 1)
+ *   bigint                        long[]
+ *   real, double                  double[]
+ *   numeric                       BigDecimal[]  (exact, as stored)
+ *   date                          int[]    (days since 1970-01-01)
+ *   timestamp                     long[]   (milliseconds since 1970-01-01)
+ *   anything else                 String[]
+ *
+ * Values are read with getInt(row, column) and friends, or through the
+ * Row facade returned by row(). Rows and columns count from 0.
+ *
+ */
+public class TypedResult {
+
+   private static final int INT = 0, LONG = 1, DOUBLE = 2, DATE = 3, TIMESTAMP = 4, STRING = 5, DECIMAL = 6;
+   private static final long MILLIS_PER_DAY = 24L * 60 * 60 * 1000;
+
+   private final String[] _names;
+   private final int[] _kinds;
+
+   // one array per column, only the one matching its kind is allocated
+   private final int[][] _ints;
+   private final long[][] _longs;
+   private final double[][] _doubles;
+   private final BigDecimal[][] _decimals;
+   private final String[][] _strings;
+   private final BitSet[] _nulls;
+
+   private int _rowCount = 0;
+   private int _capacity = 16;
+
+   /**
+    * A view of one row of the result, allocated on demand.
+    */
+   public class Row {
+      private final int _row;
+
+      private Row(int row) {
+         this._row = row;
+      }
+
+      public int getInt(int column) { return TypedResult.this.getInt(_row, column); }
+      public long getLong(int column) { return TypedResult.this.getLong(_row, column); }
+      public double getDouble(int column) { return TypedResult.this.getDouble(_row, column); }
+      public BigDecimal getBigDecimal(int column) { return TypedResult.this.getBigDecimal(_row, column); }
+      public String getString(int column) { return TypedResult.this.getString(_row, column); }
+      public boolean isNull(int column) { return TypedResult.this.isNull(_row, column); }
+   }//end Row
+
+   /**
+    * Creates an empty result shaped after a result set
+    *
+    * @param rsmd the metadata of the result set, or null for a result
+    *             without columns
+    * @throws java.sql.SQLException when the metadata cannot be read
+    */
+   public TypedResult(ResultSetMetaData rsmd) throws SQLException {
+      int numCol = rsmd == null ? 0 : rsmd.getColumnCount();
+      this._names = new String[numCol];
+      this._kinds = new int[numCol];
+      this._ints = new int[numCol][];
+      this._longs = new long[numCol][];
+      this._doubles = new double[numCol][];
+      this._decimals = new BigDecimal[numCol][];
+      this._strings = new String[numCol][];
+      this._nulls = new BitSet[numCol];
+      for (int c = 0; c < numCol; ++c){
+         this._names[c] = rsmd.getColumnName(c + 1);
+         this._kinds[c] = kindOf(rsmd.getColumnType(c + 1));
+         this._nulls[c] = new BitSet();
+         switch (this._kinds[c]){
+            case INT: case DATE: this._ints[c] = new int[this._capacity]; break;
+            case LONG: case TIMESTAMP: this._longs[c] = new long[this._capacity]; break;
+            case DOUBLE: this._doubles[c] = new double[this._capacity]; break;
+            case DECIMAL: this._decimals[c] = new BigDecimal[this._capacity]; break;
+            default: this._strings[c] = new String[this._capacity]; break;
+         }
+      }
+   }//end TypedResult
+
+   /**
+    * Appends the current row of a result set
+    *
+    * @param rs the result set, positioned on a row
+    * @throws java.sql.SQLException when a value cannot be read
+    */
+   public void add(ResultSet rs) throws SQLException {
+      if (this._rowCount == this._capacity)
+         grow();
+      int r = this._rowCount++;
+      for (int c = 0; c < this._kinds.length; ++c){
+         switch (this._kinds[c]){
+            case INT: this._ints[c][r] = rs.getInt(c + 1); break;
+            case LONG: this._longs[c][r] = rs.getLong(c + 1); break;
+            case DOUBLE: this._doubles[c][r] = rs.getDouble(c + 1); break;
+            case DECIMAL: this._decimals[c][r] = rs.getBigDecimal(c + 1); break;
+            case DATE:{
+               java.sql.Date date = rs.getDate(c + 1);
+               if (date != null)
+                  this._ints[c][r] = (int) floorDiv(localMillis(date.getTime()), MILLIS_PER_DAY);
+               break;
+            }
+            case TIMESTAMP:{
+               Timestamp time = rs.getTimestamp(c + 1);
+               if (time != null)
+                  this._longs[c][r] = time.getTime();
+               break;
+            }
+            default: this._strings[c][r] = rs.getString(c + 1); break;
+         }
+         if (rs.wasNull())
+            this._nulls[c].set(r);
+      }
+   }//end add
+
+   public int getRowCount() { return this._rowCount; }
+   public int getColumnCount() { return this._names.length; }
+   public String getColumnName(int column) { return this._names[column]; }
+
+   public Row row(int row) {
+      return new Row(row);
+   }//end row
+
+   public boolean isNull(int row, int column) {
+      return this._nulls[column].get(row);
+   }//end isNull
+
+   /**
+    * @return an integer, boolean (0 or 1) or date (days) column value
+    */
+   public int getInt(int row, int column) {
+      switch (this._kinds[column]){
+         case INT: case DATE: return this._ints[column][row];
+         case LONG: case TIMESTAMP: return (int) this._longs[column][row];
+         case DOUBLE: return (int) this._doubles[column][row];
+         case DECIMAL: return this._decimals[column][row] == null ? 0 : this._decimals[column][row].intValue();
+         default: return Integer.parseInt(this._strings[column][row].trim());
+      }
+   }//end getInt
+
+   /**
+    * @return a bigint or timestamp (milliseconds) column value
+    */
+   public long getLong(int row, int column) {
+      switch (this._kinds[column]){
+         case INT: case DATE: return this._ints[column][row];
+         case LONG: case TIMESTAMP: return this._longs[column][row];
+         case DOUBLE: return (long) this._doubles[column][row];
+         case DECIMAL: return this._decimals[column][row] == null ? 0 : this._decimals[column][row].longValue();
+         default: return Long.parseLong(this._strings[column][row].trim());
+      }
+   }//end getLong
+
+   /**
+    * @return a numeric or floating point column value
+    */
+   public double getDouble(int row, int column) {
+      switch (this._kinds[column]){
+         case INT: case DATE: return this._ints[column][row];
+         case LONG: case TIMESTAMP: return this._longs[column][row];
+         case DOUBLE: return this._doubles[column][row];
+         case DECIMAL: return this._decimals[column][row] == null ? 0 : this._decimals[column][row].doubleValue();
+         default: return Double.parseDouble(this._strings[column][row].trim());
+      }
+   }//end getDouble
+
+   /**
+    * @return a numeric column value exactly as stored, for amounts of
+    *         money, or null for a null value
+    */
+   public BigDecimal getBigDecimal(int row, int column) {
+      if (isNull(row, column))
+         return null;
+      switch (this._kinds[column]){
+         case INT: case DATE: return BigDecimal.valueOf(this._ints[column][row]);
+         case LONG: case TIMESTAMP: return BigDecimal.valueOf(this._longs[column][row]);
+         case DOUBLE: return BigDecimal.valueOf(this._doubles[column][row]);
+         case DECIMAL: return this._decimals[column][row];
+         default: return new BigDecimal(this._strings[column][row].trim());
+      }
+   }//end getBigDecimal
+
+   /**
+    * @return any column value as text, formatted the way postgres prints
+    *         it, or null for a null value. Numerics keep their scale,
+    *         dates read YYYY-MM-DD and timestamps YYYY-MM-DD HH:MM:SS with
+    *         the fraction of a second only when there is one, in the time
+    *         zone of the JVM and to the millisecond.
+    */
+   public String getString(int row, int column) {
+      if (isNull(row, column))
+         return null;
+      switch (this._kinds[column]){
+         case INT: return Integer.toString(this._ints[column][row]);
+         case LONG: return Long.toString(this._longs[column][row]);
+         case DOUBLE: return Double.toString(this._doubles[column][row]);
+         case DECIMAL: return this._decimals[column][row].toPlainString();
+         case DATE: return new java.sql.Date(utcMillis(this._ints[column][row] * MILLIS_PER_DAY)).toString();
+         case TIMESTAMP:{
+            // Timestamp prints a whole second as "...:SS.0", postgres as "...:SS"
+            String time = new Timestamp(this._longs[column][row]).toString();
+            return time.endsWith(".0") ? time.substring(0, time.length() - 2) : time;
+         }
+         default: return this._strings[column][row];
+      }
+   }//end getString
+
+   private static int kindOf(int sqlType) {
+      switch (sqlType){
+         case Types.INTEGER: case Types.SMALLINT: case Types.TINYINT:
+         case Types.BOOLEAN: case Types.BIT:
+            return INT;
+         case Types.BIGINT:
+            return LONG;
+         case Types.NUMERIC: case Types.DECIMAL:
+            return DECIMAL;
+         case Types.REAL: case Types.FLOAT: case Types.DOUBLE:
+            return DOUBLE;
+         case Types.DATE:
+            return DATE;
+         case Types.TIMESTAMP:
+            return TIMESTAMP;
+         default:
+            return STRING;
+      }
+   }//end kindOf
+
+   private void grow() {
+      this._capacity *= 2;
+      for (int c = 0; c < this._kinds.length; ++c){
+         if (this._ints[c] != null) this._ints[c] = Arrays.copyOf(this._ints[c], this._capacity);
+         if (this._longs[c] != null) this._longs[c] = Arrays.copyOf(this._longs[c], this._capacity);
+         if (this._doubles[c] != null) this._doubles[c] = Arrays.copyOf(this._doubles[c], this._capacity);
+         if (this._decimals[c] != null) this._decimals[c] = Arrays.copyOf(this._decimals[c], this._capacity);
+         if (this._strings[c] != null) this._strings[c] = Arrays.copyOf(this._strings[c], this._capacity);
+      }
+   }//end grow
+
+   /*
+    * JDBC dates are midnight in the local time zone, day numbers are UTC
+    **/
+   private static long localMillis(long millis) {
+      return millis + TimeZone.getDefault().getOffset(millis);
+   }//end localMillis
+
+   private static long utcMillis(long millis) {
+      return millis - TimeZone.getDefault().getOffset(millis);
+   }//end utcMillis
+
+   private static long floorDiv(long x, long y) {
+      long q = x / y;
+      return (x % y != 0 && ((x ^ y) < 0)) ? q - 1 : q;
+   }//end floorDiv
+
+}//end TypedResult
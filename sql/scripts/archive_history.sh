@@ -0,0 +1,8 @@
+#!/bin/bash
+# detaches the RoomBookings and RoomUpdatesLog partitions of the years before
+# the one given and moves them to the archive schema, e.g. archive_history.sh 2010
+if ! [[ "$1" =~ ^[0-9]{4}$ ]]; then
+   echo "Usage: $0 <first year kept>"
+   exit 1
+fi
+psql -h localhost -p $PGPORT $USER"_DB" -c "SELECT archive_partitions($1)"
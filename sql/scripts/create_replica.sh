@@ -0,0 +1,15 @@
+#!/bin/bash
+# starts a hot standby of the local database on another port, fed by streaming
+# replication, to try the read replica routing (-Dhotel.replica.url) on one machine
+REPLICA_PORT=${REPLICA_PORT:-$((PGPORT + 1))}
+REPLICA_DATA=${REPLICA_DATA:-/tmp/$USER/replica}
+if [ -e "$REPLICA_DATA" ]; then
+   echo "$REPLICA_DATA already exists, remove it or set REPLICA_DATA"
+   exit 1
+fi
+mkdir -p "$(dirname "$REPLICA_DATA")"
+# -R writes the standby settings, -X stream copies the WAL written during the copy
+pg_basebackup -h localhost -p $PGPORT -D "$REPLICA_DATA" -R -X stream || exit 1
+pg_ctl -D "$REPLICA_DATA" -o "-p $REPLICA_PORT" -l "$REPLICA_DATA/logfile" start || exit 1
+echo "Replica listening on port $REPLICA_PORT, start the front end with"
+echo "   -Dhotel.replica.url=jdbc:postgresql://localhost:$REPLICA_PORT/"$USER"_DB"
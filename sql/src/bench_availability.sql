@@ -0,0 +1,32 @@
+--Compares the old two query room availability lookup of viewRooms with the single
+--query of RoomAvailability, on a RoomBookings relation grown to a few million rows.
+--Everything runs in one transaction that is rolled back, so the data is left untouched.
+BEGIN;
+SELECT create_partitions(1990, 2019);
+
+--every room booked on roughly every other night for 30 years
+INSERT INTO RoomBookings (customerID, hotelID, roomNumber, bookingDate)
+SELECT 1 + floor(random() * 100)::int, R.hotelID, R.roomNumber, d::date
+FROM Rooms R, generate_series(date '1990-01-01', date '2019-12-31', interval '1 day') d
+WHERE random() < 0.5
+ON CONFLICT DO NOTHING;
+ANALYZE RoomBookings;
+SELECT COUNT(*) AS bookings FROM RoomBookings;
+
+--old: available rooms
+EXPLAIN (ANALYZE, BUFFERS)
+SELECT DISTINCT B.roomNumber, R.price FROM RoomBookings B, Rooms R WHERE B.hotelID = 1 AND R.hotelID = 1 AND B.roomNumber = R.roomNumber AND B.bookingDate != '05/12/2015' UNION SELECT R.roomNumber, R.price FROM Rooms R WHERE R.hotelID = 1 AND R.roomNumber NOT IN (SELECT DISTINCT B.roomNumber FROM RoomBookings B WHERE B.hotelID = 1) ORDER BY roomNumber;
+
+--old: unavailable rooms
+EXPLAIN (ANALYZE, BUFFERS)
+SELECT DISTINCT B.roomNumber, R.price FROM RoomBookings B, Rooms R WHERE B.hotelID = 1 AND R.hotelID = 1 AND B.roomNumber = R.roomNumber AND B.bookingDate = '05/12/2015';
+
+--new: available and unavailable rooms for one night
+EXPLAIN (ANALYZE, BUFFERS)
+SELECT R.roomNumber, R.price, B.roomNumber IS NOT NULL AS booked FROM Rooms R LEFT JOIN (SELECT DISTINCT roomNumber FROM RoomBookings WHERE hotelID = 1 AND bookingDate BETWEEN '05/12/2015' AND '05/12/2015') B ON B.roomNumber = R.roomNumber WHERE R.hotelID = 1 ORDER BY R.roomNumber;
+
+--new: available and unavailable rooms for a week
+EXPLAIN (ANALYZE, BUFFERS)
+SELECT R.roomNumber, R.price, B.roomNumber IS NOT NULL AS booked FROM Rooms R LEFT JOIN (SELECT DISTINCT roomNumber FROM RoomBookings WHERE hotelID = 1 AND bookingDate BETWEEN '05/12/2015' AND '05/18/2015') B ON B.roomNumber = R.roomNumber WHERE R.hotelID = 1 ORDER BY R.roomNumber;
+
+ROLLBACK;
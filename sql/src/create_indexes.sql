@@ -1,26 +1,58 @@
+--indexes of earlier versions are dropped too, so running this file moves a database to the current set
 DROP INDEX IF EXISTS hotel_location;
+DROP INDEX IF EXISTS hotel_location_point;
 DROP INDEX IF EXISTS room_id;
 DROP INDEX IF EXISTS user_id;
 DROP INDEX IF EXISTS manager_user_id;
 DROP INDEX IF EXISTS room_booking_room_number;
+DROP INDEX IF EXISTS room_booking_hotel_date;
+DROP INDEX IF EXISTS customer_booking_count_top;
+DROP INDEX IF EXISTS room_booking_hotel_date_id;
+DROP INDEX IF EXISTS room_booking_customer_date;
+DROP INDEX IF EXISTS room_repair_hotel_date;
+DROP INDEX IF EXISTS room_update_manager_date;
 
-CREATE INDEX hotel_location
-ON Hotel
-USING BTREE(latitude, longitude);
-
-CREATE INDEX user_id
-ON Users
-USING BTREE(userID);
+--Not recreated, no statement needs them (IndexAdvisor reports such indexes):
+--user_id (userID) and room_id (hotelID, roomNumber) repeated the primary keys of Users and Rooms,
+--room_booking_room_number (roomNumber) is never looked up without the hotel, and
+--hotel_location (latitude, longitude) was replaced by hotel_location_point.
+--Bookings by (hotelID, roomNumber, bookingDate) are read from the room_booking_unique constraint.
 
-CREATE INDEX room_id
-ON Rooms
-USING BTREE(hotelID, roomNumber);
+--GiST index on the hotel location as a point, used by the "within a radius" (<@ circle)
+--and "nearest first" (<-> ordering) searches in viewHotels
+CREATE INDEX hotel_location_point
+ON Hotel
+USING GIST(point(latitude, longitude));
 
+--hotels of a manager, for the principal read at log in and the manager reports
 CREATE INDEX manager_user_id
 ON Hotel
 USING BTREE(managerUserID);
 
-CREATE INDEX room_booking_room_number
+--bookings of a hotel by date, used by the room availability lookup in viewRooms, which reads
+--the room numbers from the index alone, and by the paged booking history, which seeks on
+--(bookingDate, bookingID)
+CREATE INDEX room_booking_hotel_date
 ON RoomBookings
-USING BTREE(roomNumber);
+USING BTREE(hotelID, bookingDate, bookingID, roomNumber);
+
+--bookings of a customer by (bookingDate, bookingID), read backwards from the most recent.
+--A btree is read in both directions, so it also serves ORDER BY bookingDate DESC, bookingID DESC
+CREATE INDEX room_booking_customer_date
+ON RoomBookings
+USING BTREE(customerID, bookingDate, bookingID);
+
+--customers of a hotel by number of bookings, the top 5 of viewRegularCustomers() are the first 5 entries
+CREATE INDEX customer_booking_count_top
+ON CustomerBookingCounts
+USING BTREE(hotelID, bookings DESC, customerID);
+
+--repair history of a hotel by (repairDate, repairID)
+CREATE INDEX room_repair_hotel_date
+ON RoomRepairs
+USING BTREE(hotelID, repairDate, repairID);
 
+--room updates of a manager by (updatedOn, updateNumber), read backwards from the most recent
+CREATE INDEX room_update_manager_date
+ON RoomUpdatesLog
+USING BTREE(managerID, updatedOn, updateNumber);
@@ -6,10 +6,12 @@ DROP TABLE IF EXISTS RoomBookings CASCADE;
 DROP TABLE IF EXISTS RoomRepairs CASCADE;
 DROP TABLE IF EXISTS RoomRepairRequests CASCADE;
 DROP TABLE IF EXISTS RoomUpdatesLog CASCADE;
+DROP TABLE IF EXISTS CustomerBookingCounts CASCADE;
+DROP TABLE IF EXISTS HotelDailyBookings CASCADE;
 
 CREATE TABLE Users ( userID serial,
                      name char(50),
-                     password char(11) NOT NULL,
+                     password varchar(128) NOT NULL, ---salted hash, or plain text until the first log in
                      userType char(10),  ---userType can be 'customer' or 'manager' 
                      PRIMARY KEY(userID)
 );
@@ -42,16 +44,21 @@ CREATE TABLE MaintenanceCompany (
 );
 
 
+--RoomBookings and RoomUpdatesLog are partitioned by year, see create_partitions() below.
+--Rows dated outside every yearly partition go to a default partition.
+--Every unique constraint of a partitioned table has to hold the partition key.
 CREATE TABLE RoomBookings ( 
                     bookingID serial NOT NULL,
                     customerID integer NOT NULL,
                     hotelID integer NOT NULL,
                     roomNumber integer NOT NULL, 
                     bookingDate date NOT NULL, 
-                    PRIMARY KEY(bookingID),
+                    PRIMARY KEY(bookingID, bookingDate),
+                    --a room can only be booked once per date, this also rejects concurrent double bookings
+                    CONSTRAINT room_booking_unique UNIQUE(hotelID, roomNumber, bookingDate),
                     FOREIGN KEY(customerID) REFERENCES Users(userID),
                     FOREIGN KEY(hotelID, roomNumber) REFERENCES Rooms(hotelID, roomNumber)
-);
+) PARTITION BY RANGE (bookingDate);
 
 CREATE TABLE RoomRepairs (  
                             repairID serial,
@@ -81,14 +88,111 @@ CREATE TABLE RoomUpdatesLog (
                             hotelID integer NOT NULL,
                             roomNumber integer NOT NULL,
                             updatedOn timestamp NOT NULL,
-                            PRIMARY KEY(updateNumber),
+                            PRIMARY KEY(updateNumber, updatedOn),
                             FOREIGN KEY(managerID) REFERENCES Users(userID),
                             FOREIGN KEY(hotelID, roomNumber) REFERENCES Rooms(hotelID, roomNumber)
+) PARTITION BY RANGE (updatedOn);
+
+---Creates the partition of year y of RoomBookings or RoomUpdatesLog, given as lower case names, and
+---returns 1, or 0 when it exists. Postgres refuses to create a partition over rows of the default
+---partition, so rows of the year that went there are taken out first and put back through the parent
+---once the partition exists; the count_booking trigger sees them removed and added again.
+CREATE OR REPLACE FUNCTION create_partition(parent text, date_column text, y integer)
+RETURNS integer AS $part$
+DECLARE
+   moved integer := 0;
+BEGIN
+   IF to_regclass(parent || '_' || y) IS NOT NULL THEN
+      RETURN 0;
+   END IF;
+   IF to_regclass(parent || '_default') IS NOT NULL THEN
+      EXECUTE format('CREATE TEMP TABLE moved_rows (LIKE %I)', parent);
+      EXECUTE format('WITH moved AS (DELETE FROM %I WHERE %I >= %L AND %I < %L RETURNING *) ' ||
+                     'INSERT INTO moved_rows SELECT * FROM moved',
+                     parent || '_default', date_column, make_date(y, 1, 1), date_column, make_date(y + 1, 1, 1));
+      GET DIAGNOSTICS moved = ROW_COUNT;
+   END IF;
+   EXECUTE format('CREATE TABLE %I PARTITION OF %I FOR VALUES FROM (%L) TO (%L)',
+                  parent || '_' || y, parent, make_date(y, 1, 1), make_date(y + 1, 1, 1));
+   IF to_regclass(parent || '_default') IS NOT NULL THEN
+      IF moved > 0 THEN
+         EXECUTE format('INSERT INTO %I SELECT * FROM moved_rows', parent);
+      END IF;
+      DROP TABLE moved_rows;
+   END IF;
+   RETURN 1;
+END;
+$part$ LANGUAGE plpgsql;
+
+---Creates the yearly partitions of RoomBookings and RoomUpdatesLog from first_year to last_year,
+---skipping the ones that exist, and returns how many it created. Rows dated outside every yearly
+---partition wait in the default partitions, so HotelServer and the console call it at startup, and
+---HotelServer every day, for the coming years (hotel.partitions.ahead).
+CREATE OR REPLACE FUNCTION create_partitions(first_year integer, last_year integer)
+RETURNS integer AS $part$
+DECLARE
+   y integer;
+   created integer := 0;
+BEGIN
+   FOR y IN first_year .. last_year LOOP
+      created := created + create_partition('roombookings', 'bookingdate', y)
+                         + create_partition('roomupdateslog', 'updatedon', y);
+   END LOOP;
+   RETURN created;
+END;
+$part$ LANGUAGE plpgsql;
+
+---Detaches the yearly partitions of RoomBookings and RoomUpdatesLog before before_year and moves them
+---to the archive schema, where they can be dumped and dropped, and returns how many it archived.
+---Removing a year of history this way touches no rows, and the booking statistics keep counting it.
+CREATE OR REPLACE FUNCTION archive_partitions(before_year integer)
+RETURNS integer AS $archive$
+DECLARE
+   part record;
+   archived integer := 0;
+BEGIN
+   CREATE SCHEMA IF NOT EXISTS archive;
+   FOR part IN
+      SELECT C.relname AS partition, P.relname AS parent
+      FROM pg_inherits I JOIN pg_class C ON C.oid = I.inhrelid JOIN pg_class P ON P.oid = I.inhparent
+      WHERE P.relname IN ('roombookings', 'roomupdateslog') AND C.relkind = 'r'
+        AND C.relname ~ '_[0-9]{4}$' AND CAST(substring(C.relname from '([0-9]{4})$') AS integer) < before_year
+   LOOP
+      EXECUTE format('ALTER TABLE %I DETACH PARTITION %I', part.parent, part.partition);
+      EXECUTE format('ALTER TABLE %I SET SCHEMA archive', part.partition);
+      archived := archived + 1;
+   END LOOP;
+   RETURN archived;
+END;
+$archive$ LANGUAGE plpgsql;
+
+--partitions for the years of the Hotel Data and generated bookings, and the next two years,
+--and the default partitions for any other date
+CREATE TABLE roombookings_default PARTITION OF RoomBookings DEFAULT;
+CREATE TABLE roomupdateslog_default PARTITION OF RoomUpdatesLog DEFAULT;
+SELECT create_partitions(2000, CAST(EXTRACT(YEAR FROM CURRENT_DATE) AS integer) + 2);
+
+--The following tables hold booking statistics, kept up to date by the count_booking trigger in triggers.sql.
+--Number of bookings of each customer in each hotel, read by viewRegularCustomers().
+CREATE TABLE CustomerBookingCounts (
+                            hotelID integer NOT NULL,
+                            customerID integer NOT NULL,
+                            bookings integer NOT NULL,
+                            PRIMARY KEY(hotelID, customerID)
+);
+
+--Number of bookings of each hotel on each date, read by the daily totals of viewBookingHistoryofHotel().
+CREATE TABLE HotelDailyBookings (
+                            hotelID integer NOT NULL,
+                            bookingDate date NOT NULL,
+                            bookings integer NOT NULL,
+                            PRIMARY KEY(hotelID, bookingDate)
 );
 
 ---The following is the definition of a user-defined sql function for calculating the distance between two lat-long pairs.
+---It is a plain, immutable sql function so the planner can inline it instead of calling plpgsql once per row.
+---The distance is the same euclidean distance as the <-> operator on point(latitude, longitude).
 CREATE OR REPLACE FUNCTION calculate_distance(lat1 decimal, long1 decimal, lat2 decimal, long2 decimal)
 RETURNS decimal AS $dist$
-BEGIN RETURN sqrt((lat1 - lat2) * (lat1 - lat2) + (long1 - long2) * (long1 - long2));
-END;
-$dist$ LANGUAGE plpgsql;
\ No newline at end of file
+SELECT sqrt((lat1 - lat2) * (lat1 - lat2) + (long1 - long2) * (long1 - long2));
+$dist$ LANGUAGE sql IMMUTABLE;
\ No newline at end of file
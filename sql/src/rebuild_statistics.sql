@@ -0,0 +1,22 @@
+---Fills the booking statistics tables from RoomBookings, for bookings loaded before the
+---count_booking trigger existed or with the trigger disabled. Safe to run again at any time:
+---bookings are locked against changes while the counts are rebuilt.
+BEGIN;
+LOCK TABLE RoomBookings IN SHARE MODE;
+
+DELETE FROM CustomerBookingCounts;
+INSERT INTO CustomerBookingCounts (hotelID, customerID, bookings)
+SELECT hotelID, customerID, COUNT(*)
+FROM RoomBookings
+GROUP BY hotelID, customerID;
+
+DELETE FROM HotelDailyBookings;
+INSERT INTO HotelDailyBookings (hotelID, bookingDate, bookings)
+SELECT hotelID, bookingDate, COUNT(*)
+FROM RoomBookings
+GROUP BY hotelID, bookingDate;
+
+COMMIT;
+
+ANALYZE CustomerBookingCounts;
+ANALYZE HotelDailyBookings;
@@ -0,0 +1,112 @@
+---Notifications sent when data the front end caches in memory changes.
+---The server listens on these channels (ChangeListener) and drops what it cached.
+
+---principal_changed: the user type of a user or the hotels they manage changed,
+---the payload is the userID. Sessions read the user's principal again.
+CREATE OR REPLACE FUNCTION notify_principal_changed()
+RETURNS trigger AS $notify$
+BEGIN
+   IF TG_TABLE_NAME = 'users' THEN
+      IF TG_OP = 'DELETE' THEN
+         PERFORM pg_notify('principal_changed', OLD.userID::text);
+      ELSE
+         PERFORM pg_notify('principal_changed', NEW.userID::text);
+      END IF;
+   ELSE
+      IF TG_OP <> 'INSERT' THEN
+         PERFORM pg_notify('principal_changed', OLD.managerUserID::text);
+      END IF;
+      IF TG_OP <> 'DELETE' THEN
+         PERFORM pg_notify('principal_changed', NEW.managerUserID::text);
+      END IF;
+   END IF;
+   RETURN NULL;
+END;
+$notify$ LANGUAGE plpgsql;
+
+DROP TRIGGER IF EXISTS users_principal_changed ON Users;
+CREATE TRIGGER users_principal_changed
+AFTER UPDATE OF userType OR DELETE ON Users
+FOR EACH ROW EXECUTE PROCEDURE notify_principal_changed();
+
+DROP TRIGGER IF EXISTS hotel_principal_changed ON Hotel;
+CREATE TRIGGER hotel_principal_changed
+AFTER INSERT OR DELETE OR UPDATE OF managerUserID ON Hotel
+FOR EACH ROW EXECUTE PROCEDURE notify_principal_changed();
+
+---catalog_changed: a room was added, changed or removed, the payload is 'hotelID:roomNumber'.
+---The room catalog cache drops the room.
+CREATE OR REPLACE FUNCTION notify_catalog_changed()
+RETURNS trigger AS $notify$
+BEGIN
+   IF TG_OP <> 'INSERT' THEN
+      PERFORM pg_notify('catalog_changed', OLD.hotelID || ':' || OLD.roomNumber);
+   END IF;
+   IF TG_OP <> 'DELETE' THEN
+      PERFORM pg_notify('catalog_changed', NEW.hotelID || ':' || NEW.roomNumber);
+   END IF;
+   RETURN NULL;
+END;
+$notify$ LANGUAGE plpgsql;
+
+DROP TRIGGER IF EXISTS rooms_catalog_changed ON Rooms;
+CREATE TRIGGER rooms_catalog_changed
+AFTER INSERT OR UPDATE OR DELETE ON Rooms
+FOR EACH ROW EXECUTE PROCEDURE notify_catalog_changed();
+
+---hotel_changed: a hotel was added, changed or removed, the payload is the hotelID.
+---The server refreshes its hotel location index.
+CREATE OR REPLACE FUNCTION notify_hotel_changed()
+RETURNS trigger AS $notify$
+BEGIN
+   IF TG_OP = 'DELETE' THEN
+      PERFORM pg_notify('hotel_changed', OLD.hotelID::text);
+   ELSE
+      PERFORM pg_notify('hotel_changed', NEW.hotelID::text);
+   END IF;
+   RETURN NULL;
+END;
+$notify$ LANGUAGE plpgsql;
+
+DROP TRIGGER IF EXISTS hotel_changed ON Hotel;
+CREATE TRIGGER hotel_changed
+AFTER INSERT OR UPDATE OR DELETE ON Hotel
+FOR EACH ROW EXECUTE PROCEDURE notify_hotel_changed();
+
+---Booking statistics: every booking added, moved or removed updates the number of bookings
+---of its customer in its hotel (CustomerBookingCounts) and of its hotel on its date (HotelDailyBookings),
+---in the same transaction. Rows are removed when their count reaches zero.
+---rebuild_statistics.sql fills both tables from RoomBookings, for data loaded before this trigger.
+CREATE OR REPLACE FUNCTION count_booking()
+RETURNS trigger AS $count$
+BEGIN
+   IF TG_OP <> 'INSERT' THEN
+      DELETE FROM CustomerBookingCounts
+      WHERE hotelID = OLD.hotelID AND customerID = OLD.customerID AND bookings <= 1;
+      IF NOT FOUND THEN
+         UPDATE CustomerBookingCounts SET bookings = bookings - 1
+         WHERE hotelID = OLD.hotelID AND customerID = OLD.customerID;
+      END IF;
+      DELETE FROM HotelDailyBookings
+      WHERE hotelID = OLD.hotelID AND bookingDate = OLD.bookingDate AND bookings <= 1;
+      IF NOT FOUND THEN
+         UPDATE HotelDailyBookings SET bookings = bookings - 1
+         WHERE hotelID = OLD.hotelID AND bookingDate = OLD.bookingDate;
+      END IF;
+   END IF;
+   IF TG_OP <> 'DELETE' THEN
+      INSERT INTO CustomerBookingCounts (hotelID, customerID, bookings)
+      VALUES (NEW.hotelID, NEW.customerID, 1)
+      ON CONFLICT (hotelID, customerID) DO UPDATE SET bookings = CustomerBookingCounts.bookings + 1;
+      INSERT INTO HotelDailyBookings (hotelID, bookingDate, bookings)
+      VALUES (NEW.hotelID, NEW.bookingDate, 1)
+      ON CONFLICT (hotelID, bookingDate) DO UPDATE SET bookings = HotelDailyBookings.bookings + 1;
+   END IF;
+   RETURN NULL;
+END;
+$count$ LANGUAGE plpgsql;
+
+DROP TRIGGER IF EXISTS room_bookings_count ON RoomBookings;
+CREATE TRIGGER room_bookings_count
+AFTER INSERT OR DELETE OR UPDATE OF customerID, hotelID, bookingDate ON RoomBookings
+FOR EACH ROW EXECUTE PROCEDURE count_booking();
@@ -0,0 +1,4 @@
+---Widens Users.password for the salted password hashes (see PasswordHash.java), for a database
+---created before they existed. Plain text passwords are kept and replaced by their hash at the
+---next successful log in of each user.
+ALTER TABLE Users ALTER COLUMN password TYPE varchar(128) USING rtrim(password);